@@ -0,0 +1,201 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import ast.AstArena;
+import ast.AstCodec;
+import ast.Program;
+import gen.CodeGenerator;
+import lexer.DfaTokeniser;
+import lexer.MappedScanner;
+import lexer.TokenBuffer;
+import parser.ArenaParser;
+import parser.Parser;
+import sem.SemanticAnalyzer;
+import util.Diagnostics;
+import util.ProgramGenerator;
+
+/**
+ * Compares the heap taken by the object AST and by the AstArena through
+ * parsing, semantic analysis and code generation, on a program from
+ * ProgramGenerator. The source and its tokens are kept throughout and are
+ * not counted. After each phase the heap still in use once garbage has been
+ * collected (what the compilation retains) and the peak heap since parsing
+ * started are reported, the former also per line of source.
+ *
+ * Peaks are the sum of the peaks of the heap memory pools, so they depend on
+ * the collector and are only comparable between runs of the same JVM.
+ *
+ * Then a program whose procedures hold expressions of many operands, as in
+ * ExpressionBenchmark, is parsed both ways on the default thread stack. The
+ * heap retained after parsing is reported, and the arena must give back the
+ * same AST as the objects, both rebuilt and encoded directly.
+ *
+ * Usage: java ArenaBenchmark [-procs=N] [-statements=N] [-operands=N]
+ */
+public class ArenaBenchmark {
+
+	private enum Phase {
+		PARSE, SEM, GEN
+	}
+
+	private static int procs = 10000;
+	private static int statements = 40;
+	private static int operands = 100000;
+
+	public static void main(String[] args) {
+		for (String arg : args) {
+			try {
+				if (arg.startsWith("-procs="))
+					procs = Integer.parseInt(arg.substring("-procs=".length()));
+				else if (arg.startsWith("-statements="))
+					statements = Integer.parseInt(arg.substring("-statements=".length()));
+				else if (arg.startsWith("-operands="))
+					operands = Integer.parseInt(arg.substring("-operands=".length()));
+				else
+					usage();
+			} catch (NumberFormatException e) {
+				usage();
+			}
+		}
+		if (procs < 1 || statements < 1 || operands < 1)
+			usage();
+
+		ProgramGenerator generator = new ProgramGenerator();
+		generator.procs = procs;
+		generator.statements = statements;
+		String text = generator.generate();
+		int lines = 0;
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) == '\n')
+				lines++;
+		}
+		byte[] source = text.getBytes(StandardCharsets.UTF_8);
+		text = null;
+		TokenBuffer tokens = new DfaTokeniser(new MappedScanner(ByteBuffer.wrap(source)), new Diagnostics())
+				.tokenise();
+
+		System.out.println(String.format("%d procedures, %d lines, %d tokens", procs, lines, tokens.size()));
+		System.out.println(String.format("  %-8s %-6s %12s %10s %12s", "tree", "phase", "retained MB", "B/line",
+				"peak MB"));
+		// once unmeasured, so that the classes are loaded and the JIT warm
+		compile(tokens, false, 0);
+		compile(tokens, true, 0);
+		compile(tokens, false, lines);
+		compile(tokens, true, lines);
+		tokens = null;
+		expressions();
+	}
+
+	private static void usage() {
+		System.out.println("Usage: java " + ArenaBenchmark.class.getSimpleName()
+				+ " [-procs=N] [-statements=N] [-operands=N]");
+		System.exit(-1);
+	}
+
+	/*
+	 * Parses long expressions into objects and into an arena, and checks that
+	 * both give the same AST.
+	 */
+	private static void expressions() {
+		ProgramGenerator generator = new ProgramGenerator();
+		generator.procs = 2;
+		generator.depth = 0;
+		generator.expressionLength = operands;
+		byte[] source = generator.generate().getBytes(StandardCharsets.UTF_8);
+		TokenBuffer tokens = new DfaTokeniser(new MappedScanner(ByteBuffer.wrap(source)), new Diagnostics())
+				.tokenise();
+		System.out.println(String.format("expressions of %d operands, %d tokens", operands, tokens.size()));
+		System.out.println(String.format("  %-8s %12s", "tree", "retained MB"));
+
+		long baseline = used();
+		Program program = new Parser(tokens, new Diagnostics()).parse();
+		System.out.println(String.format("  %-8s %12.1f", "objects", (used() - baseline) / 1e6));
+		if (program == null)
+			throw new IllegalStateException("generated program does not parse");
+		byte[] expected = AstCodec.encode(program);
+		program = null;
+
+		baseline = used();
+		AstArena arena = new ArenaParser(tokens, new Diagnostics()).parseArena();
+		System.out.println(String.format("  %-8s %12.1f", "arena", (used() - baseline) / 1e6));
+		if (arena == null)
+			throw new IllegalStateException("generated program does not parse into an arena");
+		if (!Arrays.equals(AstCodec.encode(arena.toProgram()), expected)
+				|| !Arrays.equals(AstCodec.encode(arena), expected))
+			throw new IllegalStateException("the arena gives a different AST");
+	}
+
+	/*
+	 * Parses, analyses and generates code for tokens, reporting the heap
+	 * after each phase unless lines is 0.
+	 */
+	private static void compile(TokenBuffer tokens, boolean arena, int lines) {
+		long baseline = used();
+		resetPeak();
+		String tree = arena ? "arena" : "objects";
+
+		Program program = null;
+		AstArena nodes = null;
+		if (arena)
+			nodes = new ArenaParser(tokens, new Diagnostics()).parseArena();
+		else
+			program = new Parser(tokens, new Diagnostics()).parse();
+		report(tree, Phase.PARSE, baseline, lines);
+
+		if (arena) {
+			program = nodes.toProgram();
+			nodes = null;
+		}
+		if (new SemanticAnalyzer().analyze(program) > 0)
+			throw new IllegalStateException("generated program does not type check");
+		report(tree, Phase.SEM, baseline, lines);
+
+		CodeGenerator codegen = new CodeGenerator();
+		codegen.emitProgram(program);
+		report(tree, Phase.GEN, baseline, lines);
+		if (codegen.data == null)
+			throw new IllegalStateException("no class generated");
+	}
+
+	private static void report(String tree, Phase phase, long baseline, int lines) {
+		if (lines == 0)
+			return;
+		long peak = peak();
+		long retained = used() - baseline;
+		System.out.println(String.format("  %-8s %-6s %12.1f %10.1f %12.1f", tree, phase.name().toLowerCase(),
+				retained / 1e6, retained / (double) lines, (peak - baseline) / 1e6));
+	}
+
+	/*
+	 * Heap in use after collecting garbage.
+	 */
+	private static long used() {
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+		}
+		return used;
+	}
+
+	private static void resetPeak() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				pool.resetPeakUsage();
+		}
+	}
+
+	private static long peak() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+}
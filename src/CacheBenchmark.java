@@ -0,0 +1,136 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ast.AstCache;
+import ast.Program;
+import lexer.DfaTokeniser;
+import lexer.MappedScanner;
+import parser.Parser;
+import util.Diagnostics;
+
+/**
+ * Compares cold and warm compiles of a corpus through the AST cache. A cold
+ * compile hashes the source, lexes, parses and stores the AST; a warm one
+ * hashes the source and loads the stored AST. Both are run in-process over
+ * every .c file of the given files and directories (tests by default), in a
+ * fresh cache directory, and the fastest of several rounds is reported.
+ *
+ * Usage: java CacheBenchmark [-rounds=N] [file|directory...]
+ */
+public class CacheBenchmark {
+
+	// unmeasured rounds, so that the JIT is warm
+	private static final int WARMUP = 5;
+
+	private static int rounds = 10;
+
+	public static void main(String[] args) throws IOException {
+		List<File> sources = new ArrayList<File>();
+		boolean named = false;
+		for (String arg : args) {
+			if (arg.startsWith("-rounds=")) {
+				try {
+					rounds = Integer.parseInt(arg.substring("-rounds=".length()));
+				} catch (NumberFormatException e) {
+					usage();
+				}
+			} else if (arg.startsWith("-")) {
+				usage();
+			} else {
+				add(new File(arg), sources);
+				named = true;
+			}
+		}
+		if (!named)
+			add(new File("tests"), sources);
+		if (sources.isEmpty() || rounds < 1)
+			usage();
+
+		File dir = File.createTempFile("astcache", "");
+		dir.delete();
+		try {
+			AstCache cache = new AstCache(dir);
+			long bytes = 0;
+			for (File source : sources)
+				bytes += source.length();
+			for (int r = 0; r < WARMUP; r++) {
+				cold(cache, sources);
+				warm(cache, sources);
+			}
+			long cold = Long.MAX_VALUE;
+			long warm = Long.MAX_VALUE;
+			for (int r = 0; r < rounds; r++) {
+				cold = Math.min(cold, cold(cache, sources));
+				warm = Math.min(warm, warm(cache, sources));
+			}
+			System.out.println(String.format("%d files, %d bytes of source", sources.size(), bytes));
+			System.out.println(String.format("  cold %10.3f ms  (hash, lex, parse, store)", cold / 1e6));
+			System.out.println(String.format("  warm %10.3f ms  (hash, load)", warm / 1e6));
+			System.out.println(String.format("  speedup %.1fx", cold / (double) warm));
+		} finally {
+			File[] entries = dir.listFiles();
+			if (entries != null) {
+				for (File entry : entries)
+					entry.delete();
+			}
+			dir.delete();
+		}
+	}
+
+	private static void usage() {
+		System.out.println("Usage: java " + CacheBenchmark.class.getSimpleName() + " [-rounds=N] [file|directory...]");
+		System.exit(-1);
+	}
+
+	private static void add(File file, List<File> sources) {
+		if (file.isDirectory()) {
+			File[] files = file.listFiles();
+			Arrays.sort(files);
+			for (File f : files) {
+				if (f.getName().endsWith(".c"))
+					sources.add(f);
+			}
+		} else if (file.isFile()) {
+			sources.add(file);
+		}
+	}
+
+	/*
+	 * Compiles every source without looking at the cache and returns the time
+	 * taken.
+	 */
+	private static long cold(AstCache cache, List<File> sources) throws IOException {
+		long time = 0;
+		for (File source : sources) {
+			long start = System.nanoTime();
+			String key = cache.key(source);
+			Diagnostics diagnostics = new Diagnostics();
+			Parser parser = new Parser(new DfaTokeniser(new MappedScanner(source), diagnostics).tokenise(),
+					diagnostics);
+			Program program = parser.parse();
+			if (diagnostics.getErrorCount() == 0)
+				cache.store(key, program);
+			time += System.nanoTime() - start;
+		}
+		return time;
+	}
+
+	/*
+	 * Loads every source from the cache filled by cold() and returns the time
+	 * taken.
+	 */
+	private static long warm(AstCache cache, List<File> sources) throws IOException {
+		long time = 0;
+		for (File source : sources) {
+			long start = System.nanoTime();
+			Program program = cache.load(cache.key(source));
+			time += System.nanoTime() - start;
+			if (program == null)
+				throw new IllegalStateException(source + " is not in the cache");
+		}
+		return time;
+	}
+}
@@ -0,0 +1,121 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+import ast.Assign;
+import ast.BinOp;
+import ast.Expr;
+import ast.Procedure;
+import ast.Program;
+import ast.Stmt;
+import lexer.DfaTokeniser;
+import lexer.MappedScanner;
+import lexer.TokenBuffer;
+import parser.Parser;
+import util.Diagnostics;
+import util.ProgramGenerator;
+
+/**
+ * Times the parsing of very long binary expressions. Programs from
+ * ProgramGenerator with two procedures and no nesting hold thirty
+ * assignments of a growing number of operands, up to the given one. They are
+ * parsed from a TokenBuffer on the default thread stack, so an expression
+ * parser which recurses once per operand overflows it. Every parse must give
+ * the expected number of operands in the first assignment; only the parse is
+ * timed, and the fastest of several rounds is reported.
+ *
+ * Usage: java ExpressionBenchmark [-operands=N] [-rounds=N]
+ */
+public class ExpressionBenchmark {
+
+	// unmeasured rounds, so that the JIT is warm
+	private static final int WARMUP = 5;
+
+	private static int operands = 100000;
+	private static int rounds = 10;
+
+	public static void main(String[] args) {
+		for (String arg : args) {
+			try {
+				if (arg.startsWith("-operands="))
+					operands = Integer.parseInt(arg.substring("-operands=".length()));
+				else if (arg.startsWith("-rounds="))
+					rounds = Integer.parseInt(arg.substring("-rounds=".length()));
+				else
+					usage();
+			} catch (NumberFormatException e) {
+				usage();
+			}
+		}
+		if (operands < 1 || rounds < 1)
+			usage();
+
+		System.out.println(String.format("  %9s %9s %10s %10s", "operands", "tokens", "ms", "Mtok/s"));
+		for (int size = Math.max(1, operands / 16); size <= operands; size *= 2) {
+			ProgramGenerator generator = new ProgramGenerator();
+			generator.procs = 2;
+			generator.depth = 0;
+			generator.expressionLength = size;
+			byte[] source = generator.generate().getBytes(StandardCharsets.UTF_8);
+			TokenBuffer tokens = new DfaTokeniser(new MappedScanner(ByteBuffer.wrap(source)), new Diagnostics())
+					.tokenise();
+			for (int r = 0; r < WARMUP; r++)
+				parse(tokens, size);
+			long time = Long.MAX_VALUE;
+			for (int r = 0; r < rounds; r++)
+				time = Math.min(time, parse(tokens, size));
+			System.out.println(String.format("  %9d %9d %10.2f %10.2f", size, tokens.size(), time / 1e6, tokens
+					.size() * 1e3 / time));
+		}
+	}
+
+	private static void usage() {
+		System.out.println("Usage: java " + ExpressionBenchmark.class.getSimpleName() + " [-operands=N] [-rounds=N]");
+		System.exit(-1);
+	}
+
+	/*
+	 * Parses tokens, checks the first long expression and returns the time
+	 * taken by the parse.
+	 */
+	private static long parse(TokenBuffer tokens, int size) {
+		Parser parser = new Parser(tokens, new Diagnostics());
+		long start = System.nanoTime();
+		Program program = parser.parse();
+		long time = System.nanoTime() - start;
+		if (parser.getErrorCount() > 0)
+			throw new IllegalStateException("generated program does not parse");
+		int count = count(first(program.procs.get(0)));
+		if (count != size)
+			throw new IllegalStateException("expression has " + count + " operands, not " + size);
+		return time;
+	}
+
+	/*
+	 * The expression of the first generated assignment, after the four that
+	 * initialise the locals.
+	 */
+	private static Expr first(Procedure proc) {
+		Stmt stmt = proc.block.stmts.get(4);
+		return ((Assign) stmt).expr;
+	}
+
+	/*
+	 * Counts the operands of expr without recursion.
+	 */
+	private static int count(Expr expr) {
+		int count = 0;
+		ArrayDeque<Expr> pending = new ArrayDeque<Expr>();
+		pending.push(expr);
+		while (!pending.isEmpty()) {
+			Expr e = pending.pop();
+			if (e instanceof BinOp) {
+				pending.push(((BinOp) e).lhs);
+				pending.push(((BinOp) e).rhs);
+			} else {
+				count++;
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,508 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import ast.ASTVisitor;
+import ast.Assign;
+import ast.BinOp;
+import ast.Block;
+import ast.ChrLiteral;
+import ast.Expr;
+import ast.FunCallExpr;
+import ast.FunCallStmt;
+import ast.If;
+import ast.IntLiteral;
+import ast.Intrinsic;
+import ast.Procedure;
+import ast.Program;
+import ast.Return;
+import ast.Stmt;
+import ast.StrLiteral;
+import ast.Tree;
+import ast.Var;
+import ast.VarDecl;
+import ast.While;
+import gen.CodeGenerator;
+import lexer.DfaTokeniser;
+import lexer.MappedScanner;
+import parser.Parser;
+import sem.IncrementalSemanticAnalyzer;
+import sem.SemanticAnalyzer;
+import util.Diagnostics;
+import util.ProgramGenerator;
+
+/**
+ * Applies random edits to a program from ProgramGenerator, one declaration at
+ * a time, and analyses every version both incrementally and from scratch. An
+ * edit changes a procedure body or signature, retypes or renames a global,
+ * inserts, deletes or moves a procedure, or undoes the edits of a declaration
+ * or of the whole program. The incremental analyzer sees the nodes of the declarations
+ * not edited since the previous version, as an editor re-parsing only what
+ * changed would give it. Both analyses must report the same diagnostics,
+ * resolve every name to the declaration at the same place and, when there are
+ * no errors, generate the same class. The mean and median time of each and
+ * the number of bodies the incremental one checked are reported.
+ *
+ * Usage: java IncrementalBenchmark [-procs=N] [-edits=N] [-seed=N]
+ */
+public class IncrementalBenchmark {
+
+	private static final String HEADER = "#include \"io.h\"\n\n";
+
+	private static int procs = 10000;
+	private static int edits = 200;
+	private static long seed = 1;
+
+	private static Random random;
+	// the text of each declaration, main last, what it was first (null if it
+	// was inserted) and the node it was analysed as, null once edited
+	private static List<String> texts;
+	private static List<String> originals;
+	private static List<Tree> nodes;
+	// the declarations of the generated program
+	private static List<String> initial;
+	private static int globals;
+	private static int fresh;
+
+	public static void main(String[] args) {
+		for (String arg : args) {
+			try {
+				if (arg.startsWith("-procs="))
+					procs = Integer.parseInt(arg.substring("-procs=".length()));
+				else if (arg.startsWith("-edits="))
+					edits = Integer.parseInt(arg.substring("-edits=".length()));
+				else if (arg.startsWith("-seed="))
+					seed = Long.parseLong(arg.substring("-seed=".length()));
+				else
+					usage();
+			} catch (NumberFormatException e) {
+				usage();
+			}
+		}
+		if (procs < 2 || edits < 1)
+			usage();
+
+		ProgramGenerator generator = new ProgramGenerator();
+		generator.procs = procs;
+		split(generator.generate());
+		random = new Random(seed);
+		nodes = new ArrayList<Tree>();
+		for (int i = 0; i < texts.size(); i++)
+			nodes.add(null);
+
+		IncrementalSemanticAnalyzer incremental = new IncrementalSemanticAnalyzer();
+		incremental.analyze(current(parse()), new Diagnostics());
+		long[] incrementalTimes = new long[edits];
+		long[] scratchTimes = new long[edits];
+		long checked = 0;
+		long relinked = 0;
+		int clean = 0;
+		for (int e = 0; e < edits; e++) {
+			edit();
+			Diagnostics diagnostics = new Diagnostics();
+			Program current = current(parse());
+			long start = System.nanoTime();
+			int errors = incremental.analyze(current, diagnostics);
+			incrementalTimes[e] = System.nanoTime() - start;
+			checked += incremental.getCheckedCount();
+			relinked += incremental.getRelinkedCount();
+
+			Program program = parse();
+			SemanticAnalyzer scratch = new SemanticAnalyzer();
+			scratch.setFused(true);
+			start = System.nanoTime();
+			int scratchErrors = scratch.analyze(program);
+			scratchTimes[e] = System.nanoTime() - start;
+			String reported = print(diagnostics);
+			if (errors != scratchErrors || !reported.equals(print(scratch.getDiagnostics())))
+				throw new IllegalStateException("diagnostics differ after edit " + e + ":\n" + reported);
+			if (!Links.of(current).equals(Links.of(program)))
+				throw new IllegalStateException("names resolve differently after edit " + e);
+			if (errors == 0) {
+				clean++;
+				if (!Arrays.equals(generate(current), generate(program)))
+					throw new IllegalStateException("generated code differs after edit " + e);
+			}
+		}
+		System.out.println(String.format("%d procedures, %d edits, %d without errors: results equal", procs,
+				edits, clean));
+		System.out.println(String.format("  %-12s %9s %9s", "ms/edit", "mean", "median"));
+		System.out.println(String.format("  %-12s %9.2f %9.2f", "from scratch", mean(scratchTimes) / 1e6,
+				median(scratchTimes) / 1e6));
+		System.out.println(String.format("  %-12s %9.2f %9.2f, %.1f bodies checked and %.1f relinked per edit",
+				"incremental", mean(incrementalTimes) / 1e6, median(incrementalTimes) / 1e6, checked
+						/ (double) edits, relinked / (double) edits));
+	}
+
+	private static double mean(long[] times) {
+		long sum = 0;
+		for (long time : times)
+			sum += time;
+		return sum / (double) times.length;
+	}
+
+	private static double median(long[] times) {
+		long[] sorted = times.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+
+	private static void usage() {
+		System.out.println("Usage: java " + IncrementalBenchmark.class.getSimpleName()
+				+ " [-procs=N] [-edits=N] [-seed=N]");
+		System.exit(-1);
+	}
+
+	/*
+	 * Splits a generated program into its declarations: a line starting a
+	 * global or a procedure, up to the next such line.
+	 */
+	private static void split(String program) {
+		texts = new ArrayList<String>();
+		StringBuilder unit = null;
+		for (String line : program.substring(HEADER.length()).split("\n", -1)) {
+			if (!line.isEmpty() && !line.startsWith(" ") && !line.startsWith("}")) {
+				if (unit != null)
+					texts.add(unit.toString());
+				unit = new StringBuilder();
+			}
+			if (unit != null && !line.isEmpty())
+				unit.append(line).append('\n');
+		}
+		texts.add(unit.toString());
+		initial = new ArrayList<String>(texts);
+		originals = new ArrayList<String>(texts);
+		for (globals = 0; !texts.get(globals).contains("("); globals++)
+			;
+	}
+
+	private static Program parse() {
+		StringBuilder source = new StringBuilder(HEADER);
+		for (String text : texts)
+			source.append(text).append('\n');
+		byte[] bytes = source.toString().getBytes(StandardCharsets.UTF_8);
+		Diagnostics diagnostics = new Diagnostics();
+		Program program = new Parser(new DfaTokeniser(new MappedScanner(ByteBuffer.wrap(bytes)), diagnostics)
+				.tokenise(), diagnostics).parse();
+		if (diagnostics.getErrorCount() > 0)
+			throw new IllegalStateException("edit does not parse:\n" + source);
+		return program;
+	}
+
+	private static Tree node(Program program, int i) {
+		if (i < globals)
+			return program.varDecls.get(i);
+		if (i < texts.size() - 1)
+			return program.procs.get(i - globals);
+		return program.main;
+	}
+
+	/*
+	 * Returns the current version: the nodes of the declarations not edited
+	 * since the previous one, and those of program for the others.
+	 */
+	private static Program current(Program program) {
+		for (int i = 0; i < texts.size(); i++) {
+			if (nodes.get(i) == null)
+				nodes.set(i, node(program, i));
+		}
+		List<VarDecl> varDecls = new ArrayList<VarDecl>();
+		List<Procedure> procedures = new ArrayList<Procedure>();
+		for (int i = 0; i < texts.size() - 1; i++) {
+			if (i < globals)
+				varDecls.add((VarDecl) nodes.get(i));
+			else
+				procedures.add((Procedure) nodes.get(i));
+		}
+		return new Program(varDecls, procedures, (Procedure) nodes.get(texts.size() - 1));
+	}
+
+	private static String print(Diagnostics diagnostics) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		diagnostics.print(new PrintStream(out));
+		return out.toString();
+	}
+
+	private static byte[] generate(Program program) {
+		CodeGenerator codegen = new CodeGenerator();
+		codegen.emitProgram(program);
+		return codegen.data;
+	}
+
+	private static void replace(int i, String text) {
+		texts.set(i, text);
+		nodes.set(i, null);
+	}
+
+	private static void insert(int i, String text) {
+		texts.add(i, text);
+		originals.add(i, null);
+		nodes.add(i, null);
+	}
+
+	private static void remove(int i) {
+		texts.remove(i);
+		originals.remove(i);
+		nodes.remove(i);
+	}
+
+	/*
+	 * Undoes the edits of a declaration, from a random one on, removing it if
+	 * it was inserted.
+	 */
+	private static void revert() {
+		int start = random.nextInt(texts.size() - 1);
+		for (int k = 0; k < texts.size() - 1; k++) {
+			int i = (start + k) % (texts.size() - 1);
+			if (originals.get(i) == null) {
+				if (texts.size() - 1 - globals > 1)
+					remove(i);
+				return;
+			}
+			if (!texts.get(i).equals(originals.get(i))) {
+				replace(i, originals.get(i));
+				return;
+			}
+		}
+	}
+
+	/*
+	 * Goes back to the generated program, keeping the nodes of the
+	 * declarations whose text is unchanged.
+	 */
+	private static void restore() {
+		Map<String, ArrayDeque<Tree>> unchanged = new HashMap<String, ArrayDeque<Tree>>();
+		for (int i = 0; i < texts.size(); i++) {
+			if (texts.get(i).equals(originals.get(i))) {
+				ArrayDeque<Tree> same = unchanged.get(texts.get(i));
+				if (same == null) {
+					same = new ArrayDeque<Tree>();
+					unchanged.put(texts.get(i), same);
+				}
+				same.add(nodes.get(i));
+			}
+		}
+		texts = new ArrayList<String>(initial);
+		originals = new ArrayList<String>(initial);
+		nodes = new ArrayList<Tree>();
+		for (String text : initial) {
+			ArrayDeque<Tree> same = unchanged.get(text);
+			nodes.add(same == null ? null : same.poll());
+		}
+	}
+
+	/*
+	 * Makes one random edit.
+	 */
+	private static void edit() {
+		int procedures = texts.size() - 1 - globals;
+		int p = globals + random.nextInt(procedures);
+		String text = texts.get(p);
+		String name = text.substring(text.indexOf(' ') + 1, text.indexOf('('));
+		switch (random.nextInt(12)) {
+		case 0:
+			// a body, keeping it valid
+			replace(p, text.contains("return v0;") ? text.replace("return v0;", "return v1;") : text.replace(
+					"return v1;", "return v0;"));
+			break;
+		case 1:
+			// a body, with a name or type error
+			replace(p, text.replace("  return", random.nextBoolean() ? "  v2 = zz;\n  return"
+					: "  v2 = 'c';\n  return"));
+			break;
+		case 2:
+			// a signature
+			replace(p, random.nextBoolean() ? text.replaceFirst("^int ", "char ") : text.replaceFirst("int b\\)",
+					"int b, int c)"));
+			break;
+		case 3: {
+			int g = random.nextInt(globals);
+			String global = texts.get(g);
+			replace(g, random.nextBoolean() ? global.replaceFirst("^int ", "char ") : global.replace(" g", " h"));
+			break;
+		}
+		case 4:
+			// a new procedure, or another declaration of an existing name
+			insert(globals + random.nextInt(procedures + 1), random.nextBoolean() ? text.replaceFirst(
+					" " + name + "\\(", " q" + fresh++ + "(") : text);
+			break;
+		case 5:
+			if (procedures > 1)
+				remove(p);
+			break;
+		case 6: {
+			// swap two procedures, keeping their nodes
+			int q = globals + random.nextInt(procedures);
+			texts.set(p, texts.set(q, text));
+			originals.set(p, originals.set(q, originals.get(p)));
+			nodes.set(p, nodes.set(q, nodes.get(p)));
+			break;
+		}
+		case 7:
+			restore();
+			break;
+		default:
+			revert();
+			break;
+		}
+	}
+
+	/*
+	 * Lists what each use of a name in a program resolves to, in the order of
+	 * the uses: the position of the global, local or procedure declaring it,
+	 * the builtin, nothing (?) or a declaration not in the program (x).
+	 */
+	private static class Links implements ASTVisitor<Void> {
+		private final StringBuilder out = new StringBuilder();
+		private final Map<Tree, Integer> globals = new IdentityHashMap<Tree, Integer>();
+		private final Map<Tree, Integer> procedures = new IdentityHashMap<Tree, Integer>();
+		private final Map<Tree, Integer> locals = new IdentityHashMap<Tree, Integer>();
+
+		static String of(Program program) {
+			Links links = new Links();
+			program.accept(links);
+			return links.out.toString();
+		}
+
+		private void link(String kind, Map<Tree, Integer> declarations, Tree declaration) {
+			Integer index = declarations.get(declaration);
+			if (index != null)
+				out.append(kind).append(index);
+			else
+				out.append('x');
+			out.append(' ');
+		}
+
+		/*
+		 * The arguments of a call which does not resolve are not analysed at
+		 * all, so they are left out.
+		 */
+		private void calls(Procedure proc, List<Expr> exprs) {
+			Intrinsic in = proc == null ? null : Intrinsic.of(proc);
+			if (proc == null) {
+				out.append("? ");
+				return;
+			} else if (in != null)
+				out.append(in).append(' ');
+			else
+				link("p", procedures, proc);
+			for (Expr e : exprs)
+				e.accept(this);
+		}
+
+		@Override
+		public Void visitProgram(Program p) {
+			for (VarDecl vd : p.varDecls)
+				globals.put(vd, globals.size());
+			for (Procedure proc : p.procs)
+				procedures.put(proc, procedures.size());
+			procedures.put(p.main, procedures.size());
+			for (Procedure proc : p.procs)
+				proc.accept(this);
+			p.main.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitVarDecl(VarDecl vd) {
+			locals.put(vd, locals.size());
+			return null;
+		}
+
+		@Override
+		public Void visitVar(Var v) {
+			if (v.varDecl == null)
+				out.append("? ");
+			else if (locals.containsKey(v.varDecl))
+				link("l", locals, v.varDecl);
+			else
+				link("g", globals, v.varDecl);
+			return null;
+		}
+
+		@Override
+		public Void visitProcedure(Procedure p) {
+			locals.clear();
+			out.append('\n');
+			for (VarDecl vd : p.params)
+				vd.accept(this);
+			return p.block.accept(this);
+		}
+
+		@Override
+		public Void visitFunCallExpr(FunCallExpr f) {
+			calls(f.proc, f.exprs);
+			return null;
+		}
+
+		@Override
+		public Void visitFunCallStmt(FunCallStmt f) {
+			calls(f.proc, f.exprs);
+			return null;
+		}
+
+		@Override
+		public Void visitBlock(Block b) {
+			for (VarDecl vd : b.varDecls)
+				vd.accept(this);
+			for (Stmt stmt : b.stmts)
+				stmt.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitBinOp(BinOp b) {
+			b.lhs.accept(this);
+			return b.rhs.accept(this);
+		}
+
+		@Override
+		public Void visitAssign(Assign a) {
+			a.var.accept(this);
+			return a.expr.accept(this);
+		}
+
+		@Override
+		public Void visitIf(If i) {
+			i.expr.accept(this);
+			i.stmt1.accept(this);
+			return i.stmt2 == null ? null : i.stmt2.accept(this);
+		}
+
+		@Override
+		public Void visitReturn(Return r) {
+			out.append("r ");
+			return r.expr == null ? null : r.expr.accept(this);
+		}
+
+		@Override
+		public Void visitWhile(While w) {
+			w.expr.accept(this);
+			return w.stmt.accept(this);
+		}
+
+		@Override
+		public Void visitStrLiteral(StrLiteral s) {
+			return null;
+		}
+
+		@Override
+		public Void visitIntLiteral(IntLiteral i) {
+			return null;
+		}
+
+		@Override
+		public Void visitChrLiteral(ChrLiteral c) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,212 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import lexer.DfaTokeniser;
+import lexer.IncrementalLexer;
+import lexer.MappedScanner;
+import lexer.TokenBuffer;
+
+/**
+ * Applies random edits to sources through an IncrementalLexer and checks after
+ * every edit that its tokens are those of a full re-lex of the edited text:
+ * same classes, extents, positions and name ids. The edits insert or remove
+ * comment openers and closers, quotes, line breaks (CRLF included) and whole
+ * statements, or delete a random range, and half of them are undone by the
+ * next edit. The sources are the .c files of the given files and directories
+ * (tests by default), and a mixed input of about 1MB made of the same files
+ * repeated. The mean time of both and the number of tokens each edit
+ * re-tokenised are reported.
+ *
+ * Usage: java IncrementalLexerBenchmark [-edits=N] [-seed=N]
+ * [file|directory...]
+ */
+public class IncrementalLexerBenchmark {
+
+	// what the edits insert, chosen to open and close comments and literals
+	private static final String[] FRAGMENTS = { "/*", "*/", "//", "\"", "'", "\n", "\r\n", " ", "x", "1", "=",
+			"'c'", "\"s\"", "/* c */", "x = y + 1;\n", "while (x < 3) { x = x + 1; }\n", "#include \"io.h\"\n" };
+
+	// size of the mixed input
+	private static final int MIXED = 1 << 20;
+
+	private static int edits = 300;
+	private static long seed = 1;
+
+	private static Random random;
+
+	public static void main(String[] args) throws IOException {
+		List<File> files = new ArrayList<File>();
+		boolean named = false;
+		for (String arg : args) {
+			try {
+				if (arg.startsWith("-edits="))
+					edits = Integer.parseInt(arg.substring("-edits=".length()));
+				else if (arg.startsWith("-seed="))
+					seed = Long.parseLong(arg.substring("-seed=".length()));
+				else if (arg.startsWith("-"))
+					usage();
+				else {
+					add(new File(arg), files);
+					named = true;
+				}
+			} catch (NumberFormatException e) {
+				usage();
+			}
+		}
+		if (!named)
+			add(new File("tests"), files);
+		if (files.isEmpty() || edits < 1)
+			usage();
+
+		random = new Random(seed);
+		List<String> names = new ArrayList<String>();
+		List<byte[]> sources = new ArrayList<byte[]>();
+		StringBuilder mixed = new StringBuilder();
+		for (File file : files) {
+			byte[] source = Files.readAllBytes(file.toPath());
+			names.add(file.getName());
+			sources.add(source);
+		}
+		while (mixed.length() < MIXED) {
+			for (byte[] source : sources)
+				mixed.append(new String(source, StandardCharsets.UTF_8));
+		}
+		names.add("mixed");
+		sources.add(mixed.toString().getBytes(StandardCharsets.UTF_8));
+
+		System.out.println(String.format("  %-24s %9s %7s %12s %12s %10s", "source", "tokens", "edits",
+				"full ms", "edit ms", "relexed"));
+		int total = 0;
+		for (int s = 0; s < sources.size(); s++) {
+			check(names.get(s), sources.get(s));
+			total += edits;
+		}
+		System.out.println(total + " edits: tokens equal");
+	}
+
+	private static void usage() {
+		System.out.println("Usage: java " + IncrementalLexerBenchmark.class.getSimpleName()
+				+ " [-edits=N] [-seed=N] [file|directory...]");
+		System.exit(-1);
+	}
+
+	private static void add(File file, List<File> files) {
+		if (file.isDirectory()) {
+			File[] entries = file.listFiles();
+			Arrays.sort(entries);
+			for (File f : entries) {
+				if (f.getName().endsWith(".c"))
+					files.add(f);
+			}
+		} else if (file.isFile()) {
+			files.add(file);
+		}
+	}
+
+	private static TokenBuffer lex(byte[] text) {
+		return new DfaTokeniser(new MappedScanner(ByteBuffer.wrap(text))).tokenise();
+	}
+
+	/*
+	 * Edits source and compares the incremental tokens with a full re-lex
+	 * after every edit.
+	 */
+	private static void check(String name, byte[] source) {
+		byte[] text = source;
+		IncrementalLexer lexer = new IncrementalLexer(lex(text));
+		long full = 0;
+		long incremental = 0;
+		long relexed = 0;
+		// the edit undoing the previous one, if any: offset, removed, inserted
+		int[] undo = null;
+		String undone = null;
+		for (int e = 0; e < edits; e++) {
+			int offset;
+			int removed;
+			String inserted;
+			if (undo != null) {
+				offset = undo[0];
+				removed = undo[1];
+				inserted = undone;
+				undo = null;
+			} else {
+				offset = boundary(text, random.nextInt(text.length + 1));
+				if (random.nextInt(3) == 0) {
+					removed = boundary(text, Math.min(text.length, offset + 1 + random.nextInt(40))) - offset;
+					inserted = "";
+				} else {
+					removed = random.nextInt(4) == 0 ? boundary(text, Math.min(text.length, offset + 1)) - offset : 0;
+					inserted = FRAGMENTS[random.nextInt(FRAGMENTS.length)];
+				}
+				if (random.nextBoolean()) {
+					byte[] bytes = inserted.getBytes(StandardCharsets.UTF_8);
+					undo = new int[] { offset, bytes.length };
+					undone = new String(text, offset, removed, StandardCharsets.UTF_8);
+				}
+			}
+			text = apply(text, offset, removed, inserted);
+
+			long start = System.nanoTime();
+			TokenBuffer tokens = lexer.edit(offset, removed, inserted);
+			incremental += System.nanoTime() - start;
+			relexed += lexer.getRelexedCount();
+			start = System.nanoTime();
+			TokenBuffer expected = lex(text);
+			full += System.nanoTime() - start;
+
+			String difference = compare(tokens, expected);
+			if (difference != null)
+				throw new IllegalStateException(name + ", edit " + e + " at " + offset + " removing " + removed
+						+ " inserting \"" + inserted + "\": " + difference);
+		}
+		System.out.println(String.format("  %-24s %9d %7d %12.3f %12.3f %10.1f", name, lex(source).size(), edits,
+				full / 1e6 / edits, incremental / 1e6 / edits, relexed / (double) edits));
+	}
+
+	/*
+	 * Moves offset back to the start of the UTF-8 character it falls in.
+	 */
+	private static int boundary(byte[] text, int offset) {
+		while (offset > 0 && offset < text.length && (text[offset] & 0xC0) == 0x80)
+			offset--;
+		return offset;
+	}
+
+	private static byte[] apply(byte[] text, int offset, int removed, String inserted) {
+		byte[] bytes = inserted.getBytes(StandardCharsets.UTF_8);
+		byte[] result = new byte[text.length - removed + bytes.length];
+		System.arraycopy(text, 0, result, 0, offset);
+		System.arraycopy(bytes, 0, result, offset, bytes.length);
+		System.arraycopy(text, offset + removed, result, offset + bytes.length, text.length - offset - removed);
+		return result;
+	}
+
+	/*
+	 * Returns where two token buffers first differ, or null if they are the
+	 * same.
+	 */
+	private static String compare(TokenBuffer actual, TokenBuffer expected) {
+		int n = Math.min(actual.size(), expected.size());
+		for (int i = 0; i < n; i++) {
+			if (actual.tokenClass(i) != expected.tokenClass(i) || actual.offset(i) != expected.offset(i)
+					|| actual.length(i) != expected.length(i) || actual.line(i) != expected.line(i)
+					|| actual.column(i) != expected.column(i) || actual.id(i) != expected.id(i))
+				return "token " + i + " is " + describe(actual, i) + ", expected " + describe(expected, i);
+		}
+		if (actual.size() != expected.size())
+			return actual.size() + " tokens, expected " + expected.size();
+		return null;
+	}
+
+	private static String describe(TokenBuffer tokens, int i) {
+		return tokens.toString(i) + " at " + tokens.line(i) + ":" + tokens.column(i) + " [" + tokens.offset(i)
+				+ "+" + tokens.length(i) + "]";
+	}
+}
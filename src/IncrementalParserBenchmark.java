@@ -0,0 +1,331 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import ast.ASTPrinter;
+import ast.Procedure;
+import ast.Program;
+import ast.Tree;
+import ast.VarDecl;
+import lexer.DfaTokeniser;
+import lexer.MappedScanner;
+import lexer.TokenBuffer;
+import parser.IncrementalParser;
+import parser.Parser;
+import util.Diagnostic;
+import util.Diagnostic.Phase;
+import util.Diagnostics;
+import util.ProgramGenerator;
+
+/**
+ * Checks and times IncrementalParser. First, random edits are applied to the
+ * .c files of the given files and directories (tests by default) and to a
+ * generated program: characters, tokens, braces, statements and declarations
+ * are inserted or removed, each edit followed by its revert, and digits are
+ * changed in place. After every edit the parse errors must be those of a fresh
+ * Parser.parse() of the edited text, and so must the AST when there are none.
+ * When an edit parses part of the program only, every declaration it did not
+ * parse again must be the very VarDecl or Procedure node of the previous
+ * version, in the same order.
+ *
+ * Then one digit in the body of the middle procedure of a program with many
+ * procedures is changed back and forth. Each of these edits must parse that
+ * procedure only and keep the nodes of all the other declarations. The median
+ * time of an edit, of the parse it ends with and of a full parse are
+ * reported.
+ *
+ * Usage: java IncrementalParserBenchmark [-procs=N] [-edits=N] [-seed=N]
+ * [file|directory...]
+ */
+public class IncrementalParserBenchmark {
+
+	// what the random edits insert
+	private static final String[] FRAGMENTS = { "x", "1", ";", "{", "}", "(", ")", " ", "\n", "+", "=", "/*", "*/",
+			"int", "v0 = v1;\n", "int q;\n", "int q() { return 0; }\n", "void main() {}\n", "#include \"io.h\"\n" };
+
+	// procedures of the generated program edited at random
+	private static final int RANDOM_PROCS = 100;
+
+	private static int procs = 5000;
+	private static int edits = 200;
+	private static long seed = 1;
+
+	private static Random random;
+
+	public static void main(String[] args) throws IOException {
+		List<File> files = new ArrayList<File>();
+		boolean named = false;
+		for (String arg : args) {
+			try {
+				if (arg.startsWith("-procs="))
+					procs = Integer.parseInt(arg.substring("-procs=".length()));
+				else if (arg.startsWith("-edits="))
+					edits = Integer.parseInt(arg.substring("-edits=".length()));
+				else if (arg.startsWith("-seed="))
+					seed = Long.parseLong(arg.substring("-seed=".length()));
+				else if (arg.startsWith("-"))
+					usage();
+				else {
+					add(new File(arg), files);
+					named = true;
+				}
+			} catch (NumberFormatException e) {
+				usage();
+			}
+		}
+		if (!named)
+			add(new File("tests"), files);
+		if (procs < 3 || edits < 2)
+			usage();
+
+		random = new Random(seed);
+		System.out.println(String.format("  %-20s %7s %9s %9s %9s", "source", "edits", "partial", "reparsed",
+				"reused"));
+		int total = 0;
+		for (File file : files) {
+			check(file.getName(), Files.readAllBytes(file.toPath()));
+			total += edits;
+		}
+		ProgramGenerator generator = new ProgramGenerator();
+		generator.procs = RANDOM_PROCS;
+		check("p" + RANDOM_PROCS + ".c", generator.generate().getBytes(StandardCharsets.UTF_8));
+		total += edits;
+		System.out.println(total + " edits: errors, ASTs and reused nodes as expected");
+
+		time();
+	}
+
+	private static void usage() {
+		System.out.println("Usage: java " + IncrementalParserBenchmark.class.getSimpleName()
+				+ " [-procs=N] [-edits=N] [-seed=N] [file|directory...]");
+		System.exit(-1);
+	}
+
+	private static void add(File file, List<File> files) {
+		if (file.isDirectory()) {
+			File[] entries = file.listFiles();
+			Arrays.sort(entries);
+			for (File f : entries) {
+				if (f.getName().endsWith(".c"))
+					files.add(f);
+			}
+		} else if (file.isFile()) {
+			files.add(file);
+		}
+	}
+
+	private static TokenBuffer lex(byte[] text) {
+		return new DfaTokeniser(new MappedScanner(ByteBuffer.wrap(text))).tokenise();
+	}
+
+	/*
+	 * Applies random edits to source, each checked against a fresh parse.
+	 */
+	private static void check(String name, byte[] source) {
+		byte[] text = source;
+		Diagnostics diagnostics = new Diagnostics(Integer.MAX_VALUE);
+		IncrementalParser parser = new IncrementalParser(lex(text), diagnostics);
+		parsingErrors(diagnostics);
+		int partial = 0;
+		long reparsed = 0;
+		long reused = 0;
+		// the edit undoing the previous one, if any: offset, removed, inserted
+		int[] undo = null;
+		String undone = null;
+		for (int e = 0; e < edits; e++) {
+			int offset;
+			int removed;
+			String inserted;
+			if (undo != null) {
+				offset = undo[0];
+				removed = undo[1];
+				inserted = undone;
+				undo = null;
+			} else {
+				offset = boundary(text, random.nextInt(text.length + 1));
+				int digit = offset < text.length && text[offset] >= '0' && text[offset] <= '9' ? text[offset] : -1;
+				if (digit >= 0 && random.nextBoolean()) {
+					removed = 1;
+					inserted = String.valueOf((char) ('0' + (digit - '0' + 1) % 10));
+				} else {
+					if (random.nextInt(3) == 0) {
+						removed = boundary(text, Math.min(text.length, offset + 1 + random.nextInt(20))) - offset;
+						inserted = "";
+					} else {
+						removed = 0;
+						inserted = FRAGMENTS[random.nextInt(FRAGMENTS.length)];
+					}
+					undo = new int[] { offset, inserted.getBytes(StandardCharsets.UTF_8).length };
+					undone = new String(text, offset, removed, StandardCharsets.UTF_8);
+				}
+			}
+			text = apply(text, offset, removed, inserted);
+
+			Program before = parser.getProgram();
+			Program program = parser.edit(offset, removed, inserted);
+			String where = name + ", edit " + e + " at " + offset + " removing " + removed + " inserting \""
+					+ inserted + "\": ";
+
+			Diagnostics fresh = new Diagnostics(Integer.MAX_VALUE);
+			Parser full = new Parser(lex(text), fresh);
+			Program expected = full.parse();
+			String errors = parsingErrors(diagnostics);
+			if (parser.getErrorCount() != full.getErrorCount())
+				throw new IllegalStateException(where + parser.getErrorCount() + " errors, expected "
+						+ full.getErrorCount());
+			if (parser.getReparsedCount() < 0 && !errors.equals(parsingErrors(fresh)))
+				throw new IllegalStateException(where + "errors differ:\n" + errors);
+			if (full.getErrorCount() > 0)
+				continue;
+			if (!print(program).equals(print(expected)))
+				throw new IllegalStateException(where + "AST differs from a fresh parse");
+
+			if (parser.getReparsedCount() >= 0) {
+				int kept = reused(before, program);
+				int count = declarations(program).size();
+				if (kept != count - parser.getReparsedCount())
+					throw new IllegalStateException(where + "parsed " + parser.getReparsedCount() + " of " + count
+							+ " declarations but reused " + kept);
+				partial++;
+				reparsed += parser.getReparsedCount();
+				reused += kept;
+			}
+		}
+		System.out.println(String.format("  %-20s %7d %9d %9.1f %9.1f", name, edits, partial, reparsed
+				/ (double) Math.max(partial, 1), reused / (double) Math.max(partial, 1)));
+	}
+
+	/*
+	 * Changes one digit in the middle procedure of a large program, and
+	 * reports the time taken.
+	 */
+	private static void time() {
+		ProgramGenerator generator = new ProgramGenerator();
+		generator.procs = procs;
+		String source = generator.generate();
+		byte[] text = source.getBytes(StandardCharsets.UTF_8);
+		int middle = procs / 2;
+		int offset = source.indexOf("v2 = 0;", source.indexOf("int p" + middle + "(")) + "v2 = ".length();
+
+		IncrementalParser parser = new IncrementalParser(lex(text));
+		int tokens = parser.getTokens().size();
+		long[] editTimes = new long[edits];
+		long[] reparseTimes = new long[edits];
+		for (int e = 0; e < edits; e++) {
+			String digit = e % 2 == 0 ? "1" : "0";
+			Program before = parser.getProgram();
+			long start = System.nanoTime();
+			Program program = parser.edit(offset, 1, digit);
+			editTimes[e] = System.nanoTime() - start;
+			reparseTimes[e] = parser.getParseTime();
+
+			int count = declarations(program).size();
+			if (parser.getReparsedCount() != 1 || reused(before, program) != count - 1)
+				throw new IllegalStateException("edit " + e + " parsed " + parser.getReparsedCount()
+						+ " declarations and reused " + reused(before, program) + " of " + count);
+			if (program.procs.get(middle) == before.procs.get(middle))
+				throw new IllegalStateException("edit " + e + " did not parse p" + middle + " again");
+		}
+		long[] parseTimes = new long[Math.min(edits, 20)];
+		TokenBuffer buffer = parser.getTokens();
+		for (int r = 0; r < parseTimes.length; r++) {
+			long start = System.nanoTime();
+			new Parser(buffer).parse();
+			parseTimes[r] = System.nanoTime() - start;
+		}
+		System.out.println(String.format("%d procedures, %d tokens, %d edits of p%d: 1 declaration parsed,"
+				+ " all others reused", procs, tokens, edits, middle));
+		System.out.println(String.format("  %-20s %10.3f ms", "edit (median)", median(editTimes) / 1e6));
+		System.out.println(String.format("  %-20s %10.3f ms", "  of which parse", median(reparseTimes) / 1e6));
+		System.out.println(String.format("  %-20s %10.3f ms", "full parse", median(parseTimes) / 1e6));
+	}
+
+	private static long median(long[] times) {
+		long[] sorted = times.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+
+	private static List<Tree> declarations(Program program) {
+		List<Tree> decls = new ArrayList<Tree>();
+		for (VarDecl vd : program.varDecls)
+			decls.add(vd);
+		for (Procedure p : program.procs)
+			decls.add(p);
+		decls.add(program.main);
+		return decls;
+	}
+
+	/*
+	 * Returns how many declarations of program are nodes of before, checking
+	 * that they are in the same order.
+	 */
+	private static int reused(Program before, Program program) {
+		Map<Tree, Integer> old = new IdentityHashMap<Tree, Integer>();
+		for (Tree decl : declarations(before))
+			old.put(decl, old.size());
+		int kept = 0;
+		int last = -1;
+		for (Tree decl : declarations(program)) {
+			Integer index = old.get(decl);
+			if (index == null)
+				continue;
+			if (index <= last)
+				throw new IllegalStateException("reused declarations are out of order");
+			last = index;
+			kept++;
+		}
+		return kept;
+	}
+
+	/*
+	 * Renders the parsing errors reported since the last call.
+	 */
+	private static String parsingErrors(Diagnostics diagnostics) {
+		StringBuilder sb = new StringBuilder();
+		for (Diagnostic d : diagnostics.getPending()) {
+			if (d.code.phase == Phase.PARSER)
+				sb.append(d).append('\n');
+		}
+		diagnostics.print(new PrintStream(new ByteArrayOutputStream()));
+		return sb.toString();
+	}
+
+	private static String print(Program program) {
+		StringWriter out = new StringWriter();
+		PrintWriter writer = new PrintWriter(out);
+		program.accept(new ASTPrinter(writer));
+		writer.flush();
+		return out.toString();
+	}
+
+	/*
+	 * Moves offset back to the start of the UTF-8 character it falls in.
+	 */
+	private static int boundary(byte[] text, int offset) {
+		while (offset > 0 && offset < text.length && (text[offset] & 0xC0) == 0x80)
+			offset--;
+		return offset;
+	}
+
+	private static byte[] apply(byte[] text, int offset, int removed, String inserted) {
+		byte[] bytes = inserted.getBytes(StandardCharsets.UTF_8);
+		byte[] result = new byte[text.length - removed + bytes.length];
+		System.arraycopy(text, 0, result, 0, offset);
+		System.arraycopy(bytes, 0, result, offset, bytes.length);
+		System.arraycopy(text, offset + removed, result, offset + bytes.length, text.length - offset - removed);
+		return result;
+	}
+}
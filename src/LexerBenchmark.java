@@ -0,0 +1,194 @@
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import lexer.DfaTokeniser;
+import lexer.MappedScanner;
+import lexer.ParallelTokeniser;
+import lexer.Scanner;
+import lexer.Token;
+import lexer.Token.TokenClass;
+import lexer.Tokeniser;
+
+/**
+ * Measures tokens per second of the hand-written Tokeniser, reading through a
+ * Scanner or a MappedScanner, and of the DfaTokeniser over a MappedScanner.
+ * Two inputs are timed: the .c files of the given files and directories (tests
+ * by default), one at a time, and a synthetic input made of the same files
+ * concatenated several times. Everything is read from memory, so no I/O is
+ * timed, and the fastest of several rounds is reported. The synthetic input is
+ * then tokenised by a ParallelTokeniser with each of the given numbers of
+ * threads, and the speedup over the sequential DfaTokeniser is reported.
+ *
+ * Usage: java LexerBenchmark [-rounds=N] [-repeat=N] [-threads=N,N...]
+ * [file|directory...]
+ */
+public class LexerBenchmark {
+
+	// unmeasured rounds, so that the JIT is warm
+	private static final int WARMUP = 5;
+
+	private static int rounds = 10;
+	private static int repeat = 400;
+	private static int[] threads = { 1, 2, 4, 8, 16 };
+
+	private enum Lexer {
+		READER, MAPPED, DFA
+	}
+
+	public static void main(String[] args) throws IOException {
+		List<File> files = new ArrayList<File>();
+		boolean named = false;
+		for (String arg : args) {
+			try {
+				if (arg.startsWith("-rounds="))
+					rounds = Integer.parseInt(arg.substring("-rounds=".length()));
+				else if (arg.startsWith("-repeat="))
+					repeat = Integer.parseInt(arg.substring("-repeat=".length()));
+				else if (arg.startsWith("-threads=")) {
+					String[] counts = arg.substring("-threads=".length()).split(",");
+					threads = new int[counts.length];
+					for (int i = 0; i < counts.length; i++)
+						threads[i] = Integer.parseInt(counts[i]);
+				} else if (arg.startsWith("-"))
+					usage();
+				else {
+					add(new File(arg), files);
+					named = true;
+				}
+			} catch (NumberFormatException e) {
+				usage();
+			}
+		}
+		if (!named)
+			add(new File("tests"), files);
+		if (files.isEmpty() || rounds < 1 || repeat < 1)
+			usage();
+		for (int n : threads) {
+			if (n < 1)
+				usage();
+		}
+
+		List<byte[]> sources = new ArrayList<byte[]>();
+		int length = 0;
+		for (File file : files) {
+			byte[] source = Files.readAllBytes(file.toPath());
+			sources.add(source);
+			length += source.length;
+		}
+		byte[] synthetic = new byte[length * repeat];
+		int at = 0;
+		for (int r = 0; r < repeat; r++) {
+			for (byte[] source : sources) {
+				System.arraycopy(source, 0, synthetic, at, source.length);
+				at += source.length;
+			}
+		}
+
+		System.out.println(String.format("  %-24s %-8s %10s %10s %10s", "input", "lexer", "tokens", "ms",
+				"Mtok/s"));
+		report(files.size() + " files", sources);
+		report(repeat + " x " + files.size() + " files", Arrays.asList(synthetic));
+		scale(synthetic);
+	}
+
+	private static void usage() {
+		System.out.println("Usage: java " + LexerBenchmark.class.getSimpleName()
+				+ " [-rounds=N] [-repeat=N] [-threads=N,N...] [file|directory...]");
+		System.exit(-1);
+	}
+
+	private static void add(File file, List<File> files) {
+		if (file.isDirectory()) {
+			File[] entries = file.listFiles();
+			Arrays.sort(entries);
+			for (File f : entries) {
+				if (f.getName().endsWith(".c"))
+					files.add(f);
+			}
+		} else if (file.isFile()) {
+			files.add(file);
+		}
+	}
+
+	private static void report(String input, List<byte[]> sources) {
+		for (Lexer lexer : Lexer.values()) {
+			for (int r = 0; r < WARMUP; r++)
+				tokenise(lexer, sources);
+			long time = Long.MAX_VALUE;
+			long tokens = 0;
+			for (int r = 0; r < rounds; r++) {
+				long start = System.nanoTime();
+				tokens = tokenise(lexer, sources);
+				time = Math.min(time, System.nanoTime() - start);
+			}
+			System.out.println(String.format("  %-24s %-8s %10d %10.2f %10.2f", input, lexer.name().toLowerCase(),
+					tokens, time / 1e6, tokens * 1e3 / time));
+		}
+	}
+
+	/*
+	 * Tokenises source in parallel with each number of threads, against the
+	 * sequential DfaTokeniser.
+	 */
+	private static void scale(byte[] source) {
+		System.out.println(Runtime.getRuntime().availableProcessors() + " processors");
+		System.out.println(String.format("  %-8s %10s %10s %10s", "threads", "ms", "Mtok/s", "speedup"));
+		long sequential = Long.MAX_VALUE;
+		int tokens = 0;
+		for (int r = 0; r < WARMUP + rounds; r++) {
+			long start = System.nanoTime();
+			tokens = new DfaTokeniser(new MappedScanner(ByteBuffer.wrap(source))).tokenise().size();
+			if (r >= WARMUP)
+				sequential = Math.min(sequential, System.nanoTime() - start);
+		}
+		System.out.println(String.format("  %-8s %10.2f %10.2f %9.2fx", "seq", sequential / 1e6, tokens * 1e3
+				/ sequential, 1.0));
+		for (int n : threads) {
+			long time = Long.MAX_VALUE;
+			for (int r = 0; r < WARMUP + rounds; r++) {
+				long start = System.nanoTime();
+				int size = new ParallelTokeniser(new MappedScanner(ByteBuffer.wrap(source)), n).tokenise().size();
+				if (r >= WARMUP)
+					time = Math.min(time, System.nanoTime() - start);
+				if (size != tokens)
+					throw new IllegalStateException(n + " threads give " + size + " tokens, not " + tokens);
+			}
+			System.out.println(String.format("  %-8d %10.2f %10.2f %9.2fx", n, time / 1e6, tokens * 1e3 / time,
+					sequential / (double) time));
+		}
+	}
+
+	/*
+	 * Tokenises every source and returns the number of tokens, EOF included.
+	 */
+	private static long tokenise(Lexer lexer, List<byte[]> sources) {
+		long tokens = 0;
+		for (byte[] source : sources) {
+			switch (lexer) {
+			case READER:
+				tokens += drain(new Tokeniser(new Scanner(new ByteArrayInputStream(source))));
+				break;
+			case MAPPED:
+				tokens += drain(new Tokeniser(new MappedScanner(ByteBuffer.wrap(source))));
+				break;
+			case DFA:
+				tokens += new DfaTokeniser(new MappedScanner(ByteBuffer.wrap(source))).tokenise().size();
+				break;
+			}
+		}
+		return tokens;
+	}
+
+	private static int drain(Tokeniser tokeniser) {
+		int count = 1;
+		for (Token t = tokeniser.nextToken(); t.tokenClass != TokenClass.EOF; t = tokeniser.nextToken())
+			count++;
+		return count;
+	}
+}
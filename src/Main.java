@@ -1,19 +1,35 @@
 import ast.ASTPrinter;
+import ast.AstArena;
+import ast.AstCache;
+import ast.AstCodec;
 import ast.Program;
 import gen.CodeGenerator;
+import lexer.DfaTokeniser;
+import lexer.MappedScanner;
+import lexer.ParallelTokeniser;
 import lexer.Scanner;
 import lexer.Token;
+import lexer.TokenBuffer;
+import lexer.TokenWriter;
 import lexer.Tokeniser;
+import parser.ArenaParser;
+import parser.ParallelParser;
 import parser.Parser;
+import sem.CallGraph;
+import sem.ParallelSemanticAnalyzer;
 import sem.SemanticAnalyzer;
+import util.Diagnostics;
 
 import java.io.PrintWriter;
-import java.io.StringWriter;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
 
 /**
  * The Main file implies an interface for the subsequent components, e.g. * The
@@ -41,23 +57,276 @@ public class Main {
 	public static int SEM_FAIL = 240;
 	public static int PASS = 0;
 
+	// characters buffered by the writer of text dumps
+	private static final int OUTPUT_BUFFER = 1 << 16;
+
 	private enum Mode {
 		LEXER, PARSER, AST, SEMANTICANALYSIS, GEN
 	}
 
 	public static void usage() {
-		System.out.println("Usage: java " + Main.class.getSimpleName() + " pass inputfile");
+		System.out.println("Usage: java " + Main.class.getSimpleName() + " [options] pass inputfile");
 		System.out.println("where pass is either: -lexer, -parser, -ast, -sem or -gen");
+		System.out.println("and inputfile is - to read the program from the standard input");
+		System.out.println("and options are:");
+		System.out.println("  -scanner=mapped  read the input through a memory-mapped buffer (default)");
+		System.out.println("  -scanner=reader  read the input through a BufferedReader");
+		System.out.println("  -tokeniser=dfa   use the table-driven tokeniser");
+		System.out.println("  -tokeniser=plain use the hand-written tokeniser (default)");
+		System.out.println("  -tokens=buffer   tokenise the whole input into a token buffer before parsing");
+		System.out.println("  -tokens=parallel tokenise the whole input into a token buffer on several threads");
+		System.out.println("  -tokens=stream   tokenise the input while parsing (default)");
+		System.out.println("  -parsing=parallel parse the procedures on several threads, from a token buffer");
+		System.out.println("  -parsing=sequential parse the procedures one after the other (default)");
+		System.out.println("  -tree=arena      store the AST in compact arrays, parsing sequentially");
+		System.out.println("  -tree=objects    store the AST as one object per node (default)");
+		System.out.println("  -cache=DIR       reuse the ASTs of unchanged sources, kept in directory DIR");
+		System.out.println("  -dump=text       print the -lexer and -ast dumps as text (default)");
+		System.out.println("  -dump=binary     write the -lexer and -ast dumps in a compact binary form");
+		System.out.println("  -output=FILE     write the -lexer and -ast dumps to FILE rather than standard output");
+		System.out.println("  -analysis=fused  resolve names and check types in a single traversal");
+		System.out.println("  -analysis=passes resolve names, then check types in a second traversal (default)");
+		System.out.println("  -analysis=parallel resolve names and check types of the procedures on several threads");
+		System.out.println("  -threads=N       number of threads used by the parallel modes");
+		System.out.println("  -prune=reachable leave out of -gen the procedures and globals main cannot reach (default)");
+		System.out.println("  -prune=none      generate every procedure and global");
+		System.out.println("  -callgraph=FILE  write the call graph of -sem and -gen to FILE");
+		System.out.println("  -max-errors=N    stop keeping errors after the first N (default "
+				+ Diagnostics.DEFAULT_MAX_ERRORS + ")");
+		System.out.println("  -diagnostics=text    print errors as text (default)");
+		System.out.println("  -diagnostics=machine print errors as tab-separated records");
 		System.exit(-1);
 	}
 
+	/*
+	 * Opens the input through the mapped scanner, falling back to the reader
+	 * based one if it is not selected or the file cannot be mapped.
+	 */
+	private static Scanner openScanner(File inputFile, boolean mapped) throws FileNotFoundException {
+		if (mapped) {
+			try {
+				return new MappedScanner(inputFile);
+			} catch (FileNotFoundException e) {
+				throw e;
+			} catch (IOException e) {
+				// fall back to the reader
+			}
+		}
+		return new Scanner(inputFile);
+	}
+
+	/*
+	 * Parses from the token buffer if there is one, into an arena if arena is
+	 * set, or else on several threads if parallelism is more than 1.
+	 */
+	private static Parser createParser(Tokeniser tokeniser, TokenBuffer tokens, Diagnostics diagnostics,
+			int parallelism, boolean arena) {
+		if (arena)
+			return tokens == null ? new ArenaParser(tokeniser) : new ArenaParser(tokens, diagnostics);
+		if (tokens == null)
+			return new Parser(tokeniser);
+		if (parallelism > 1)
+			return new ParallelParser(tokens, parallelism, diagnostics);
+		return new Parser(tokens, diagnostics);
+	}
+
+	/*
+	 * Analyses on several threads if parallelism is more than 1, or else in
+	 * one traversal if fused is set.
+	 */
+	private static SemanticAnalyzer createAnalyzer(Diagnostics diagnostics, boolean fused, int parallelism) {
+		if (parallelism > 1)
+			return new ParallelSemanticAnalyzer(parallelism, diagnostics);
+		SemanticAnalyzer sem = new SemanticAnalyzer(diagnostics);
+		sem.setFused(fused);
+		return sem;
+	}
+
+	/*
+	 * Caches program under key if the source had neither errors nor warnings,
+	 * so that a later compilation loading it prints what this one did.
+	 */
+	private static void store(AstCache cache, String key, Program program, Diagnostics diagnostics) {
+		if (cache != null && key != null && program != null && diagnostics.getErrorCount() == 0
+				&& diagnostics.getWarningCount() == 0)
+			cache.store(key, program);
+	}
+
+	/*
+	 * As above, for a program already encoded by AstCodec.
+	 */
+	private static void store(AstCache cache, String key, byte[] encoded, Diagnostics diagnostics) {
+		if (cache != null && key != null && encoded != null && diagnostics.getErrorCount() == 0
+				&& diagnostics.getWarningCount() == 0)
+			cache.store(key, encoded);
+	}
+
+	/*
+	 * The stream the -lexer and -ast dumps go to: the output file if there is
+	 * one, or else standard output. Exits if the file cannot be created.
+	 */
+	private static OutputStream openOutput(String output) {
+		if (output == null)
+			return System.out;
+		try {
+			return new FileOutputStream(output);
+		} catch (FileNotFoundException e) {
+			System.out.println("File " + output + " cannot be written.");
+			System.exit(FILE_NOT_FOUND);
+			return null;
+		}
+	}
+
+	private static void closeOutput(OutputStream out) {
+		if (out == null || out == System.out)
+			return;
+		try {
+			out.close();
+		} catch (IOException e) {
+			System.err.println("Cannot write the output: " + e.getMessage());
+		}
+	}
+
+	/*
+	 * A writer for text dumps, buffered so that a dump costs a few large
+	 * writes rather than one per line.
+	 */
+	private static PrintWriter textWriter(OutputStream out) {
+		return new PrintWriter(new BufferedWriter(new OutputStreamWriter(out), OUTPUT_BUFFER));
+	}
+
+	/*
+	 * Writes graph to the file named, exiting if it cannot be created.
+	 */
+	private static void writeCallGraph(CallGraph graph, String file) {
+		OutputStream out = openOutput(file);
+		try {
+			graph.print(textWriter(out));
+		} finally {
+			closeOutput(out);
+		}
+	}
+
+	private static int parseCount(String value) {
+		try {
+			int n = Integer.parseInt(value);
+			if (n > 0)
+				return n;
+		} catch (NumberFormatException e) {
+		}
+		usage();
+		return 0;
+	}
+
 	public static void main(String[] args) {
 
-		if (args.length != 2)
+		if (args.length < 2)
 			usage();
 
+		boolean mapped = true;
+		boolean dfa = false;
+		boolean buffered = false;
+		boolean parallel = false;
+		boolean parallelParsing = false;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int maxErrors = Diagnostics.DEFAULT_MAX_ERRORS;
+		boolean machine = false;
+		boolean arena = false;
+		AstCache cache = null;
+		boolean binary = false;
+		boolean fused = false;
+		boolean parallelAnalysis = false;
+		String output = null;
+		boolean prune = true;
+		String callGraph = null;
+		int argi = 0;
+		for (; argi < args.length - 2; argi++) {
+			switch (args[argi]) {
+			case "-scanner=mapped":
+				mapped = true;
+				break;
+			case "-scanner=reader":
+				mapped = false;
+				break;
+			case "-tokeniser=dfa":
+				dfa = true;
+				break;
+			case "-tokeniser=plain":
+				dfa = false;
+				break;
+			case "-tokens=buffer":
+				buffered = true;
+				parallel = false;
+				break;
+			case "-tokens=parallel":
+				buffered = true;
+				parallel = true;
+				break;
+			case "-tokens=stream":
+				buffered = false;
+				parallel = false;
+				break;
+			case "-parsing=parallel":
+				buffered = true;
+				parallelParsing = true;
+				break;
+			case "-parsing=sequential":
+				parallelParsing = false;
+				break;
+			case "-tree=arena":
+				arena = true;
+				break;
+			case "-tree=objects":
+				arena = false;
+				break;
+			case "-dump=text":
+				binary = false;
+				break;
+			case "-dump=binary":
+				binary = true;
+				break;
+			case "-analysis=fused":
+				fused = true;
+				parallelAnalysis = false;
+				break;
+			case "-analysis=passes":
+				fused = false;
+				parallelAnalysis = false;
+				break;
+			case "-analysis=parallel":
+				parallelAnalysis = true;
+				break;
+			case "-prune=reachable":
+				prune = true;
+				break;
+			case "-prune=none":
+				prune = false;
+				break;
+			case "-diagnostics=text":
+				machine = false;
+				break;
+			case "-diagnostics=machine":
+				machine = true;
+				break;
+			default:
+				if (args[argi].startsWith("-threads="))
+					threads = parseCount(args[argi].substring("-threads=".length()));
+				else if (args[argi].startsWith("-cache=") && args[argi].length() > "-cache=".length())
+					cache = new AstCache(new File(args[argi].substring("-cache=".length())));
+				else if (args[argi].startsWith("-output=") && args[argi].length() > "-output=".length())
+					output = args[argi].substring("-output=".length());
+				else if (args[argi].startsWith("-callgraph=") && args[argi].length() > "-callgraph=".length())
+					callGraph = args[argi].substring("-callgraph=".length());
+				else if (args[argi].startsWith("-max-errors="))
+					maxErrors = parseCount(args[argi].substring("-max-errors=".length()));
+				else
+					usage();
+				break;
+			}
+		}
+
 		Mode mode = null;
-		switch (args[0]) {
+		switch (args[argi]) {
 		case "-lexer":
 			mode = Mode.LEXER;
 			break;
@@ -78,59 +347,175 @@ public class Main {
 			break;
 		}
 
-		File inputFile = new File(args[1]);
 		Scanner scanner;
-		try {
-			scanner = new Scanner(inputFile);
-		} catch (FileNotFoundException e) {
-			System.out.println("File " + inputFile.toString() + " does not exist.");
-			System.exit(FILE_NOT_FOUND);
-			return;
+		String cacheKey = null;
+		Program cached = null;
+		if (args[argi + 1].equals("-")) {
+			// streamed, so tokens are produced while the input is being written
+			scanner = new Scanner(System.in);
+		} else {
+			File inputFile = new File(args[argi + 1]);
+			try {
+				scanner = openScanner(inputFile, mapped);
+			} catch (FileNotFoundException e) {
+				System.out.println("File " + inputFile.toString() + " does not exist.");
+				System.exit(FILE_NOT_FOUND);
+				return;
+			}
+			if (cache != null && mode != Mode.LEXER && mode != Mode.PARSER) {
+				try {
+					cacheKey = cache.key(inputFile);
+					cached = cache.load(cacheKey);
+				} catch (IOException e) {
+					// compile without the cache
+				}
+			}
 		}
 
-		Tokeniser tokeniser = new Tokeniser(scanner);
+		// shared by all phases, and printed at the end of each
+		Diagnostics diagnostics = new Diagnostics(maxErrors);
+		diagnostics.setMachineReadable(machine);
+
+		Tokeniser tokeniser = dfa ? new DfaTokeniser(scanner, diagnostics) : new Tokeniser(scanner, diagnostics);
+		TokenBuffer tokens = null;
+		if (buffered && scanner instanceof MappedScanner && cached == null) {
+			// the token buffer decodes token data from the mapped source
+			DfaTokeniser dfaTokeniser = parallel ? new ParallelTokeniser((MappedScanner) scanner, threads,
+					diagnostics) : new DfaTokeniser(scanner, diagnostics);
+			tokens = dfaTokeniser.tokenise();
+			tokeniser = dfaTokeniser;
+		}
+
+		// a binary dump to standard output leaves it to the dump alone
+		PrintStream report = binary && output == null ? System.err : System.out;
+
 		if (mode == Mode.LEXER) {
-			for (Token t = tokeniser.nextToken(); t.tokenClass != Token.TokenClass.EOF; t = tokeniser.nextToken())
-				System.out.println(t);
+			OutputStream out = openOutput(output);
+			try {
+				if (binary) {
+					TokenWriter writer = new TokenWriter(out);
+					if (tokens != null) {
+						for (int i = 0; i < tokens.size(); i++)
+							writer.write(tokens, i);
+					} else {
+						Token t;
+						do {
+							t = tokeniser.nextToken();
+							writer.write(t);
+						} while (t.tokenClass != Token.TokenClass.EOF);
+					}
+					writer.flush();
+				} else {
+					PrintWriter writer = textWriter(out);
+					if (tokens != null) {
+						for (int i = 0; tokens.tokenClass(i) != Token.TokenClass.EOF; i++)
+							writer.println(tokens.toString(i));
+					} else {
+						for (Token t = tokeniser.nextToken(); t.tokenClass != Token.TokenClass.EOF; t = tokeniser
+								.nextToken())
+							writer.println(t);
+					}
+					writer.flush();
+				}
+			} catch (IOException e) {
+				System.err.println("Cannot write the tokens: " + e.getMessage());
+			} finally {
+				closeOutput(out);
+			}
+			diagnostics.print(report);
 			if (tokeniser.getErrorCount() == 0)
-				System.out.println("Lexing: pass");
+				report.println("Lexing: pass");
 			else
-				System.out.println("Lexing: failed (" + tokeniser.getErrorCount() + " errors)");
+				report.println("Lexing: failed (" + tokeniser.getErrorCount() + " errors)");
 			System.exit(tokeniser.getErrorCount() == 0 ? PASS : LEXER_FAIL);
 		} else if (mode == Mode.PARSER) {
-			Parser parser = new Parser(tokeniser);
-			parser.parse();
+			Parser parser = createParser(tokeniser, tokens, diagnostics, parallelParsing ? threads : 1, arena);
+			// only the outcome is reported, so there is no need for the AST
+			parser.setBuildAst(false);
+			try {
+				parser.parse();
+			} finally {
+				diagnostics.print(System.out);
+			}
 			if (parser.getErrorCount() == 0)
 				System.out.println("Parsing: pass");
 			else
 				System.out.println("Parsing: failed (" + parser.getErrorCount() + " errors)");
 			System.exit(parser.getErrorCount() == 0 ? PASS : PARSER_FAIL);
 		} else if (mode == Mode.AST) {
-			Parser parser = new Parser(tokeniser);
-			Program programAst = parser.parse();
-			if (parser.getErrorCount() == 0) {
-				System.out.println("Parsing: pass");
-				System.out.println("Printing out AST:");
-				PrintWriter writer;
-				StringWriter sw = new StringWriter();
+			Program programAst = cached;
+			AstArena programArena = null;
+			byte[] encoded = null;
+			int parseErrors = 0;
+			if (cached == null) {
+				Parser parser = createParser(tokeniser, tokens, diagnostics, parallelParsing ? threads : 1, arena);
 				try {
-					writer = new PrintWriter(sw);
-					programAst.accept(new ASTPrinter(writer));
-					writer.flush();
-					System.out.print(sw.toString());
-					writer.close();
+					if (parser instanceof ArenaParser)
+						programArena = ((ArenaParser) parser).parseArena();
+					else
+						programAst = parser.parse();
+				} finally {
+					// so that the errors are not lost if the parser crashes
+					diagnostics.print(report);
+				}
+				parseErrors = parser.getErrorCount();
+				// encoded once for both the cache and the binary dump, straight
+				// from the arena without making its objects
+				if (parseErrors == 0 && (cache != null || binary))
+					encoded = programArena != null ? AstCodec.encode(programArena) : AstCodec.encode(programAst);
+				store(cache, cacheKey, encoded, diagnostics);
+			} else if (binary) {
+				encoded = AstCodec.encode(programAst);
+			}
+			if (parseErrors == 0) {
+				report.println("Parsing: pass");
+				OutputStream out = null;
+				try {
+					out = openOutput(output);
+					if (binary) {
+						out.write(encoded);
+						out.flush();
+					} else {
+						System.out.println("Printing out AST:");
+						PrintWriter writer = textWriter(out);
+						// the arena makes the objects of one procedure at a time
+						if (programArena != null)
+							programArena.accept(new ASTPrinter(writer));
+						else
+							programAst.accept(new ASTPrinter(writer));
+						writer.flush();
+					}
 				} catch (Exception e) {
 					e.printStackTrace();
+				} finally {
+					closeOutput(out);
 				}
 			} else
-				System.out.println("Parsing: failed (" + parser.getErrorCount() + " errors)");
-			System.exit(parser.getErrorCount() == 0 ? PASS : PARSER_FAIL);
+				report.println("Parsing: failed (" + parseErrors + " errors)");
+			System.exit(parseErrors == 0 ? PASS : PARSER_FAIL);
 		} else if (mode == Mode.SEMANTICANALYSIS) {
-			Parser parser = new Parser(tokeniser);
-			Program programAst = parser.parse();
-			if (parser.getErrorCount() == 0) {
-				SemanticAnalyzer sem = new SemanticAnalyzer();
-				int errors = sem.analyze(programAst);
+			Program programAst = cached;
+			int parseErrors = 0;
+			if (cached == null) {
+				Parser parser = createParser(tokeniser, tokens, diagnostics, parallelParsing ? threads : 1, arena);
+				try {
+					programAst = parser.parse();
+				} finally {
+					diagnostics.print(System.out);
+				}
+				parseErrors = parser.getErrorCount();
+				store(cache, cacheKey, programAst, diagnostics);
+			}
+			if (parseErrors == 0) {
+				SemanticAnalyzer sem = createAnalyzer(diagnostics, fused, parallelAnalysis ? threads : 1);
+				int errors;
+				try {
+					errors = sem.analyze(programAst);
+				} finally {
+					diagnostics.print(System.err);
+				}
+				if (errors == 0 && callGraph != null)
+					writeCallGraph(new CallGraph(programAst), callGraph);
 				if (errors == 0)
 					System.out.println("Semantic analysis: Pass");
 				else
@@ -139,14 +524,34 @@ public class Main {
 			} else
 				System.exit(PARSER_FAIL);
 		} else if (mode == Mode.GEN) {
-			Parser parser = new Parser(tokeniser);
-			Program programAst = parser.parse();
-			if (parser.getErrorCount() > 0)
-				System.exit(PARSER_FAIL);
-			SemanticAnalyzer sem = new SemanticAnalyzer();
-			int errors = sem.analyze(programAst);
+			Program programAst = cached;
+			if (cached == null) {
+				Parser parser = createParser(tokeniser, tokens, diagnostics, parallelParsing ? threads : 1, arena);
+				try {
+					programAst = parser.parse();
+				} finally {
+					diagnostics.print(System.out);
+				}
+				if (parser.getErrorCount() > 0)
+					System.exit(PARSER_FAIL);
+				store(cache, cacheKey, programAst, diagnostics);
+			}
+			SemanticAnalyzer sem = createAnalyzer(diagnostics, fused, parallelAnalysis ? threads : 1);
+			int errors;
+			try {
+				errors = sem.analyze(programAst);
+			} finally {
+				diagnostics.print(System.err);
+			}
 			if (errors > 0)
 				System.exit(SEM_FAIL);
+			if (prune || callGraph != null) {
+				CallGraph graph = new CallGraph(programAst);
+				if (callGraph != null)
+					writeCallGraph(graph, callGraph);
+				if (prune)
+					programAst = graph.prune();
+			}
 			CodeGenerator codegen = new CodeGenerator();
 			codegen.emitProgram(programAst);
 
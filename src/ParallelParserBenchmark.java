@@ -0,0 +1,115 @@
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import ast.ASTPrinter;
+import ast.Program;
+import lexer.DfaTokeniser;
+import lexer.MappedScanner;
+import lexer.TokenBuffer;
+import parser.ParallelParser;
+import parser.Parser;
+import util.Diagnostics;
+import util.ProgramGenerator;
+
+/**
+ * Compares the sequential Parser with the ParallelParser on a program from
+ * ProgramGenerator with many procedures, at each of the given numbers of
+ * threads. Both parse from the same TokenBuffer and only the parse is timed;
+ * the fastest of several rounds is reported with the speedup over the
+ * sequential parse. Every parallel parse must print the same AST as the
+ * sequential one.
+ *
+ * Usage: java ParallelParserBenchmark [-procs=N] [-rounds=N] [-threads=N,N...]
+ */
+public class ParallelParserBenchmark {
+
+	// unmeasured rounds, so that the JIT is warm
+	private static final int WARMUP = 5;
+
+	private static int procs = 10000;
+	private static int rounds = 10;
+	private static int[] threads = { 1, 2, 4, 8, 16 };
+
+	public static void main(String[] args) {
+		for (String arg : args) {
+			try {
+				if (arg.startsWith("-procs="))
+					procs = Integer.parseInt(arg.substring("-procs=".length()));
+				else if (arg.startsWith("-rounds="))
+					rounds = Integer.parseInt(arg.substring("-rounds=".length()));
+				else if (arg.startsWith("-threads=")) {
+					String[] counts = arg.substring("-threads=".length()).split(",");
+					threads = new int[counts.length];
+					for (int i = 0; i < counts.length; i++)
+						threads[i] = Integer.parseInt(counts[i]);
+				} else
+					usage();
+			} catch (NumberFormatException e) {
+				usage();
+			}
+		}
+		if (procs < 1 || rounds < 1)
+			usage();
+		for (int n : threads) {
+			if (n < 1)
+				usage();
+		}
+
+		ProgramGenerator generator = new ProgramGenerator();
+		generator.procs = procs;
+		byte[] source = generator.generate().getBytes(StandardCharsets.UTF_8);
+		TokenBuffer tokens = new DfaTokeniser(new MappedScanner(ByteBuffer.wrap(source)), new Diagnostics())
+				.tokenise();
+		String expected = print(new Parser(tokens, new Diagnostics()).parse());
+
+		System.out.println(String.format("%d procedures, %d tokens, %d processors", procs, tokens.size(), Runtime
+				.getRuntime().availableProcessors()));
+		System.out.println(String.format("  %-8s %10s %10s %10s", "threads", "ms", "Mtok/s", "speedup"));
+		long sequential = time(tokens, 0);
+		System.out.println(String.format("  %-8s %10.2f %10.2f %9.2fx", "seq", sequential / 1e6, tokens.size()
+				* 1e3 / sequential, 1.0));
+		for (int n : threads) {
+			if (!print(new ParallelParser(tokens, n, new Diagnostics()).parse()).equals(expected))
+				throw new IllegalStateException(n + " threads give a different AST");
+			long time = time(tokens, n);
+			System.out.println(String.format("  %-8d %10.2f %10.2f %9.2fx", n, time / 1e6, tokens.size() * 1e3
+					/ time, sequential / (double) time));
+		}
+	}
+
+	private static void usage() {
+		System.out.println("Usage: java " + ParallelParserBenchmark.class.getSimpleName()
+				+ " [-procs=N] [-rounds=N] [-threads=N,N...]");
+		System.exit(-1);
+	}
+
+	/*
+	 * Returns the fastest parse of tokens, by the sequential Parser if
+	 * parallelism is 0.
+	 */
+	private static long time(TokenBuffer tokens, int parallelism) {
+		long best = Long.MAX_VALUE;
+		for (int r = 0; r < WARMUP + rounds; r++) {
+			Parser parser = parallelism == 0 ? new Parser(tokens, new Diagnostics()) : new ParallelParser(tokens,
+					parallelism, new Diagnostics());
+			long start = System.nanoTime();
+			parser.parse();
+			long time = System.nanoTime() - start;
+			if (parser.getErrorCount() > 0)
+				throw new IllegalStateException("generated program does not parse");
+			if (r >= WARMUP)
+				best = Math.min(best, time);
+		}
+		return best;
+	}
+
+	private static String print(Program program) {
+		StringWriter out = new StringWriter();
+		PrintWriter writer = new PrintWriter(out);
+		program.accept(new ASTPrinter(writer));
+		writer.flush();
+		return out.toString();
+	}
+}
@@ -0,0 +1,88 @@
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import lexer.DfaTokeniser;
+import lexer.MappedScanner;
+import lexer.TokenBuffer;
+import lexer.Tokeniser;
+import parser.Parser;
+import util.Diagnostics;
+import util.ProgramGenerator;
+
+/**
+ * Compares the parser building the AST with the recognizer, the same parser
+ * with setBuildAst(false), on a program from ProgramGenerator. Both are run
+ * over a TokenBuffer tokenised beforehand, and over a Tokeniser reading the
+ * mapped source, which includes lexing. The fastest of several rounds is
+ * reported with the tokens per second and the bytes allocated per token.
+ *
+ * Usage: java RecognizerBenchmark [-procs=N] [-rounds=N]
+ */
+public class RecognizerBenchmark {
+
+	// unmeasured rounds, so that the JIT is warm
+	private static final int WARMUP = 5;
+
+	private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	private static int procs = 7500;
+	private static int rounds = 10;
+
+	public static void main(String[] args) {
+		for (String arg : args) {
+			try {
+				if (arg.startsWith("-procs="))
+					procs = Integer.parseInt(arg.substring("-procs=".length()));
+				else if (arg.startsWith("-rounds="))
+					rounds = Integer.parseInt(arg.substring("-rounds=".length()));
+				else
+					usage();
+			} catch (NumberFormatException e) {
+				usage();
+			}
+		}
+		if (procs < 1 || rounds < 1)
+			usage();
+
+		ProgramGenerator generator = new ProgramGenerator();
+		generator.procs = procs;
+		byte[] source = generator.generate().getBytes(StandardCharsets.UTF_8);
+		TokenBuffer tokens = new DfaTokeniser(new MappedScanner(ByteBuffer.wrap(source)), new Diagnostics())
+				.tokenise();
+		System.out.println(String.format("%d procedures, %d tokens", procs, tokens.size()));
+		System.out.println(String.format("  %-12s %-10s %10s %10s %12s", "tokens", "parser", "ms", "Mtok/s",
+				"bytes/token"));
+		for (boolean buffered : new boolean[] { true, false }) {
+			for (boolean buildAst : new boolean[] { true, false }) {
+				long time = Long.MAX_VALUE;
+				long allocated = 0;
+				for (int r = 0; r < WARMUP + rounds; r++) {
+					Parser parser = buffered ? new Parser(tokens, new Diagnostics()) : new Parser(new Tokeniser(
+							new MappedScanner(ByteBuffer.wrap(source))));
+					parser.setBuildAst(buildAst);
+					long bytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+					long start = System.nanoTime();
+					parser.parse();
+					long elapsed = System.nanoTime() - start;
+					bytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+					if (parser.getErrorCount() > 0)
+						throw new IllegalStateException("generated program does not parse");
+					if (r >= WARMUP && elapsed < time) {
+						time = elapsed;
+						allocated = bytes;
+					}
+				}
+				System.out.println(String.format("  %-12s %-10s %10.2f %10.2f %12.1f", buffered ? "TokenBuffer"
+						: "Tokeniser", buildAst ? "AST" : "recognize", time / 1e6, tokens.size() * 1e3 / time,
+						allocated / (double) tokens.size()));
+			}
+		}
+	}
+
+	private static void usage() {
+		System.out.println("Usage: java " + RecognizerBenchmark.class.getSimpleName() + " [-procs=N] [-rounds=N]");
+		System.exit(-1);
+	}
+}
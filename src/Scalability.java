@@ -0,0 +1,255 @@
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import ast.Program;
+import gen.CodeGenerator;
+import lexer.DfaTokeniser;
+import lexer.MappedScanner;
+import lexer.TokenBuffer;
+import parser.Parser;
+import sem.SemanticAnalyzer;
+import util.Diagnostics;
+import util.ProgramGenerator;
+
+/**
+ * Compile-time scalability check. Programs from ProgramGenerator are grown
+ * along one axis at a time and compiled in-process through the lexer, parser,
+ * semantic analysis and code generation. The time and allocation of each phase
+ * are fitted against its input size (bytes of source for the lexer, tokens for
+ * the other phases) on a log-log scale. The check fails if a phase grows faster
+ * than the allowed exponent (1.25 by default, which n log n stays under at
+ * these sizes) or crashes, e.g. by overflowing the stack.
+ *
+ * The main axis grows a single main body, which is parsed as one statement
+ * list; -axis=main -sizes=12 reaches 512000 statements, all on the default
+ * thread stack. Code generation is left out there, since the JVM limits a
+ * method to 64KB of bytecode.
+ *
+ * Usage: java Scalability [-axis=procs|statements|main|depth|expression|globals]
+ * [-sizes=N] [-max-slope=X]
+ */
+public class Scalability {
+
+	private enum Axis {
+		PROCS(100), STATEMENTS(250), MAIN(250, Phase.SEM), DEPTH(16), EXPRESSION(32), GLOBALS(500);
+
+		final int base;
+		// the last phase run along this axis
+		final Phase last;
+
+		private Axis(int base) {
+			this(base, Phase.GEN);
+		}
+
+		private Axis(int base, Phase last) {
+			this.base = base;
+			this.last = last;
+		}
+
+		void set(ProgramGenerator generator, int size) {
+			switch (this) {
+			case PROCS:
+				generator.procs = size;
+				break;
+			case STATEMENTS:
+				generator.statements = size;
+				break;
+			case MAIN:
+				generator.mainStatements = size;
+				break;
+			case DEPTH:
+				generator.depth = size;
+				break;
+			case EXPRESSION:
+				generator.expressionLength = size;
+				break;
+			case GLOBALS:
+				generator.globals = size;
+				break;
+			}
+		}
+	}
+
+	private enum Phase {
+		LEXER, PARSER, SEM, GEN
+	}
+
+	// runs per measurement, the fastest one is kept
+	private static final int REPEAT = 7;
+
+	// unmeasured runs of the middle size, so that the JIT is warm throughout
+	private static final int WARMUP = 3;
+
+	private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	private static double maxSlope = 1.25;
+	private static int sizes = 5;
+
+	public static void main(String[] args) {
+		Axis only = null;
+		for (String arg : args) {
+			try {
+				if (arg.startsWith("-axis="))
+					only = Axis.valueOf(arg.substring("-axis=".length()).toUpperCase());
+				else if (arg.startsWith("-sizes="))
+					sizes = Integer.parseInt(arg.substring("-sizes=".length()));
+				else if (arg.startsWith("-max-slope="))
+					maxSlope = Double.parseDouble(arg.substring("-max-slope=".length()));
+				else
+					usage();
+			} catch (IllegalArgumentException e) {
+				usage();
+			}
+		}
+		if (sizes < 2)
+			usage();
+
+		boolean ok = true;
+		for (Axis axis : Axis.values()) {
+			if (only == null || only == axis)
+				ok &= check(axis);
+		}
+		System.out.println(ok ? "Scalability: pass" : "Scalability: failed");
+		System.exit(ok ? 0 : 1);
+	}
+
+	private static void usage() {
+		System.out.println("Usage: java " + Scalability.class.getSimpleName()
+				+ " [-axis=procs|statements|main|depth|expression|globals] [-sizes=N] [-max-slope=X]");
+		System.exit(-1);
+	}
+
+	/*
+	 * Compiles programs of doubling size along axis and returns false if a
+	 * phase scales worse than allowed.
+	 */
+	private static boolean check(Axis axis) {
+		System.out.println(axis.name().toLowerCase() + ":");
+		System.out.println(String.format("  %8s %9s  %-6s %10s %12s", "size", "tokens", "phase", "ms", "bytes"));
+		int phases = Phase.values().length;
+		double[] tokens = new double[sizes];
+		double[] length = new double[sizes];
+		double[][] times = new double[phases][sizes];
+		double[][] bytes = new double[phases][sizes];
+		int measured = 0;
+		String failure = null;
+		try {
+			ProgramGenerator generator = new ProgramGenerator();
+			axis.set(generator, axis.base << (sizes / 2));
+			byte[] source = generator.generate().getBytes(StandardCharsets.UTF_8);
+			for (int r = 0; r < WARMUP; r++)
+				compile(axis, source, null, null, 0);
+		} catch (StackOverflowError e) {
+			// reported below, at the size where it happens
+		} catch (IllegalStateException e) {
+		}
+		for (int k = 0; k < sizes && failure == null; k++) {
+			int size = axis.base << k;
+			ProgramGenerator generator = new ProgramGenerator();
+			axis.set(generator, size);
+			byte[] source = generator.generate().getBytes(StandardCharsets.UTF_8);
+			length[k] = source.length;
+			try {
+				for (int r = 0; r < REPEAT; r++)
+					tokens[k] = compile(axis, source, times, bytes, k);
+			} catch (StackOverflowError e) {
+				failure = "stack overflow at size " + size;
+				break;
+			} catch (IllegalStateException e) {
+				failure = e.getMessage() + " at size " + size;
+				break;
+			}
+			for (Phase phase : Phase.values()) {
+				if (phase.compareTo(axis.last) > 0)
+					break;
+				System.out.println(String.format("  %8d %9d  %-6s %10.2f %12d", size, (long) tokens[k], phase.name()
+						.toLowerCase(), times[phase.ordinal()][k] / 1e6, (long) bytes[phase.ordinal()][k]));
+			}
+			measured++;
+		}
+
+		boolean ok = failure == null;
+		if (failure != null)
+			System.out.println("  FAIL: " + failure);
+		if (measured < 2)
+			return ok;
+		for (Phase phase : Phase.values()) {
+			if (phase.compareTo(axis.last) > 0)
+				break;
+			double[] n = phase == Phase.LEXER ? length : tokens;
+			double time = slope(n, times[phase.ordinal()], measured);
+			double alloc = slope(n, bytes[phase.ordinal()], measured);
+			boolean pass = time <= maxSlope && alloc <= maxSlope;
+			System.out.println(String.format("  %-6s time ~ n^%.2f  allocation ~ n^%.2f  %s", phase.name()
+					.toLowerCase(), time, alloc, pass ? "ok" : "FAIL"));
+			ok &= pass;
+		}
+		return ok;
+	}
+
+	/*
+	 * Runs all phases once over source, keeping the fastest time and the
+	 * allocation of each phase in column k, and returns the number of tokens.
+	 */
+	private static int compile(Axis axis, byte[] source, double[][] times, double[][] bytes, int k) {
+		Diagnostics diagnostics = new Diagnostics();
+		long[] start = new long[2];
+
+		mark(start);
+		TokenBuffer tokens = new DfaTokeniser(new MappedScanner(ByteBuffer.wrap(source)), diagnostics).tokenise();
+		record(Phase.LEXER, start, times, bytes, k);
+
+		mark(start);
+		Program program = new Parser(tokens, diagnostics).parse();
+		record(Phase.PARSER, start, times, bytes, k);
+		if (diagnostics.getErrorCount() > 0)
+			throw new IllegalStateException("generated program does not parse");
+
+		mark(start);
+		new SemanticAnalyzer(diagnostics).analyze(program);
+		record(Phase.SEM, start, times, bytes, k);
+		if (diagnostics.getErrorCount() > 0)
+			throw new IllegalStateException("generated program does not type check");
+		if (axis.last == Phase.SEM)
+			return tokens.size();
+
+		mark(start);
+		new CodeGenerator().emitProgram(program);
+		record(Phase.GEN, start, times, bytes, k);
+		return tokens.size();
+	}
+
+	private static void mark(long[] start) {
+		start[0] = System.nanoTime();
+		start[1] = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static void record(Phase phase, long[] start, double[][] times, double[][] bytes, int k) {
+		long time = System.nanoTime() - start[0];
+		long allocated = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - start[1];
+		if (times == null)
+			return;
+		int p = phase.ordinal();
+		if (times[p][k] == 0 || time < times[p][k])
+			times[p][k] = time;
+		bytes[p][k] = allocated;
+	}
+
+	/*
+	 * Least-squares slope of log y against log x over the first n points.
+	 */
+	private static double slope(double[] x, double[] y, int n) {
+		double sx = 0, sy = 0, sxx = 0, sxy = 0;
+		for (int i = 0; i < n; i++) {
+			double lx = Math.log(x[i]);
+			double ly = Math.log(Math.max(y[i], 1));
+			sx += lx;
+			sy += ly;
+			sxx += lx * lx;
+			sxy += lx * ly;
+		}
+		return (n * sxy - sx * sy) / (n * sxx - sx * sx);
+	}
+}
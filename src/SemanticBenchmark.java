@@ -0,0 +1,98 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import ast.Program;
+import lexer.DfaTokeniser;
+import lexer.MappedScanner;
+import lexer.TokenBuffer;
+import parser.Parser;
+import sem.ParallelSemanticAnalyzer;
+import sem.SemanticAnalyzer;
+import util.Diagnostics;
+import util.ProgramGenerator;
+
+/**
+ * Compares the two-pass semantic analysis (name analysis, then type checking)
+ * with the fused single traversal and with the parallel analysis of the
+ * procedure bodies, on programs from ProgramGenerator with a growing number of
+ * procedures. Analysis annotates and extends the AST, so
+ * every run gets a freshly parsed one; only the analysis is timed, and the
+ * fastest of several rounds is reported.
+ *
+ * Usage: java SemanticBenchmark [-procs=N] [-rounds=N] [-threads=N]
+ */
+public class SemanticBenchmark {
+
+	// unmeasured rounds, so that the JIT is warm
+	private static final int WARMUP = 5;
+
+	private static int procs = 16000;
+	private static int rounds = 10;
+	private static int threads = Runtime.getRuntime().availableProcessors();
+
+	public static void main(String[] args) {
+		for (String arg : args) {
+			try {
+				if (arg.startsWith("-procs="))
+					procs = Integer.parseInt(arg.substring("-procs=".length()));
+				else if (arg.startsWith("-rounds="))
+					rounds = Integer.parseInt(arg.substring("-rounds=".length()));
+				else if (arg.startsWith("-threads="))
+					threads = Integer.parseInt(arg.substring("-threads=".length()));
+				else
+					usage();
+			} catch (NumberFormatException e) {
+				usage();
+			}
+		}
+		if (procs < 1 || rounds < 1 || threads < 1)
+			usage();
+
+		System.out.println(threads + " threads");
+		System.out.println(String.format("  %8s %9s %12s %12s %8s %12s %8s", "procs", "tokens", "passes ms",
+				"fused ms", "speedup", "parallel ms", "speedup"));
+		for (int size = Math.max(1, procs / 16); size <= procs; size *= 2) {
+			ProgramGenerator generator = new ProgramGenerator();
+			generator.procs = size;
+			byte[] source = generator.generate().getBytes(StandardCharsets.UTF_8);
+			TokenBuffer tokens = new DfaTokeniser(new MappedScanner(ByteBuffer.wrap(source)), new Diagnostics())
+					.tokenise();
+			for (int r = 0; r < WARMUP; r++) {
+				analyze(tokens, false, 1);
+				analyze(tokens, true, 1);
+				analyze(tokens, true, threads);
+			}
+			long passes = Long.MAX_VALUE;
+			long fused = Long.MAX_VALUE;
+			long parallel = Long.MAX_VALUE;
+			for (int r = 0; r < rounds; r++) {
+				passes = Math.min(passes, analyze(tokens, false, 1));
+				fused = Math.min(fused, analyze(tokens, true, 1));
+				parallel = Math.min(parallel, analyze(tokens, true, threads));
+			}
+			System.out.println(String.format("  %8d %9d %12.2f %12.2f %7.2fx %12.2f %7.2fx", size, tokens.size(),
+					passes / 1e6, fused / 1e6, passes / (double) fused, parallel / 1e6, passes / (double) parallel));
+		}
+	}
+
+	private static void usage() {
+		System.out.println("Usage: java " + SemanticBenchmark.class.getSimpleName() + " [-procs=N] [-rounds=N] [-threads=N]");
+		System.exit(-1);
+	}
+
+	/*
+	 * Parses tokens and returns the time taken to analyse the program, on
+	 * several threads if parallelism is more than 1.
+	 */
+	private static long analyze(TokenBuffer tokens, boolean fused, int parallelism) {
+		Program program = new Parser(tokens, new Diagnostics()).parse();
+		SemanticAnalyzer sem = parallelism > 1 ? new ParallelSemanticAnalyzer(parallelism) : new SemanticAnalyzer();
+		sem.setFused(fused);
+		long start = System.nanoTime();
+		int errors = sem.analyze(program);
+		long time = System.nanoTime() - start;
+		if (errors > 0)
+			throw new IllegalStateException("generated program does not type check");
+		return time;
+	}
+}
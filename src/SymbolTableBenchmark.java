@@ -0,0 +1,135 @@
+import ast.Block;
+import ast.Procedure;
+import ast.Type;
+import ast.Var;
+import ast.VarDecl;
+import sem.ProcSymbol;
+import sem.Scope;
+import sem.Symbol;
+import sem.SymbolTable;
+import sem.VarSymbol;
+import util.NameTable;
+
+import java.util.ArrayList;
+
+/**
+ * Compares the chain of per-scope tables (Scope) with the flat SymbolTable on
+ * the lookups name analysis makes in deeply nested code. Both declare a few
+ * globals and a procedure, then enter scopes down to the given depth, each
+ * declaring a local of its own and one shadowing the previous level's. At
+ * every level the benchmark looks up a global, the shadowed local, the
+ * outermost local and the procedure, then leaves all the scopes. The fastest
+ * of several rounds is reported.
+ *
+ * Usage: java SymbolTableBenchmark [-depth=N] [-rounds=N]
+ */
+public class SymbolTableBenchmark {
+
+	private static final int GLOBALS = 16;
+
+	// unmeasured rounds, so that the JIT is warm
+	private static final int WARMUP = 20;
+
+	private static int depth = 1000;
+	private static int rounds = 50;
+
+	public static void main(String[] args) {
+		for (String arg : args) {
+			try {
+				if (arg.startsWith("-depth="))
+					depth = Integer.parseInt(arg.substring("-depth=".length()));
+				else if (arg.startsWith("-rounds="))
+					rounds = Integer.parseInt(arg.substring("-rounds=".length()));
+				else
+					usage();
+			} catch (NumberFormatException e) {
+				usage();
+			}
+		}
+		if (depth < 1 || rounds < 1)
+			usage();
+
+		VarSymbol[] globals = new VarSymbol[GLOBALS];
+		for (int g = 0; g < GLOBALS; g++)
+			globals[g] = symbol("g" + g);
+		ProcSymbol proc = new ProcSymbol(new Procedure(Type.VOID, "p", new ArrayList<VarDecl>(), new Block(
+				new ArrayList<VarDecl>(), new ArrayList<ast.Stmt>())));
+		VarSymbol[] locals = new VarSymbol[depth];
+		VarSymbol[] shadowing = new VarSymbol[depth];
+		for (int d = 0; d < depth; d++) {
+			locals[d] = symbol("l" + d);
+			shadowing[d] = symbol("x");
+		}
+
+		for (int r = 0; r < WARMUP; r++) {
+			scopes(globals, proc, locals, shadowing);
+			table(globals, proc, locals, shadowing);
+		}
+		long scopes = Long.MAX_VALUE;
+		long table = Long.MAX_VALUE;
+		for (int r = 0; r < rounds; r++) {
+			long start = System.nanoTime();
+			scopes(globals, proc, locals, shadowing);
+			scopes = Math.min(scopes, System.nanoTime() - start);
+			start = System.nanoTime();
+			table(globals, proc, locals, shadowing);
+			table = Math.min(table, System.nanoTime() - start);
+		}
+		int lookups = 4 * depth;
+		System.out.println(String.format("depth %d, %d lookups", depth, lookups));
+		System.out.println(String.format("  Scope chain  %10.3f ms  %8.1f ns/lookup", scopes / 1e6, scopes
+				/ (double) lookups));
+		System.out.println(String.format("  SymbolTable  %10.3f ms  %8.1f ns/lookup", table / 1e6, table
+				/ (double) lookups));
+	}
+
+	private static void usage() {
+		System.out.println("Usage: java " + SymbolTableBenchmark.class.getSimpleName() + " [-depth=N] [-rounds=N]");
+		System.exit(-1);
+	}
+
+	private static VarSymbol symbol(String name) {
+		return new VarSymbol(new VarDecl(Type.INT, new Var(name)));
+	}
+
+	private static void check(Symbol actual, Symbol expected) {
+		if (actual != expected)
+			throw new IllegalStateException("found " + actual + " instead of " + expected);
+	}
+
+	private static void scopes(VarSymbol[] globals, ProcSymbol proc, VarSymbol[] locals, VarSymbol[] shadowing) {
+		Scope scope = new Scope();
+		for (VarSymbol g : globals)
+			scope.put(g);
+		scope.put(proc);
+		int x = NameTable.SHARED.intern("x");
+		for (int d = 0; d < depth; d++) {
+			scope = new Scope(scope);
+			scope.put(locals[d]);
+			scope.put(shadowing[d]);
+			check(scope.var_lookup(globals[d % GLOBALS].id), globals[d % GLOBALS]);
+			check(scope.var_lookup(x), shadowing[d]);
+			check(scope.var_lookup(locals[0].id), locals[0]);
+			check(scope.proc_lookup(proc.id), proc);
+		}
+	}
+
+	private static void table(VarSymbol[] globals, ProcSymbol proc, VarSymbol[] locals, VarSymbol[] shadowing) {
+		SymbolTable table = new SymbolTable();
+		for (VarSymbol g : globals)
+			table.put(g);
+		table.put(proc);
+		int x = NameTable.SHARED.intern("x");
+		for (int d = 0; d < depth; d++) {
+			table.enterScope();
+			table.put(locals[d]);
+			table.put(shadowing[d]);
+			check(table.var_lookup(globals[d % GLOBALS].id), globals[d % GLOBALS]);
+			check(table.var_lookup(x), shadowing[d]);
+			check(table.var_lookup(locals[0].id), locals[0]);
+			check(table.proc_lookup(proc.id), proc);
+		}
+		for (int d = 0; d < depth; d++)
+			table.leaveScope();
+	}
+}
@@ -1,73 +1,96 @@
 package ast;
 
 import java.io.PrintWriter;
-
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Prints an AST as nested constructor calls. A visit method prints the start
+ * of its node and pushes the rest, child trees and the text between them, on
+ * an explicit stack, from which they are printed after it returns. There is
+ * no recursion into the children, so deeply nested trees such as long
+ * expressions cannot overflow the stack.
+ */
 public class ASTPrinter implements ASTVisitor<Void> {
 
 	private PrintWriter writer;
 
+	// parts still to print, trees or text, the next one on top
+	private final ArrayDeque<Object> pending = new ArrayDeque<Object>();
+	private boolean printing;
+
 	public ASTPrinter(PrintWriter writer) {
 		this.writer = writer;
 	}
 
-	@Override
-	public Void visitBlock(Block b) {
-		writer.print("Block(");
-		if (b.varDecls.size() > 0 && b.stmts.size() > 0) {
-			for (VarDecl v : b.varDecls) {
-				v.accept(this);
-				writer.print(",");
-			}
-			for (int i = 0; i < b.stmts.size() - 1; i++) {
-				b.stmts.get(i).accept(this);
-				writer.print(",");
+	/*
+	 * Prints the pending parts, unless called from within a visit, whose
+	 * parts are then printed by the loop already running.
+	 */
+	private Void drain() {
+		if (printing)
+			return null;
+		printing = true;
+		try {
+			while (!pending.isEmpty()) {
+				Object part = pending.pop();
+				if (part instanceof Tree)
+					((Tree) part).accept(this);
+				else
+					writer.print(part);
 			}
-			b.stmts.get(b.stmts.size() - 1).accept(this);
-		} else if (b.varDecls.size() > 0 && b.stmts.size() <= 0) {
-			for (int i = 0; i < b.varDecls.size() - 1; i++) {
-				b.varDecls.get(i).accept(this);
-				writer.print(",");
-			}
-			b.varDecls.get(b.varDecls.size() - 1).accept(this);
-		} else if (b.varDecls.size() <= 0 && b.stmts.size() > 0) {
-			for (int i = 0; i < b.stmts.size() - 1; i++) {
-				b.stmts.get(i).accept(this);
-				writer.print(",");
-			}
-			b.stmts.get(b.stmts.size() - 1).accept(this);
-		} else {
+		} finally {
+			printing = false;
+			pending.clear();
 		}
-		writer.print(")");
 		return null;
 	}
 
+	/*
+	 * Pushes trees separated by commas, preceded by one if comma is set, so
+	 * that they are printed in order.
+	 */
+	private void pushAll(List<? extends Tree> trees, boolean comma) {
+		for (int i = trees.size() - 1; i >= 0; i--) {
+			pending.push(trees.get(i));
+			if (i > 0 || comma)
+				pending.push(",");
+		}
+	}
+
+	@Override
+	public Void visitBlock(Block b) {
+		writer.print("Block(");
+		pending.push(")");
+		pushAll(b.stmts, !b.varDecls.isEmpty());
+		pushAll(b.varDecls, false);
+		return drain();
+	}
+
 	@Override
 	public Void visitProcedure(Procedure p) {
 		writer.print("Procedure(");
 		writer.print(p.type);
 		writer.print("," + p.name + ",");
-		for (VarDecl vd : p.params) {
-			vd.accept(this);
-			writer.print(",");
+		pending.push(")");
+		pending.push(p.block);
+		for (int i = p.params.size() - 1; i >= 0; i--) {
+			pending.push(",");
+			pending.push(p.params.get(i));
 		}
-		p.block.accept(this);
-		writer.print(")");
-		return null;
+		return drain();
 	}
 
 	@Override
 	public Void visitProgram(Program p) {
 		writer.print("Program(");
-		for (VarDecl vd : p.varDecls) {
-			vd.accept(this);
-			writer.print(",");
-		}
-		for (Procedure proc : p.procs) {
-			proc.accept(this);
-			writer.print(",");
-		}
-		p.main.accept(this);
-		writer.print(")");
+		pending.push(")");
+		pending.push(p.main);
+		if (!p.varDecls.isEmpty() || !p.procs.isEmpty())
+			pending.push(",");
+		pushAll(p.procs, !p.varDecls.isEmpty());
+		pushAll(p.varDecls, false);
+		drain();
 		writer.flush();
 		return null;
 	}
@@ -76,9 +99,9 @@ public class ASTPrinter implements ASTVisitor<Void> {
 	public Void visitVarDecl(VarDecl vd) {
 		writer.print("VarDecl(");
 		writer.print(vd.type + ",");
-		vd.var.accept(this);
-		writer.print(")");
-		return null;
+		pending.push(")");
+		pending.push(vd.var);
+		return drain();
 	}
 
 	@Override
@@ -92,23 +115,23 @@ public class ASTPrinter implements ASTVisitor<Void> {
 	@Override
 	public Void visitAssign(Assign a) {
 		writer.print("Assign(");
-		a.var.accept(this);
-		writer.print(",");
-		a.expr.accept(this);
-		writer.print(")");
-		return null;
+		pending.push(")");
+		pending.push(a.expr);
+		pending.push(",");
+		pending.push(a.var);
+		return drain();
 	}
 
 	@Override
 	public Void visitBinOp(BinOp b) {
 		writer.print("BinOp(");
-		b.lhs.accept(this);
-		writer.print(",");
-		writer.print(b.op);
-		writer.print(",");
-		b.rhs.accept(this);
-		writer.print(")");
-		return null;
+		pending.push(")");
+		pending.push(b.rhs);
+		pending.push(",");
+		pending.push(b.op);
+		pending.push(",");
+		pending.push(b.lhs);
+		return drain();
 	}
 
 	@Override
@@ -123,38 +146,32 @@ public class ASTPrinter implements ASTVisitor<Void> {
 	public Void visitFunCallExpr(FunCallExpr f) {
 		writer.print("FunCallExpr(");
 		writer.print(f.name);
-		for (Expr e : f.exprs) {
-			writer.print(",");
-			e.accept(this);
-		}
-		writer.print(")");
-		return null;
+		pending.push(")");
+		pushAll(f.exprs, true);
+		return drain();
 	}
 
 	@Override
 	public Void visitFunCallStmt(FunCallStmt f) {
 		writer.print("FunCallStmt(");
 		writer.print(f.name);
-		for (Expr e : f.exprs) {
-			writer.print(",");
-			e.accept(this);
-		}
-		writer.print(")");
-		return null;
+		pending.push(")");
+		pushAll(f.exprs, true);
+		return drain();
 	}
 
 	@Override
 	public Void visitIf(If i) {
 		writer.print("If(");
-		i.expr.accept(this);
-		writer.print(",");
-		i.stmt1.accept(this);
+		pending.push(")");
 		if (i.stmt2 != null) {
-			writer.print(",");
-			i.stmt2.accept(this);
+			pending.push(i.stmt2);
+			pending.push(",");
 		}
-		writer.print(")");
-		return null;
+		pending.push(i.stmt1);
+		pending.push(",");
+		pending.push(i.expr);
+		return drain();
 	}
 
 	@Override
@@ -168,11 +185,10 @@ public class ASTPrinter implements ASTVisitor<Void> {
 	@Override
 	public Void visitReturn(Return r) {
 		writer.print("Return(");
-		if (r.expr != null) {
-			r.expr.accept(this);
-		}
-		writer.print(")");
-		return null;
+		pending.push(")");
+		if (r.expr != null)
+			pending.push(r.expr);
+		return drain();
 	}
 
 	@Override
@@ -186,10 +202,10 @@ public class ASTPrinter implements ASTVisitor<Void> {
 	@Override
 	public Void visitWhile(While w) {
 		writer.print("While(");
-		w.expr.accept(this);
-		writer.print(",");
-		w.stmt.accept(this);
-		writer.print(")");
-		return null;
+		pending.push(")");
+		pending.push(w.stmt);
+		pending.push(",");
+		pending.push(w.expr);
+		return drain();
 	}
 }
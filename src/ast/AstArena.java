@@ -0,0 +1,535 @@
+package ast;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import util.NameTable;
+
+/**
+ * An AST stored in parallel primitive arrays instead of one object per node.
+ * Every node has a kind, its first child and next sibling (-1 if none), a
+ * payload (the value of a literal, the Op of a BinOp, the Type of a VarDecl
+ * or Procedure, the index of a string literal) and the NameTable id of its
+ * name. A node costs 17 bytes, with no object headers, references or lists.
+ *
+ * The children of a node are in the order of the fields of its class, lists
+ * flattened: a Procedure has its params then its Block, a Block its VarDecls
+ * then its statements, a Program its globals, procedures and main. A VarDecl
+ * holds the name of its Var itself. A missing child, such as an If without
+ * else or a node the parser gave up on, is a NONE node or simply absent at
+ * the end of the children.
+ *
+ * Existing visitors run over an arena through toProgram(), which turns the
+ * whole program back into objects, or accept(), which does so a procedure at
+ * a time.
+ */
+public class AstArena {
+
+	public enum Kind {
+		NONE, PROGRAM, VARDECL, VAR, PROCEDURE, FUNCALL_EXPR, FUNCALL_STMT, BLOCK, BINOP, ASSIGN, IF, RETURN,
+		WHILE, STR_LITERAL, INT_LITERAL, CHR_LITERAL
+	}
+
+	private static final Kind[] KINDS = Kind.values();
+	private static final Type[] TYPES = Type.values();
+	private static final Op[] OPS = Op.values();
+
+	private byte[] kinds;
+	private int[] firstChild;
+	private int[] nextSibling;
+	private int[] payloads;
+	private int[] names;
+	private int size;
+	private final List<String> strings = new ArrayList<String>();
+
+	// procedures added so far, in order, until the program node is added
+	private int[] procs = new int[16];
+	private int procCount;
+	private int root = -1;
+
+	private final Flattener flattener = new Flattener();
+
+	public AstArena() {
+		this(1024);
+	}
+
+	public AstArena(int capacity) {
+		capacity = Math.max(capacity, 16);
+		kinds = new byte[capacity];
+		firstChild = new int[capacity];
+		nextSibling = new int[capacity];
+		payloads = new int[capacity];
+		names = new int[capacity];
+	}
+
+	/*
+	 * Stores a whole program.
+	 */
+	public static AstArena of(Program program) {
+		AstArena arena = new AstArena();
+		for (Procedure p : program.procs)
+			arena.addProcedure(p);
+		arena.addProgram(program.varDecls, program.main);
+		return arena;
+	}
+
+	/*
+	 * Stores the next procedure of the program, so that the objects of a
+	 * procedure can be dropped as soon as it has been parsed.
+	 */
+	public void addProcedure(Procedure p) {
+		if (procCount == procs.length)
+			procs = Arrays.copyOf(procs, procCount * 2);
+		procs[procCount++] = add(p);
+	}
+
+	/*
+	 * Stores the globals and main, and makes the program node with the
+	 * procedures added so far the root.
+	 */
+	public void addProgram(List<VarDecl> varDecls, Procedure main) {
+		int program = node(Kind.PROGRAM, 0, -1);
+		int last = -1;
+		for (VarDecl vd : varDecls)
+			last = link(program, last, add(vd));
+		for (int k = 0; k < procCount; k++)
+			last = link(program, last, procs[k]);
+		link(program, last, add(main));
+		root = program;
+		procs = null;
+	}
+
+	/*
+	 * Stores the subtree of tree and returns its node.
+	 */
+	public int add(Tree tree) {
+		return flattener.flatten(tree);
+	}
+
+	public int root() {
+		return root;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Kind kind(int node) {
+		return KINDS[kinds[node]];
+	}
+
+	public int firstChild(int node) {
+		return firstChild[node];
+	}
+
+	public int nextSibling(int node) {
+		return nextSibling[node];
+	}
+
+	public int payload(int node) {
+		return payloads[node];
+	}
+
+	/*
+	 * NameTable.SHARED id of the name of node, -1 if it has none.
+	 */
+	public int name(int node) {
+		return names[node];
+	}
+
+	/*
+	 * The value of a STR_LITERAL node.
+	 */
+	public String literal(int node) {
+		return strings.get(payloads[node]);
+	}
+
+	/*
+	 * Bytes taken by the nodes, not counting unused capacity or the string
+	 * literals.
+	 */
+	public long bytes() {
+		return (long) size * (1 + 4 * 4);
+	}
+
+	/*
+	 * Trims the arrays to the nodes actually stored.
+	 */
+	public void trim() {
+		kinds = Arrays.copyOf(kinds, size);
+		firstChild = Arrays.copyOf(firstChild, size);
+		nextSibling = Arrays.copyOf(nextSibling, size);
+		payloads = Arrays.copyOf(payloads, size);
+		names = Arrays.copyOf(names, size);
+	}
+
+	private int node(Kind kind, int payload, int name) {
+		if (size == kinds.length) {
+			int capacity = size * 2;
+			kinds = Arrays.copyOf(kinds, capacity);
+			firstChild = Arrays.copyOf(firstChild, capacity);
+			nextSibling = Arrays.copyOf(nextSibling, capacity);
+			payloads = Arrays.copyOf(payloads, capacity);
+			names = Arrays.copyOf(names, capacity);
+		}
+		kinds[size] = (byte) kind.ordinal();
+		firstChild[size] = -1;
+		nextSibling[size] = -1;
+		payloads[size] = payload;
+		names[size] = name;
+		return size++;
+	}
+
+	/*
+	 * Appends child to the children of parent, after last (-1 if it is the
+	 * first one), and returns child.
+	 */
+	private int link(int parent, int last, int child) {
+		if (last < 0)
+			firstChild[parent] = child;
+		else
+			nextSibling[last] = child;
+		return child;
+	}
+
+	/*
+	 * Stores the nodes of a subtree, each parent before its children. A visit
+	 * method stores its node and, if it has children, opens it with them; the
+	 * children of the innermost open node are stored next, so there is no
+	 * recursion and deeply nested trees such as long expressions cannot
+	 * overflow the stack.
+	 */
+	private class Flattener implements ASTVisitor<Integer> {
+
+		// nodes whose children are being stored, the innermost on top
+		private final ArrayDeque<Open> open = new ArrayDeque<Open>();
+
+		int flatten(Tree tree) {
+			int root = store(tree);
+			while (!open.isEmpty()) {
+				Open top = open.peek();
+				if (top.next == top.children.length)
+					open.pop();
+				else
+					top.last = link(top.node, top.last, store(top.children[top.next++]));
+			}
+			return root;
+		}
+
+		private int store(Tree tree) {
+			if (tree == null)
+				return node(Kind.NONE, 0, -1);
+			return tree.accept(this);
+		}
+
+		private int open(int node, Tree... children) {
+			open.push(new Open(node, children));
+			return node;
+		}
+
+		private Tree[] trees(List<? extends Tree> first, List<? extends Tree> second) {
+			Tree[] trees = new Tree[first.size() + second.size()];
+			for (int k = 0; k < first.size(); k++)
+				trees[k] = first.get(k);
+			for (int k = 0; k < second.size(); k++)
+				trees[first.size() + k] = second.get(k);
+			return trees;
+		}
+
+		@Override
+		public Integer visitProgram(Program p) {
+			throw new UnsupportedOperationException("use addProgram");
+		}
+
+		@Override
+		public Integer visitVarDecl(VarDecl vd) {
+			return node(Kind.VARDECL, vd.type.ordinal(), vd.var.id);
+		}
+
+		@Override
+		public Integer visitVar(Var v) {
+			return node(Kind.VAR, 0, v.id);
+		}
+
+		@Override
+		public Integer visitProcedure(Procedure p) {
+			int n = node(Kind.PROCEDURE, p.type.ordinal(), p.id);
+			return open(n, trees(p.params, Collections.singletonList(p.block)));
+		}
+
+		@Override
+		public Integer visitFunCallExpr(FunCallExpr f) {
+			return open(node(Kind.FUNCALL_EXPR, 0, f.id), f.exprs.toArray(new Tree[f.exprs.size()]));
+		}
+
+		@Override
+		public Integer visitFunCallStmt(FunCallStmt f) {
+			return open(node(Kind.FUNCALL_STMT, 0, f.id), f.exprs.toArray(new Tree[f.exprs.size()]));
+		}
+
+		@Override
+		public Integer visitBlock(Block b) {
+			return open(node(Kind.BLOCK, 0, -1), trees(b.varDecls, b.stmts));
+		}
+
+		@Override
+		public Integer visitBinOp(BinOp b) {
+			return open(node(Kind.BINOP, b.op.ordinal(), -1), b.lhs, b.rhs);
+		}
+
+		@Override
+		public Integer visitAssign(Assign a) {
+			return open(node(Kind.ASSIGN, 0, -1), a.var, a.expr);
+		}
+
+		@Override
+		public Integer visitIf(If i) {
+			int n = node(Kind.IF, 0, -1);
+			if (i.stmt2 == null)
+				return open(n, i.expr, i.stmt1);
+			return open(n, i.expr, i.stmt1, i.stmt2);
+		}
+
+		@Override
+		public Integer visitReturn(Return r) {
+			int n = node(Kind.RETURN, 0, -1);
+			if (r.expr == null)
+				return n;
+			return open(n, r.expr);
+		}
+
+		@Override
+		public Integer visitWhile(While w) {
+			return open(node(Kind.WHILE, 0, -1), w.expr, w.stmt);
+		}
+
+		@Override
+		public Integer visitStrLiteral(StrLiteral s) {
+			strings.add(s.val);
+			return node(Kind.STR_LITERAL, strings.size() - 1, -1);
+		}
+
+		@Override
+		public Integer visitIntLiteral(IntLiteral i) {
+			return node(Kind.INT_LITERAL, i.val, -1);
+		}
+
+		@Override
+		public Integer visitChrLiteral(ChrLiteral c) {
+			return node(Kind.CHR_LITERAL, c.val, -1);
+		}
+	}
+
+	/*
+	 * A node whose children are being stored: the trees, the next one to
+	 * store and the node of the last one stored (-1 if none).
+	 */
+	private static class Open {
+		final int node;
+		final Tree[] children;
+		int next;
+		int last = -1;
+
+		Open(int node, Tree[] children) {
+			this.node = node;
+			this.children = children;
+		}
+	}
+
+	/*
+	 * The whole program as AST objects, for passes which annotate the tree
+	 * and expect the next pass to find the annotations, such as the
+	 * declarations the name analysis links to. The objects do not refer to
+	 * the arena, so once a caller drops the arena only the objects are left,
+	 * as if the program had been parsed without it.
+	 */
+	public Program toProgram() {
+		return program(false);
+	}
+
+	/*
+	 * Runs visitor over the program, making the objects of each procedure when
+	 * the visitor gets to it and dropping them afterwards. Only suitable for
+	 * visitors which do not expect to find the same objects again, such as
+	 * ASTPrinter.
+	 */
+	public <T> T accept(ASTVisitor<T> visitor) {
+		return program(true).accept(visitor);
+	}
+
+	/*
+	 * The program with its procedures made on demand if lazy is set, or all
+	 * at once.
+	 */
+	private Program program(boolean lazy) {
+		List<VarDecl> varDecls = new ArrayList<VarDecl>();
+		int first = firstChild[root];
+		int n = first;
+		while (kind(n) == Kind.VARDECL) {
+			varDecls.add((VarDecl) tree(n));
+			n = nextSibling[n];
+		}
+		int count = 0;
+		for (int p = n; nextSibling[p] >= 0; p = nextSibling[p])
+			count++;
+		if (!lazy) {
+			List<Procedure> procs = new ArrayList<Procedure>(count);
+			for (int k = 0; k < count; k++, n = nextSibling[n])
+				procs.add((Procedure) tree(n));
+			return new Program(varDecls, procs, (Procedure) tree(n));
+		}
+		int[] nodes = new int[count];
+		for (int k = 0; k < count; k++, n = nextSibling[n])
+			nodes[k] = n;
+		return new Program(varDecls, new Procedures(nodes), (Procedure) tree(n));
+	}
+
+	/*
+	 * The procedures of the program, made again each time they are asked
+	 * for.
+	 */
+	private class Procedures extends AbstractList<Procedure> {
+		private final int[] nodes;
+
+		Procedures(int[] nodes) {
+			this.nodes = nodes;
+		}
+
+		@Override
+		public Procedure get(int index) {
+			return (Procedure) tree(nodes[index]);
+		}
+
+		@Override
+		public int size() {
+			return nodes.length;
+		}
+	}
+
+	/*
+	 * Makes the AST objects of the subtree of node. The nodes still to make
+	 * are kept on an explicit stack and the objects made on another, so that
+	 * deeply nested trees cannot overflow the stack.
+	 */
+	public Tree tree(int node) {
+		// nodes to make, or ~node to make once its children are made
+		int[] work = new int[16];
+		int top = 0;
+		List<Tree> made = new ArrayList<Tree>();
+		work[top++] = node;
+		while (top > 0) {
+			int n = work[--top];
+			if (n < 0) {
+				n = ~n;
+				int base = made.size() - children(n);
+				Tree tree = make(n, made, base);
+				made.subList(base, made.size()).clear();
+				made.add(tree);
+			} else if (firstChild[n] < 0) {
+				made.add(make(n, made, made.size()));
+			} else {
+				int count = children(n);
+				if (top + 1 + count > work.length)
+					work = Arrays.copyOf(work, Math.max(work.length * 2, top + 1 + count));
+				work[top++] = ~n;
+				// the first child on top
+				int at = top + count;
+				for (int child = firstChild[n]; child >= 0; child = nextSibling[child])
+					work[--at] = child;
+				top += count;
+			}
+		}
+		return made.get(0);
+	}
+
+	private int children(int node) {
+		int count = 0;
+		for (int child = firstChild[node]; child >= 0; child = nextSibling[child])
+			count++;
+		return count;
+	}
+
+	/*
+	 * Makes the object of node from the objects of its children, which are in
+	 * made from base on.
+	 */
+	private Tree make(int node, List<Tree> made, int base) {
+		switch (kind(node)) {
+		case NONE:
+			return null;
+		case VARDECL:
+			return new VarDecl(TYPES[payloads[node]], var(node));
+		case VAR:
+			return var(node);
+		case PROCEDURE: {
+			int params = varDecls(node);
+			return new Procedure(TYPES[payloads[node]], string(node), names[node], this.<VarDecl> list(made, base,
+					base + params), (Block) child(made, base + params));
+		}
+		case FUNCALL_EXPR:
+			return new FunCallExpr(string(node), names[node], this.<Expr> list(made, base, made.size()));
+		case FUNCALL_STMT:
+			return new FunCallStmt(string(node), names[node], this.<Expr> list(made, base, made.size()));
+		case BLOCK: {
+			int varDecls = varDecls(node);
+			return new Block(this.<VarDecl> list(made, base, base + varDecls), this.<Stmt> list(made, base
+					+ varDecls, made.size()));
+		}
+		case BINOP:
+			return new BinOp((Expr) child(made, base), OPS[payloads[node]], (Expr) child(made, base + 1));
+		case ASSIGN:
+			return new Assign((Var) child(made, base), (Expr) child(made, base + 1));
+		case IF:
+			return new If((Expr) child(made, base), (Stmt) child(made, base + 1), (Stmt) child(made, base + 2));
+		case RETURN:
+			return new Return((Expr) child(made, base));
+		case WHILE:
+			return new While((Expr) child(made, base), (Stmt) child(made, base + 1));
+		case STR_LITERAL:
+			return new StrLiteral(strings.get(payloads[node]));
+		case INT_LITERAL:
+			return new IntLiteral(payloads[node]);
+		case CHR_LITERAL:
+			return new ChrLiteral((char) payloads[node]);
+		default:
+			throw new IllegalStateException("no AST object for " + kind(node));
+		}
+	}
+
+	/*
+	 * The number of VarDecls the children of node start with.
+	 */
+	private int varDecls(int node) {
+		int count = 0;
+		for (int child = firstChild[node]; child >= 0 && kind(child) == Kind.VARDECL; child = nextSibling[child])
+			count++;
+		return count;
+	}
+
+	/*
+	 * The object made for a child, or null if the child is absent.
+	 */
+	private static Tree child(List<Tree> made, int index) {
+		return index < made.size() ? made.get(index) : null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T extends Tree> List<T> list(List<Tree> made, int from, int to) {
+		List<T> list = new ArrayList<T>(to - from);
+		for (int k = from; k < to; k++)
+			list.add((T) made.get(k));
+		return list;
+	}
+
+	private Var var(int node) {
+		return new Var(string(node), names[node]);
+	}
+
+	private String string(int node) {
+		return NameTable.SHARED.name(names[node]);
+	}
+}
@@ -0,0 +1,167 @@
+package ast;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A directory of ASTs in AstCodec form, so that unchanged sources need not be
+ * lexed and parsed again. An entry is named after a 128-bit hash of the
+ * source bytes seeded with AstCodec.VERSION, so changing the format or the
+ * parser only requires increasing the version. The hash is MurmurHash3 rather
+ * than a cryptographic one, whose providers take longer to start than a small
+ * source takes to parse; it guards against accidents, not attacks.
+ *
+ * Entries are read through a memory-mapped buffer and written to a temporary
+ * file which is then renamed, so that compilations sharing the directory never
+ * see half an entry.
+ */
+public class AstCache {
+
+	private static final long C1 = 0x87c37b91114253d5L;
+	private static final long C2 = 0x4cf5ad432745937fL;
+
+	private final File dir;
+
+	public AstCache(File dir) {
+		this.dir = dir;
+	}
+
+	/*
+	 * Returns the key of the entry for the current content of source.
+	 */
+	public String key(File source) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(source, "r"); FileChannel channel = file.getChannel()) {
+			ByteBuffer in = channel.size() > 0 ? channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+					: ByteBuffer.allocate(0);
+			long[] hash = hash(in, AstCodec.VERSION);
+			return hex(hash[0]) + hex(hash[1]);
+		}
+	}
+
+	/*
+	 * MurmurHash3 x64 128 of the remaining bytes of in.
+	 */
+	private static long[] hash(ByteBuffer in, long seed) {
+		in.order(ByteOrder.LITTLE_ENDIAN);
+		long length = in.remaining();
+		long h1 = seed;
+		long h2 = seed;
+		while (in.remaining() >= 16) {
+			h1 ^= mix1(in.getLong());
+			h1 = Long.rotateLeft(h1, 27) + h2;
+			h1 = h1 * 5 + 0x52dce729;
+			h2 ^= mix2(in.getLong());
+			h2 = Long.rotateLeft(h2, 31) + h1;
+			h2 = h2 * 5 + 0x38495ab5;
+		}
+		if (in.hasRemaining()) {
+			int tail = in.remaining();
+			long k1 = 0;
+			long k2 = 0;
+			for (int i = 0; i < tail; i++) {
+				long b = in.get() & 0xffL;
+				if (i < 8)
+					k1 |= b << (8 * i);
+				else
+					k2 |= b << (8 * (i - 8));
+			}
+			if (tail > 8)
+				h2 ^= mix2(k2);
+			h1 ^= mix1(k1);
+		}
+		h1 ^= length;
+		h2 ^= length;
+		h1 += h2;
+		h2 += h1;
+		h1 = fmix(h1);
+		h2 = fmix(h2);
+		h1 += h2;
+		h2 += h1;
+		return new long[] { h1, h2 };
+	}
+
+	private static String hex(long v) {
+		String s = Long.toHexString(v);
+		return "0000000000000000".substring(s.length()) + s;
+	}
+
+	private static long mix1(long k) {
+		return Long.rotateLeft(k * C1, 31) * C2;
+	}
+
+	private static long mix2(long k) {
+		return Long.rotateLeft(k * C2, 33) * C1;
+	}
+
+	private static long fmix(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+	/*
+	 * Returns the program stored under key, or null if there is none or it
+	 * cannot be read.
+	 */
+	public Program load(String key) {
+		File entry = entry(key);
+		if (!entry.isFile())
+			return null;
+		try (RandomAccessFile file = new RandomAccessFile(entry, "r"); FileChannel channel = file.getChannel()) {
+			MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return AstCodec.decode(in);
+		} catch (IOException e) {
+			return null;
+		} catch (IllegalArgumentException e) {
+			// left by another version or damaged, and replaced by the next store
+			return null;
+		}
+	}
+
+	/*
+	 * Stores program under key. Failing to do so is not an error, the source
+	 * is just parsed again next time.
+	 */
+	public boolean store(String key, Program program) {
+		return store(key, AstCodec.encode(program));
+	}
+
+	/*
+	 * Stores a program already encoded by AstCodec under key, as
+	 * store(String, Program) does.
+	 */
+	public boolean store(String key, byte[] bytes) {
+		if (!dir.isDirectory() && !dir.mkdirs())
+			return false;
+		File temp = null;
+		try {
+			temp = File.createTempFile(key, ".tmp", dir);
+			try (FileOutputStream out = new FileOutputStream(temp)) {
+				out.write(bytes);
+			}
+			File entry = entry(key);
+			if (temp.renameTo(entry))
+				return true;
+			// some platforms do not replace an existing file
+			return entry.delete() && temp.renameTo(entry);
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if (temp != null && temp.exists())
+				temp.delete();
+		}
+	}
+
+	private File entry(String key) {
+		return new File(dir, key + ".ast");
+	}
+}
@@ -0,0 +1,723 @@
+package ast;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ast.AstArena.Kind;
+import util.NameTable;
+
+/**
+ * Compact binary form of a Program. After a header, a table holds each
+ * distinct name and string literal once, and the tree follows in pre-order:
+ * each node is its AstArena.Kind as a tag byte, then its fields, with lists
+ * preceded by their length. Lengths, string table indices and literals are
+ * varints, so most nodes take two or three bytes.
+ */
+public final class AstCodec {
+
+	/*
+	 * Version of the format, to be increased whenever it, or the trees the
+	 * parser builds, change.
+	 */
+	public static final int VERSION = 1;
+
+	private static final int MAGIC = 0x41535431; // "AST1"
+
+	private static final Kind[] KINDS = Kind.values();
+	private static final Type[] TYPES = Type.values();
+	private static final Op[] OPS = Op.values();
+
+	private AstCodec() {
+	}
+
+	public static byte[] encode(Program program) {
+		TreeEncoder tree = new TreeEncoder();
+		tree.encode(program);
+		return finish(tree);
+	}
+
+	/*
+	 * Encodes the program stored in arena, giving the same bytes as encoding
+	 * arena.toProgram() without making its objects.
+	 */
+	public static byte[] encode(AstArena arena) {
+		ArenaEncoder tree = new ArenaEncoder(arena);
+		tree.encode(arena.root());
+		return finish(tree);
+	}
+
+	private static byte[] finish(Encoder tree) {
+		Output out = new Output();
+		out.writeInt(MAGIC);
+		out.writeVarint(VERSION);
+		out.writeVarint(tree.strings.size());
+		for (String s : tree.strings) {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			out.writeVarint(bytes.length);
+			out.write(bytes, 0, bytes.length);
+		}
+		out.write(tree.out.bytes, 0, tree.out.size);
+		return Arrays.copyOf(out.bytes, out.size);
+	}
+
+	/*
+	 * Decodes a program from the remaining bytes of in. Throws
+	 * IllegalArgumentException if they are not a program of this version.
+	 */
+	public static Program decode(ByteBuffer in) {
+		try {
+			if (in.getInt() != MAGIC || readVarint(in) != VERSION)
+				throw new IllegalArgumentException("not an AST of version " + VERSION);
+			int count = readVarint(in);
+			String[] strings = new String[count];
+			int[] ids = new int[count];
+			for (int k = 0; k < count; k++) {
+				byte[] bytes = new byte[readVarint(in)];
+				in.get(bytes);
+				strings[k] = new String(bytes, StandardCharsets.UTF_8);
+				ids[k] = -1;
+			}
+			Program program = new Decoder(in, strings, ids).program();
+			if (in.hasRemaining())
+				throw new IllegalArgumentException("trailing bytes after AST");
+			return program;
+		} catch (RuntimeException e) {
+			if (e instanceof IllegalArgumentException)
+				throw e;
+			// truncated, or indices out of range
+			throw new IllegalArgumentException("corrupt AST", e);
+		}
+	}
+
+	private static int readVarint(ByteBuffer in) {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = in.get();
+			value |= (b & 0x7f) << shift;
+			if (b >= 0)
+				return value;
+		}
+		throw new IllegalArgumentException("malformed varint");
+	}
+
+	/*
+	 * A growable byte array.
+	 */
+	private static class Output {
+		byte[] bytes = new byte[256];
+		int size;
+
+		void ensure(int n) {
+			if (size + n > bytes.length)
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + n));
+		}
+
+		void writeByte(int b) {
+			ensure(1);
+			bytes[size++] = (byte) b;
+		}
+
+		void write(byte[] b, int offset, int length) {
+			ensure(length);
+			System.arraycopy(b, offset, bytes, size, length);
+			size += length;
+		}
+
+		void writeInt(int v) {
+			writeByte(v >>> 24);
+			writeByte(v >>> 16);
+			writeByte(v >>> 8);
+			writeByte(v);
+		}
+
+		void writeVarint(int v) {
+			while ((v & ~0x7f) != 0) {
+				writeByte((v & 0x7f) | 0x80);
+				v >>>= 7;
+			}
+			writeByte(v);
+		}
+	}
+
+	/*
+	 * Writes nodes and the string table they index.
+	 */
+	private static class Encoder {
+		final Output out = new Output();
+		final List<String> strings = new ArrayList<String>();
+		private final Map<String, Integer> indices = new HashMap<String, Integer>();
+
+		void tag(Kind kind) {
+			out.writeByte(kind.ordinal());
+		}
+
+		void string(String s) {
+			Integer index = indices.get(s);
+			if (index == null) {
+				index = strings.size();
+				strings.add(s);
+				indices.put(s, index);
+			}
+			out.writeVarint(index);
+		}
+	}
+
+	/*
+	 * Writes a tree in pre-order. A visit method writes its node up to its
+	 * first child tree and pushes the child trees on an explicit stack, from
+	 * which encode() writes them in turn, so deeply nested trees such as long
+	 * expressions cannot overflow the stack. Lists of VarDecls, which have no
+	 * child trees, are written on the spot.
+	 */
+	private static class TreeEncoder extends Encoder implements ASTVisitor<Void> {
+		// marks a missing child tree on the stack
+		private static final Object NONE = new Object();
+
+		// child trees still to write, the next one on top
+		private final ArrayDeque<Object> pending = new ArrayDeque<Object>();
+
+		void encode(Tree tree) {
+			push(tree);
+			while (!pending.isEmpty()) {
+				Object next = pending.pop();
+				if (next == NONE)
+					tag(Kind.NONE);
+				else
+					((Tree) next).accept(this);
+			}
+		}
+
+		private void push(Tree tree) {
+			pending.push(tree == null ? NONE : tree);
+		}
+
+		/*
+		 * Writes the length of trees and pushes them, so that they are written
+		 * in order.
+		 */
+		private void list(List<? extends Tree> trees) {
+			out.writeVarint(trees.size());
+			for (int i = trees.size() - 1; i >= 0; i--)
+				push(trees.get(i));
+		}
+
+		private void varDecls(List<VarDecl> varDecls) {
+			out.writeVarint(varDecls.size());
+			for (VarDecl vd : varDecls) {
+				if (vd == null)
+					tag(Kind.NONE);
+				else
+					visitVarDecl(vd);
+			}
+		}
+
+		@Override
+		public Void visitProgram(Program p) {
+			tag(Kind.PROGRAM);
+			varDecls(p.varDecls);
+			push(p.main);
+			list(p.procs);
+			return null;
+		}
+
+		@Override
+		public Void visitVarDecl(VarDecl vd) {
+			tag(Kind.VARDECL);
+			out.writeVarint(vd.type.ordinal());
+			string(vd.var.name);
+			return null;
+		}
+
+		@Override
+		public Void visitVar(Var v) {
+			tag(Kind.VAR);
+			string(v.name);
+			return null;
+		}
+
+		@Override
+		public Void visitProcedure(Procedure p) {
+			tag(Kind.PROCEDURE);
+			out.writeVarint(p.type.ordinal());
+			string(p.name);
+			varDecls(p.params);
+			push(p.block);
+			return null;
+		}
+
+		@Override
+		public Void visitFunCallExpr(FunCallExpr f) {
+			tag(Kind.FUNCALL_EXPR);
+			string(f.name);
+			list(f.exprs);
+			return null;
+		}
+
+		@Override
+		public Void visitFunCallStmt(FunCallStmt f) {
+			tag(Kind.FUNCALL_STMT);
+			string(f.name);
+			list(f.exprs);
+			return null;
+		}
+
+		@Override
+		public Void visitBlock(Block b) {
+			tag(Kind.BLOCK);
+			varDecls(b.varDecls);
+			list(b.stmts);
+			return null;
+		}
+
+		@Override
+		public Void visitBinOp(BinOp b) {
+			tag(Kind.BINOP);
+			out.writeVarint(b.op.ordinal());
+			push(b.rhs);
+			push(b.lhs);
+			return null;
+		}
+
+		@Override
+		public Void visitAssign(Assign a) {
+			tag(Kind.ASSIGN);
+			push(a.expr);
+			push(a.var);
+			return null;
+		}
+
+		@Override
+		public Void visitIf(If i) {
+			tag(Kind.IF);
+			push(i.stmt2);
+			push(i.stmt1);
+			push(i.expr);
+			return null;
+		}
+
+		@Override
+		public Void visitReturn(Return r) {
+			tag(Kind.RETURN);
+			push(r.expr);
+			return null;
+		}
+
+		@Override
+		public Void visitWhile(While w) {
+			tag(Kind.WHILE);
+			push(w.stmt);
+			push(w.expr);
+			return null;
+		}
+
+		@Override
+		public Void visitStrLiteral(StrLiteral s) {
+			tag(Kind.STR_LITERAL);
+			string(s.val);
+			return null;
+		}
+
+		@Override
+		public Void visitIntLiteral(IntLiteral i) {
+			tag(Kind.INT_LITERAL);
+			// zigzag, so that small negative values stay short
+			out.writeVarint((i.val << 1) ^ (i.val >> 31));
+			return null;
+		}
+
+		@Override
+		public Void visitChrLiteral(ChrLiteral c) {
+			tag(Kind.CHR_LITERAL);
+			out.writeVarint(c.val);
+			return null;
+		}
+	}
+
+	/*
+	 * Writes the nodes of an arena as TreeEncoder writes the objects the arena
+	 * would make for them. The nodes still to write are kept on an explicit
+	 * stack, -1 for a missing child.
+	 */
+	private static class ArenaEncoder extends Encoder {
+		private final AstArena arena;
+		private int[] pending = new int[16];
+		private int top;
+
+		ArenaEncoder(AstArena arena) {
+			this.arena = arena;
+		}
+
+		void encode(int root) {
+			pending[top++] = root;
+			while (top > 0) {
+				int node = pending[--top];
+				if (node < 0)
+					tag(Kind.NONE);
+				else
+					write(node);
+			}
+		}
+
+		private void write(int node) {
+			Kind kind = arena.kind(node);
+			int child = arena.firstChild(node);
+			tag(kind);
+			switch (kind) {
+			case PROGRAM: {
+				// globals, procedures and main last
+				child = varDecls(child);
+				int count = count(child);
+				out.writeVarint(count - 1);
+				push(child, count);
+				break;
+			}
+			case VARDECL:
+				out.writeVarint(arena.payload(node));
+				name(node);
+				break;
+			case VAR:
+				name(node);
+				break;
+			case PROCEDURE:
+				out.writeVarint(arena.payload(node));
+				name(node);
+				push(varDecls(child), 1);
+				break;
+			case FUNCALL_EXPR:
+			case FUNCALL_STMT:
+				name(node);
+				list(child);
+				break;
+			case BLOCK:
+				list(varDecls(child));
+				break;
+			case BINOP:
+				out.writeVarint(arena.payload(node));
+				push(child, 2);
+				break;
+			case ASSIGN:
+			case WHILE:
+				push(child, 2);
+				break;
+			case IF:
+				push(child, 3);
+				break;
+			case RETURN:
+				push(child, 1);
+				break;
+			case STR_LITERAL:
+				string(arena.literal(node));
+				break;
+			case INT_LITERAL: {
+				int val = arena.payload(node);
+				// zigzag, as TreeEncoder
+				out.writeVarint((val << 1) ^ (val >> 31));
+				break;
+			}
+			case CHR_LITERAL:
+				out.writeVarint(arena.payload(node));
+				break;
+			default:
+				break;
+			}
+		}
+
+		private void name(int node) {
+			string(NameTable.SHARED.name(arena.name(node)));
+		}
+
+		private int count(int child) {
+			int count = 0;
+			for (; child >= 0; child = arena.nextSibling(child))
+				count++;
+			return count;
+		}
+
+		/*
+		 * Writes the VarDecls the siblings from child start with, as a list,
+		 * and returns the sibling after them.
+		 */
+		private int varDecls(int child) {
+			int count = 0;
+			int rest = child;
+			for (; rest >= 0 && arena.kind(rest) == Kind.VARDECL; rest = arena.nextSibling(rest))
+				count++;
+			out.writeVarint(count);
+			for (; child != rest; child = arena.nextSibling(child))
+				write(child);
+			return rest;
+		}
+
+		/*
+		 * Writes the length of the siblings from child and pushes them.
+		 */
+		private void list(int child) {
+			int count = count(child);
+			out.writeVarint(count);
+			push(child, count);
+		}
+
+		/*
+		 * Pushes count siblings from child, -1 for those missing, so that they
+		 * are written in order.
+		 */
+		private void push(int child, int count) {
+			if (top + count > pending.length)
+				pending = Arrays.copyOf(pending, Math.max(pending.length * 2, top + count));
+			int at = top + count;
+			for (int k = 0; k < count; k++) {
+				pending[--at] = child;
+				if (child >= 0)
+					child = arena.nextSibling(child);
+			}
+			top += count;
+		}
+	}
+
+	/*
+	 * Reads a tree written by Encoder. Nodes with child trees are kept on an
+	 * explicit stack of frames until their children have been read, and the
+	 * children read so far on a stack of values, so deeply nested trees cannot
+	 * overflow the stack.
+	 */
+	private static class Decoder {
+		private final ByteBuffer in;
+		private final String[] strings;
+		// NameTable.SHARED ids of the strings, interned when first needed
+		private final int[] ids;
+
+		// nodes whose children are being read, the innermost on top
+		private final ArrayDeque<Frame> open = new ArrayDeque<Frame>();
+		// finished trees not yet taken by their parent
+		private final List<Tree> values = new ArrayList<Tree>();
+
+		Decoder(ByteBuffer in, String[] strings, int[] ids) {
+			this.in = in;
+			this.strings = strings;
+			this.ids = ids;
+		}
+
+		/*
+		 * A node being read: its fields before the children, and how many of
+		 * its children are still to be read.
+		 */
+		private static class Frame {
+			final Kind kind;
+			final String parts;
+			// index in values of the first child
+			final int base;
+			// Type or Op ordinal, and string index of the name
+			int field;
+			int name;
+			// next part to start, and children left in the current one
+			int part;
+			int remaining;
+			// lengths of the first and second lists
+			int lists;
+			int first;
+			int second;
+
+			Frame(Kind kind, String parts, int base) {
+				this.kind = kind;
+				this.parts = parts;
+				this.base = base;
+			}
+		}
+
+		/*
+		 * The children of each kind of node, in order: a tree (T), or a list of
+		 * trees preceded by its length (L). Null for leaves.
+		 */
+		private static String parts(Kind kind) {
+			switch (kind) {
+			case PROGRAM:
+				return "LLT";
+			case PROCEDURE:
+				return "LT";
+			case FUNCALL_EXPR:
+			case FUNCALL_STMT:
+				return "L";
+			case BLOCK:
+				return "LL";
+			case BINOP:
+			case ASSIGN:
+			case WHILE:
+				return "TT";
+			case IF:
+				return "TTT";
+			case RETURN:
+				return "T";
+			default:
+				return null;
+			}
+		}
+
+		private Kind tag() {
+			return KINDS[in.get()];
+		}
+
+		private int index() {
+			int index = readVarint(in);
+			if (ids[index] < 0)
+				ids[index] = NameTable.SHARED.intern(strings[index]);
+			return index;
+		}
+
+		private void expect(Kind actual, Kind expected) {
+			if (actual != expected)
+				throw new IllegalArgumentException("expected " + expected + " but found " + actual);
+		}
+
+		Program program() {
+			expect(KINDS[in.get(in.position())], Kind.PROGRAM);
+			return (Program) tree();
+		}
+
+		private Tree tree() {
+			while (true) {
+				Kind kind = tag();
+				String parts = parts(kind);
+				boolean done = parts == null;
+				if (done)
+					values.add(leaf(kind));
+				else
+					open.push(start(kind, parts));
+				// hand finished trees to their parents until one needs another
+				while (true) {
+					Frame top = open.peek();
+					if (top == null)
+						return values.remove(values.size() - 1);
+					if (done)
+						top.remaining--;
+					if (needsChild(top))
+						break;
+					open.pop();
+					Tree tree = build(top);
+					values.subList(top.base, values.size()).clear();
+					values.add(tree);
+					done = true;
+				}
+			}
+		}
+
+		private Frame start(Kind kind, String parts) {
+			Frame f = new Frame(kind, parts, values.size());
+			switch (kind) {
+			case PROCEDURE:
+				f.field = readVarint(in);
+				f.name = index();
+				break;
+			case FUNCALL_EXPR:
+			case FUNCALL_STMT:
+				f.name = index();
+				break;
+			case BINOP:
+				f.field = readVarint(in);
+				break;
+			default:
+				break;
+			}
+			return f;
+		}
+
+		/*
+		 * Starts the next parts of f until one has a child left to read, and
+		 * returns false if there are none.
+		 */
+		private boolean needsChild(Frame f) {
+			while (f.remaining == 0) {
+				if (f.part == f.parts.length())
+					return false;
+				if (f.parts.charAt(f.part++) == 'T') {
+					f.remaining = 1;
+				} else {
+					f.remaining = readVarint(in);
+					if (f.lists++ == 0)
+						f.first = f.remaining;
+					else
+						f.second = f.remaining;
+				}
+			}
+			return true;
+		}
+
+		private Tree leaf(Kind kind) {
+			switch (kind) {
+			case NONE:
+				return null;
+			case VARDECL: {
+				Type type = TYPES[readVarint(in)];
+				int name = index();
+				return new VarDecl(type, new Var(strings[name], ids[name]));
+			}
+			case VAR: {
+				int name = index();
+				return new Var(strings[name], ids[name]);
+			}
+			case STR_LITERAL:
+				return new StrLiteral(strings[readVarint(in)]);
+			case INT_LITERAL: {
+				int v = readVarint(in);
+				return new IntLiteral((v >>> 1) ^ -(v & 1));
+			}
+			case CHR_LITERAL:
+				return new ChrLiteral((char) readVarint(in));
+			default:
+				throw new IllegalArgumentException("unexpected " + kind);
+			}
+		}
+
+		/*
+		 * Makes the node of f from its children, the values from f.base on.
+		 */
+		private Tree build(Frame f) {
+			int at = f.base;
+			switch (f.kind) {
+			case PROGRAM: {
+				List<VarDecl> varDecls = this.<VarDecl> list(at, f.first);
+				List<Procedure> procs = this.<Procedure> list(at + f.first, f.second);
+				return new Program(varDecls, procs, (Procedure) values.get(at + f.first + f.second));
+			}
+			case PROCEDURE: {
+				List<VarDecl> params = this.<VarDecl> list(at, f.first);
+				return new Procedure(TYPES[f.field], strings[f.name], ids[f.name], params, (Block) values.get(at
+						+ f.first));
+			}
+			case FUNCALL_EXPR:
+				return new FunCallExpr(strings[f.name], ids[f.name], this.<Expr> list(at, f.first));
+			case FUNCALL_STMT:
+				return new FunCallStmt(strings[f.name], ids[f.name], this.<Expr> list(at, f.first));
+			case BLOCK: {
+				List<VarDecl> varDecls = this.<VarDecl> list(at, f.first);
+				return new Block(varDecls, this.<Stmt> list(at + f.first, f.second));
+			}
+			case BINOP:
+				return new BinOp((Expr) values.get(at), OPS[f.field], (Expr) values.get(at + 1));
+			case ASSIGN:
+				return new Assign((Var) values.get(at), (Expr) values.get(at + 1));
+			case IF:
+				return new If((Expr) values.get(at), (Stmt) values.get(at + 1), (Stmt) values.get(at + 2));
+			case RETURN:
+				return new Return((Expr) values.get(at));
+			case WHILE:
+				return new While((Expr) values.get(at), (Stmt) values.get(at + 1));
+			default:
+				throw new IllegalArgumentException("unexpected " + f.kind);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private <T extends Tree> List<T> list(int from, int size) {
+			List<T> list = new ArrayList<T>(size);
+			for (int k = from; k < from + size; k++)
+				list.add((T) values.get(k));
+			return list;
+		}
+	}
+}
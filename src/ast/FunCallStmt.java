@@ -2,14 +2,23 @@ package ast;
 
 import java.util.List;
 
+import util.NameTable;
+
 public class FunCallStmt extends Stmt {
 
 	public final String name;
+	// NameTable.SHARED id of name
+	public final int id;
 	public final List<Expr> exprs;
 	public Procedure proc;
 
 	public FunCallStmt(String name, List<Expr> exprs) {
+		this(name, NameTable.SHARED.intern(name), exprs);
+	}
+
+	public FunCallStmt(String name, int id, List<Expr> exprs) {
 		this.name = name;
+		this.id = id;
 		this.exprs = exprs;
 		this.proc = null;
 	}
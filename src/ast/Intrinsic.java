@@ -0,0 +1,70 @@
+package ast;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import util.NameTable;
+
+/**
+ * The IO builtins, which programs call without declaring them and which are
+ * linked against the static methods of class IO. Each has one Procedure
+ * holding its signature, shared by all the calls to it, and the descriptor of
+ * its method. Builtins are looked up by the NameTable id of their name in
+ * constant time.
+ */
+public enum Intrinsic {
+	READ_C("read_c", Type.CHAR, null, "()C"),
+	READ_I("read_i", Type.INT, null, "()I"),
+	PRINT_C("print_c", Type.VOID, new VarDecl(Type.CHAR, new Var("c")), "(C)V"),
+	PRINT_I("print_i", Type.VOID, new VarDecl(Type.INT, new Var("i")), "(I)V"),
+	PRINT_S("print_s", Type.VOID, new VarDecl(Type.VOID, new Var("v")), "(Ljava/lang/String;)V");
+
+	// the class whose methods the builtins are
+	public static final String OWNER = "IO";
+
+	// open addressing by id, a power of two at least twice the builtins
+	private static final Intrinsic[] TABLE = new Intrinsic[16];
+
+	static {
+		for (Intrinsic in : values()) {
+			int i = in.proc.id & (TABLE.length - 1);
+			while (TABLE[i] != null)
+				i = (i + 1) & (TABLE.length - 1);
+			TABLE[i] = in;
+		}
+	}
+
+	// the signature; the parameters cannot be changed and there is no body
+	public final Procedure proc;
+	public final String descriptor;
+
+	private Intrinsic(String name, Type type, VarDecl param, String descriptor) {
+		List<VarDecl> params = new ArrayList<VarDecl>(1);
+		if (param != null)
+			params.add(param);
+		this.proc = new Procedure(type, name, NameTable.SHARED.intern(name), Collections.unmodifiableList(params),
+				null);
+		this.descriptor = descriptor;
+	}
+
+	/*
+	 * Returns the builtin with the given id, or null if there is none.
+	 */
+	public static Intrinsic lookup(int id) {
+		for (int i = id & (TABLE.length - 1); TABLE[i] != null; i = (i + 1) & (TABLE.length - 1)) {
+			if (TABLE[i].proc.id == id)
+				return TABLE[i];
+		}
+		return null;
+	}
+
+	/*
+	 * Returns the builtin whose signature proc is, or null if proc is declared
+	 * by the program.
+	 */
+	public static Intrinsic of(Procedure proc) {
+		Intrinsic in = lookup(proc.id);
+		return in != null && in.proc == proc ? in : null;
+	}
+}
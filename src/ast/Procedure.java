@@ -2,15 +2,24 @@ package ast;
 
 import java.util.List;
 
+import util.NameTable;
+
 public class Procedure implements Tree {
 	public final Type type;
 	public final String name;
+	// NameTable.SHARED id of name, -1 if there is none
+	public final int id;
 	public final List<VarDecl> params;
 	public final Block block;
 
 	public Procedure(Type type, String name, List<VarDecl> params, Block block) {
+		this(type, name, name == null ? -1 : NameTable.SHARED.intern(name), params, block);
+	}
+
+	public Procedure(Type type, String name, int id, List<VarDecl> params, Block block) {
 		this.type = type;
 		this.name = name;
+		this.id = id;
 		this.params = params;
 		this.block = block;
 	}
@@ -1,11 +1,20 @@
 package ast;
 
+import util.NameTable;
+
 public class Var extends Expr {
 	public final String name;
+	// NameTable.SHARED id of name
+	public final int id;
 	public VarDecl varDecl;
 
 	public Var(String name) {
+		this(name, NameTable.SHARED.intern(name));
+	}
+
+	public Var(String name, int id) {
 		this.name = name;
+		this.id = id;
 		this.varDecl = null;
 	}
 
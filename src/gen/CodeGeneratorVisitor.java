@@ -13,6 +13,7 @@ import ast.Expr;
 import ast.FunCallExpr;
 import ast.FunCallStmt;
 import ast.If;
+import ast.Intrinsic;
 import ast.IntLiteral;
 import ast.Procedure;
 import ast.Program;
@@ -61,6 +62,19 @@ public class CodeGeneratorVisitor implements ast.ASTVisitor<Void> {
 		return desc.toString();
 	}
 
+	/*
+	 * Calls proc, a method of IO if it is one of the builtins and of Main
+	 * otherwise.
+	 */
+	private void invoke(String name, Procedure proc) {
+		Intrinsic in = Intrinsic.of(proc);
+		if (in != null) {
+			mv.visitMethodInsn(Opcodes.INVOKESTATIC, Intrinsic.OWNER, name, in.descriptor);
+		} else {
+			mv.visitMethodInsn(Opcodes.INVOKESTATIC, "Main", name, getMethodDescriptor(proc));
+		}
+	}
+
 	private void loadVariable(Var v) {
 		if (v.varDecl.isField) {
 			mv.visitFieldInsn(Opcodes.GETSTATIC, "Main", v.name, getTypeInternalName(v.varDecl.type));
@@ -178,17 +192,7 @@ public class CodeGeneratorVisitor implements ast.ASTVisitor<Void> {
 		for (Expr e : f.exprs) {
 			e.accept(this);
 		}
-		// deal with IO functions
-		if (f.name.compareTo("print_c") == 0 || f.name.compareTo("print_i") == 0 || f.name.compareTo("print_s") == 0
-				|| f.name.compareTo("read_c") == 0 || f.name.compareTo("read_i") == 0) {
-			if (f.name.compareTo("print_s") == 0) {
-				mv.visitMethodInsn(Opcodes.INVOKESTATIC, "IO", f.name, "(Ljava/lang/String;)V");
-			} else {
-				mv.visitMethodInsn(Opcodes.INVOKESTATIC, "IO", f.name, getMethodDescriptor(f.proc));
-			}
-		} else {
-			mv.visitMethodInsn(Opcodes.INVOKESTATIC, "Main", f.name, getMethodDescriptor(f.proc));
-		}
+		invoke(f.name, f.proc);
 		return null;
 	}
 
@@ -346,17 +350,7 @@ public class CodeGeneratorVisitor implements ast.ASTVisitor<Void> {
 		for (Expr e : f.exprs) {
 			e.accept(this);
 		}
-		// deal with IO functions
-		if (f.name.compareTo("print_c") == 0 || f.name.compareTo("print_i") == 0 || f.name.compareTo("print_s") == 0
-				|| f.name.compareTo("read_c") == 0 || f.name.compareTo("read_i") == 0) {
-			if (f.name.compareTo("print_s") == 0) {
-				mv.visitMethodInsn(Opcodes.INVOKESTATIC, "IO", f.name, "(Ljava/lang/String;)V");
-			} else {
-				mv.visitMethodInsn(Opcodes.INVOKESTATIC, "IO", f.name, getMethodDescriptor(f.proc));
-			}
-		} else {
-			mv.visitMethodInsn(Opcodes.INVOKESTATIC, "Main", f.name, getMethodDescriptor(f.proc));
-		}
+		invoke(f.name, f.proc);
 		if (f.proc.type != Type.VOID) {
 			mv.visitInsn(Opcodes.POP);
 		}
@@ -0,0 +1,36 @@
+package lexer;
+
+/**
+ * A Scanner over source text which is already in memory, such as a String or
+ * a StringBuilder filled by a code generator. The characters are read straight
+ * out of the sequence, without copying it.
+ */
+public class CharSequenceScanner extends Scanner {
+
+	private final CharSequence source;
+	private final int limit;
+	private int pos;
+
+	public CharSequenceScanner(CharSequence source) {
+		this.source = source;
+		this.limit = source.length();
+	}
+
+	@Override
+	public int peekChar() {
+		return pos < limit ? source.charAt(pos) : EOF;
+	}
+
+	@Override
+	public int nextChar() {
+		if (pos >= limit)
+			return EOF;
+		char c = source.charAt(pos++);
+		advance(c);
+		return c;
+	}
+
+	@Override
+	public void close() {
+	}
+}
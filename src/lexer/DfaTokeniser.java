@@ -0,0 +1,466 @@
+package lexer;
+
+import lexer.Token.TokenClass;
+import util.Diagnostics;
+import util.NameTable;
+
+import java.io.IOException;
+
+/**
+ * A table-driven Tokeniser. Every input character is mapped to a character
+ * class (through a 128-entry table for ASCII), and a transition table indexed
+ * by the current state and that class tells whether to consume the character
+ * and move on or to stop and emit the token recognised so far. It produces the
+ * same token stream as Tokeniser.
+ */
+public class DfaTokeniser extends Tokeniser {
+
+	/* character classes */
+	private static final int C_EOF = 0;
+	private static final int C_WS = 1;
+	private static final int C_NL = 2;
+	private static final int C_LETTER = 3;
+	private static final int C_DIGIT = 4;
+	private static final int C_SLASH = 5;
+	private static final int C_STAR = 6;
+	private static final int C_DQUOTE = 7;
+	private static final int C_SQUOTE = 8;
+	private static final int C_HASH = 9;
+	private static final int C_BANG = 10;
+	private static final int C_LT = 11;
+	private static final int C_GT = 12;
+	private static final int C_EQ = 13;
+	private static final int C_PLUS = 14;
+	private static final int C_MINUS = 15;
+	private static final int C_PERCENT = 16;
+	private static final int C_LBRA = 17;
+	private static final int C_RBRA = 18;
+	private static final int C_LPAR = 19;
+	private static final int C_RPAR = 20;
+	private static final int C_SEMICOLON = 21;
+	private static final int C_COMMA = 22;
+	private static final int C_OTHER = 23;
+	private static final int CLASSES = 24;
+
+	/* states */
+	private static final int START = 0;
+	private static final int IDENT = 1;
+	private static final int NUMBER = 2;
+	private static final int SLASH = 3;
+	private static final int LINE_COMMENT = 4;
+	private static final int BLOCK_COMMENT = 5;
+	private static final int BLOCK_STAR = 6;
+	private static final int STRING_OPEN = 7;
+	private static final int STRING = 8;
+	private static final int STRING_END = 9;
+	private static final int CHAR_OPEN = 10;
+	private static final int CHAR = 11;
+	private static final int CHAR_END = 12;
+	private static final int BANG = 13;
+	private static final int LT = 14;
+	private static final int GT = 15;
+	private static final int ASSIGN = 16;
+	private static final int HASH = 17;
+	private static final int HASH_END = 18;
+	private static final int INVALID = 19;
+	// accepting states for single tokens start here, one per token class
+	private static final int DONE = 20;
+	private static final int STATES = DONE + TokenClass.values().length;
+
+	/* transition table entries which are not states */
+	private static final byte STOP = -1;
+	private static final byte SKIP = -2;
+
+	/* what to do when stopping in a state */
+	private static final byte A_SIMPLE = 0;
+	private static final byte A_EOF = 1;
+	private static final byte A_IDENT = 2;
+	private static final byte A_NUMBER = 3;
+	private static final byte A_STRING = 4;
+	private static final byte A_BAD_STRING = 5;
+	private static final byte A_CHAR = 6;
+	private static final byte A_BAD_CHAR = 7;
+	private static final byte A_BANG = 8;
+	private static final byte A_HASH = 9;
+	private static final byte A_INVALID = 10;
+
+	private static final byte[] ASCII = new byte[128];
+	private static final byte[] DELTA = new byte[STATES * CLASSES];
+	private static final byte[] ACTION = new byte[STATES];
+	private static final TokenClass[] ACCEPT = new TokenClass[STATES];
+	private static final boolean[] KEEP = new boolean[STATES];
+	// states whose input can be consumed in bulk from a mapped scanner
+	private static final boolean[] BULK = new boolean[STATES];
+
+	static {
+		for (int c = 0; c < 128; c++)
+			ASCII[c] = (byte) unicodeClass(c);
+		ASCII['\n'] = C_NL;
+		ASCII['\r'] = C_NL;
+		ASCII['_'] = C_LETTER;
+		ASCII['/'] = C_SLASH;
+		ASCII['*'] = C_STAR;
+		ASCII['\"'] = C_DQUOTE;
+		ASCII['\''] = C_SQUOTE;
+		ASCII['#'] = C_HASH;
+		ASCII['!'] = C_BANG;
+		ASCII['<'] = C_LT;
+		ASCII['>'] = C_GT;
+		ASCII['='] = C_EQ;
+		ASCII['+'] = C_PLUS;
+		ASCII['-'] = C_MINUS;
+		ASCII['%'] = C_PERCENT;
+		ASCII['{'] = C_LBRA;
+		ASCII['}'] = C_RBRA;
+		ASCII['('] = C_LPAR;
+		ASCII[')'] = C_RPAR;
+		ASCII[';'] = C_SEMICOLON;
+		ASCII[','] = C_COMMA;
+
+		java.util.Arrays.fill(DELTA, STOP);
+
+		on(START, C_WS, SKIP);
+		on(START, C_NL, SKIP);
+		on(START, C_LETTER, IDENT);
+		on(START, C_DIGIT, NUMBER);
+		on(START, C_SLASH, SLASH);
+		on(START, C_DQUOTE, STRING_OPEN);
+		on(START, C_SQUOTE, CHAR_OPEN);
+		on(START, C_HASH, HASH);
+		on(START, C_BANG, BANG);
+		on(START, C_LT, LT);
+		on(START, C_GT, GT);
+		on(START, C_EQ, ASSIGN);
+		on(START, C_OTHER, INVALID);
+		single(C_STAR, TokenClass.TIMES);
+		single(C_PLUS, TokenClass.PLUS);
+		single(C_MINUS, TokenClass.MINUS);
+		single(C_PERCENT, TokenClass.MOD);
+		single(C_LBRA, TokenClass.LBRA);
+		single(C_RBRA, TokenClass.RBRA);
+		single(C_LPAR, TokenClass.LPAR);
+		single(C_RPAR, TokenClass.RPAR);
+		single(C_SEMICOLON, TokenClass.SEMICOLON);
+		single(C_COMMA, TokenClass.COMMA);
+
+		on(IDENT, C_LETTER, IDENT);
+		on(IDENT, C_DIGIT, IDENT);
+		on(NUMBER, C_DIGIT, NUMBER);
+
+		// comments
+		on(SLASH, C_SLASH, LINE_COMMENT);
+		on(SLASH, C_STAR, BLOCK_COMMENT);
+		all(LINE_COMMENT, LINE_COMMENT);
+		on(LINE_COMMENT, C_NL, SKIP);
+		all(BLOCK_COMMENT, BLOCK_COMMENT);
+		on(BLOCK_COMMENT, C_STAR, BLOCK_STAR);
+		all(BLOCK_STAR, BLOCK_COMMENT);
+		on(BLOCK_STAR, C_STAR, BLOCK_STAR);
+		on(BLOCK_STAR, C_SLASH, SKIP);
+
+		// literals
+		all(STRING_OPEN, STRING);
+		all(STRING, STRING);
+		on(STRING_OPEN, C_DQUOTE, STRING_END);
+		on(STRING, C_DQUOTE, STRING_END);
+		all(CHAR_OPEN, CHAR);
+		all(CHAR, CHAR);
+		on(CHAR_OPEN, C_SQUOTE, CHAR_END);
+		on(CHAR, C_SQUOTE, CHAR_END);
+
+		// comparisons
+		on(BANG, C_EQ, DONE + TokenClass.NE.ordinal());
+		on(LT, C_EQ, DONE + TokenClass.LE.ordinal());
+		on(GT, C_EQ, DONE + TokenClass.GE.ordinal());
+		on(ASSIGN, C_EQ, DONE + TokenClass.EQ.ordinal());
+
+		// include, up to and including the next white space
+		all(HASH, HASH);
+		on(HASH, C_WS, HASH_END);
+		on(HASH, C_NL, HASH_END);
+
+		for (TokenClass tc : TokenClass.values()) {
+			ACTION[DONE + tc.ordinal()] = A_SIMPLE;
+			ACCEPT[DONE + tc.ordinal()] = tc;
+		}
+		ACTION[START] = A_EOF;
+		ACTION[LINE_COMMENT] = A_EOF;
+		ACTION[BLOCK_COMMENT] = A_EOF;
+		ACTION[BLOCK_STAR] = A_EOF;
+		ACTION[IDENT] = A_IDENT;
+		ACTION[NUMBER] = A_NUMBER;
+		ACTION[STRING_OPEN] = A_BAD_STRING;
+		ACTION[STRING] = A_BAD_STRING;
+		ACTION[STRING_END] = A_STRING;
+		ACTION[CHAR_OPEN] = A_BAD_CHAR;
+		ACTION[CHAR] = A_BAD_CHAR;
+		ACTION[CHAR_END] = A_CHAR;
+		ACTION[BANG] = A_BANG;
+		ACTION[HASH] = A_HASH;
+		ACTION[HASH_END] = A_HASH;
+		ACTION[INVALID] = A_INVALID;
+		ACCEPT[SLASH] = TokenClass.DIV;
+		ACCEPT[LT] = TokenClass.LT;
+		ACCEPT[GT] = TokenClass.GT;
+		ACCEPT[ASSIGN] = TokenClass.ASSIGN;
+
+		KEEP[IDENT] = true;
+		KEEP[NUMBER] = true;
+		KEEP[STRING] = true;
+		KEEP[CHAR] = true;
+		KEEP[HASH] = true;
+
+		BULK[LINE_COMMENT] = true;
+		BULK[BLOCK_COMMENT] = true;
+		BULK[STRING] = true;
+	}
+
+	private static void on(int state, int cls, int next) {
+		DELTA[state * CLASSES + cls] = (byte) next;
+	}
+
+	private static void all(int state, int next) {
+		for (int cls = C_EOF + 1; cls < CLASSES; cls++)
+			on(state, cls, next);
+	}
+
+	private static void single(int cls, TokenClass tc) {
+		on(START, cls, DONE + tc.ordinal());
+	}
+
+	/*
+	 * Class of a character outside the punctuation handled by the ASCII table,
+	 * following the Character predicates used by Tokeniser.
+	 */
+	private static int unicodeClass(int c) {
+		if (Character.isWhitespace(c))
+			return C_WS;
+		if (Character.isDigit(c))
+			return C_DIGIT;
+		if (Character.isLetter(c))
+			return C_LETTER;
+		return C_OTHER;
+	}
+
+	private static int classOf(int c) {
+		if (c < 128)
+			return c == Scanner.EOF ? C_EOF : ASCII[c];
+		return unicodeClass(c);
+	}
+
+	private final Scanner scanner;
+	// the same scanner when it can report byte offsets, null otherwise
+	private final MappedScanner mapped;
+
+	// text of the token being recognised
+	private char[] text = new char[64];
+	private int len;
+
+	// the token recognised by the last call to scan()
+	private TokenClass kind;
+	private int slot;
+	private int id;
+	private int line;
+	private int column;
+	// source extent of the token, when the scanner is mapped
+	private int start;
+	private int end;
+
+	// set once the input ended in the middle of a token or comment
+	boolean truncated;
+
+	public DfaTokeniser(Scanner scanner) {
+		this(scanner, new Diagnostics());
+	}
+
+	public DfaTokeniser(Scanner scanner, Diagnostics diagnostics) {
+		super(scanner, diagnostics);
+		this.scanner = scanner;
+		this.mapped = scanner instanceof MappedScanner ? (MappedScanner) scanner : null;
+	}
+
+	@Override
+	public Token nextToken() {
+		try {
+			scan();
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			// something went horribly wrong, abort
+			System.exit(-1);
+			return null;
+		}
+		switch (kind) {
+		case IDENTIFIER:
+			return new Token(kind, NameTable.SHARED.name(id), id, line, column);
+		case NUMBER:
+		case STRING_LITERAL:
+		case CHARACTER:
+			return new Token(kind, new String(text, 0, len), line, column);
+		case PRINT:
+		case READ:
+			return new Token(kind, Keywords.data(slot), id, line, column);
+		default:
+			return new Token(kind, line, column);
+		}
+	}
+
+	/*
+	 * Tokenises the rest of the input into a TokenBuffer, ending with the EOF
+	 * token. Only available when reading through a MappedScanner, since the
+	 * token data is decoded from the source buffer on demand.
+	 */
+	public TokenBuffer tokenise() {
+		if (mapped == null)
+			throw new IllegalStateException("tokenising into a buffer requires a MappedScanner");
+
+		// a token every 4 bytes is a generous first guess
+		TokenBuffer tokens = new TokenBuffer(mapped.buffer, (mapped.limit - mapped.pos) / 4);
+		while (advance(tokens) != TokenClass.EOF) {
+		}
+		return tokens;
+	}
+
+	/*
+	 * Recognises the next token of a mapped input and appends it to tokens.
+	 */
+	TokenClass advance(TokenBuffer tokens) {
+		try {
+			scan();
+		} catch (IOException ioe) {
+			// a MappedScanner does not do I/O once loaded
+			throw new AssertionError(ioe);
+		}
+		tokens.add(kind, start, end - start, line, column, id);
+		return kind;
+	}
+
+	/*
+	 * Recognises the next token, reporting lexing errors on the way.
+	 */
+	private void scan() throws IOException {
+		int state = START;
+		int last = 0;
+		line = scanner.getLine();
+		column = scanner.getColumn();
+		len = 0;
+		id = -1;
+		start = end = mapped != null ? mapped.pos : 0;
+
+		while (true) {
+			int c = scanner.peekChar();
+			int next = DELTA[state * CLASSES + classOf(c)];
+			if (next == STOP) {
+				if (c == Scanner.EOF && state != START)
+					truncated = true;
+				if (mapped != null)
+					end = mapped.pos;
+				resolve(state, last);
+				return;
+			}
+
+			scanner.nextChar();
+			if (next == SKIP) {
+				if (mapped != null)
+					mapped.skipBlanks();
+				state = START;
+				line = scanner.getLine();
+				column = scanner.getColumn();
+				if (mapped != null)
+					start = mapped.pos;
+				continue;
+			}
+			if (KEEP[next]) {
+				if (len == text.length)
+					text = java.util.Arrays.copyOf(text, len * 2);
+				text[len++] = (char) c;
+			}
+			last = c;
+			state = next;
+			if (mapped != null && BULK[state])
+				bulk(state);
+		}
+	}
+
+	/*
+	 * Consumes the rest of a comment or string literal up to the next
+	 * character that can change state, in bulk.
+	 */
+	private void bulk(int state) {
+		switch (state) {
+		case LINE_COMMENT:
+			mapped.skipUntil('\n', false);
+			break;
+		case BLOCK_COMMENT:
+			mapped.skipUntil('*', true);
+			break;
+		case STRING:
+			int n = mapped.skipUntil('\"', true);
+			if (n > 0) {
+				if (len + n > text.length)
+					text = java.util.Arrays.copyOf(text, Math.max(len + n, len * 2));
+				for (int i = mapped.pos - n; i < mapped.pos; i++)
+					text[len++] = (char) mapped.buffer.get(i);
+			}
+			break;
+		}
+	}
+
+	private void resolve(int state, int last) {
+		switch (ACTION[state]) {
+		case A_EOF:
+			kind = TokenClass.EOF;
+			line = scanner.getLine();
+			column = scanner.getColumn();
+			start = end;
+			break;
+		case A_IDENT:
+			slot = Keywords.find(text, len);
+			if (slot == -1) {
+				kind = TokenClass.IDENTIFIER;
+				id = NameTable.SHARED.intern(text, 0, len);
+			} else {
+				kind = Keywords.tokenClass(slot);
+				id = Keywords.id(slot);
+			}
+			break;
+		case A_NUMBER:
+			kind = TokenClass.NUMBER;
+			break;
+		case A_STRING:
+			kind = TokenClass.STRING_LITERAL;
+			break;
+		case A_BAD_STRING:
+			invalid('\"');
+			break;
+		case A_CHAR:
+			if (len <= 1)
+				kind = TokenClass.CHARACTER;
+			else
+				invalid('\'');
+			break;
+		case A_BAD_CHAR:
+			invalid('\'');
+			break;
+		case A_BANG:
+			invalid('!');
+			break;
+		case A_HASH:
+			if (len == 8 && new String(text, 0, len).equals("#include"))
+				kind = TokenClass.INCLUDE;
+			else
+				invalid('#');
+			break;
+		case A_INVALID:
+			invalid((char) last);
+			break;
+		default:
+			kind = ACCEPT[state];
+			break;
+		}
+	}
+
+	private void invalid(char c) {
+		error(c, line, column);
+		kind = TokenClass.INVALID;
+	}
+}
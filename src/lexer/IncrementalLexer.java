@@ -0,0 +1,145 @@
+package lexer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import lexer.Token.TokenClass;
+import util.Diagnostics;
+
+/**
+ * Keeps the tokens of a source up to date across edits. An edit re-tokenises
+ * from the last token which ends before the edited range, and stops as soon as
+ * a new token starts where an old one used to (on the same column), since the
+ * rest of the input is unchanged. The remaining old tokens are then copied
+ * over with their offsets and lines shifted.
+ *
+ * Offsets are byte offsets into the UTF-8 source, which are the same as
+ * character offsets for ASCII sources.
+ */
+public class IncrementalLexer {
+
+	private TokenBuffer tokens;
+	private final Diagnostics diagnostics;
+	private int relexedStart;
+	private int relexed;
+
+	public IncrementalLexer(TokenBuffer tokens) {
+		this(tokens, new Diagnostics());
+	}
+
+	/*
+	 * Lexing errors in the re-tokenised parts of the source are reported to
+	 * diagnostics.
+	 */
+	public IncrementalLexer(TokenBuffer tokens, Diagnostics diagnostics) {
+		this.tokens = tokens;
+		this.diagnostics = diagnostics;
+	}
+
+	public TokenBuffer getTokens() {
+		return tokens;
+	}
+
+	/*
+	 * Returns the index of the first token tokenised again by the last edit.
+	 * The tokens before it are the same as before the edit, and so are the
+	 * ones from getRelexedStart() + getRelexedCount() on, moved along by the
+	 * change in the number of tokens.
+	 */
+	public int getRelexedStart() {
+		return relexedStart;
+	}
+
+	/*
+	 * Returns the number of tokens tokenised again by the last edit.
+	 */
+	public int getRelexedCount() {
+		return relexed;
+	}
+
+	/*
+	 * Replaces removed bytes at offset by inserted and returns the new tokens.
+	 */
+	public TokenBuffer edit(int offset, int removed, String inserted) {
+		ByteBuffer old = tokens.source();
+		int oldSize = old.limit();
+		if (offset < 0 || removed < 0 || offset + removed > oldSize)
+			throw new IllegalArgumentException("edit [" + offset + ", " + (offset + removed)
+					+ ") is outside the source");
+
+		byte[] bytes = inserted.getBytes(StandardCharsets.UTF_8);
+		byte[] text = new byte[oldSize - removed + bytes.length];
+		ByteBuffer view = old.duplicate();
+		view.position(0);
+		view.get(text, 0, offset);
+		System.arraycopy(bytes, 0, text, offset, bytes.length);
+		view.position(offset + removed);
+		view.get(text, offset + bytes.length, oldSize - offset - removed);
+		ByteBuffer source = ByteBuffer.wrap(text);
+		int delta = bytes.length - removed;
+		int editEnd = offset + bytes.length;
+
+		// the lexer is back in its start state at the beginning of any token,
+		// and a token ending before the edit cannot have been affected by it
+		int k = lastEndingBefore(offset);
+		int restart = 0;
+		int line = 1;
+		int column = 1;
+		if (k < 0) {
+			k = 0;
+		} else {
+			restart = tokens.offset(k);
+			line = tokens.line(k);
+			column = tokens.column(k);
+		}
+
+		TokenBuffer result = new TokenBuffer(source, tokens.size() + 16);
+		result.append(tokens, 0, k, 0, 0);
+		DfaTokeniser lexer = new DfaTokeniser(new MappedScanner(source, restart, text.length, line, column),
+				diagnostics);
+		int j = k;
+		relexedStart = k;
+		relexed = 0;
+		while (true) {
+			relexed++;
+			if (lexer.advance(result) == TokenClass.EOF)
+				break;
+			int i = result.size() - 1;
+			int p = result.offset(i);
+			if (p < editEnd)
+				continue;
+
+			// past the edit, look for an old token starting at the same place
+			int q = p - delta;
+			while (j < tokens.size() && tokens.offset(j) < q)
+				j++;
+			if (j < tokens.size() && tokens.offset(j) == q && tokens.column(j) == result.column(i)) {
+				int lineDelta = result.line(i) - tokens.line(j);
+				result.append(tokens, j + 1, tokens.size() - j - 1, lineDelta, delta);
+				break;
+			}
+		}
+
+		tokens = result;
+		return result;
+	}
+
+	/*
+	 * Returns the index of the last token ending strictly before offset, or -1.
+	 */
+	private int lastEndingBefore(int offset) {
+		int lo = 0;
+		int hi = tokens.size() - 1;
+		int found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (tokens.offset(mid) + tokens.length(mid) < offset) {
+				found = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return found;
+	}
+}
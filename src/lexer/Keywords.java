@@ -0,0 +1,91 @@
+package lexer;
+
+import lexer.Token.TokenClass;
+import util.NameTable;
+
+/**
+ * Perfect hash over the keywords and IO builtins. The hash only looks at the
+ * length and the first and last characters; its constants were chosen so that
+ * the 13 words land in distinct slots of a 32-entry table, so a lookup is one
+ * hash plus one comparison.
+ */
+final class Keywords {
+
+	private static final int SIZE = 32;
+
+	private static final String[] WORDS = new String[SIZE];
+	private static final TokenClass[] CLASSES = new TokenClass[SIZE];
+	private static final String[] DATA = new String[SIZE];
+	private static final int[] IDS = new int[SIZE];
+
+	static {
+		add("if", TokenClass.IF, "");
+		add("int", TokenClass.INT, "");
+		add("return", TokenClass.RETURN, "");
+		add("read_i", TokenClass.READ, "read_i");
+		add("read_c", TokenClass.READ, "read_c");
+		add("main", TokenClass.MAIN, "");
+		add("print_s", TokenClass.PRINT, "print_s");
+		add("print_i", TokenClass.PRINT, "print_i");
+		add("print_c", TokenClass.PRINT, "print_c");
+		add("void", TokenClass.VOID, "");
+		add("char", TokenClass.CHAR, "");
+		add("else", TokenClass.ELSE, "");
+		add("while", TokenClass.WHILE, "");
+	}
+
+	private Keywords() {
+	}
+
+	private static void add(String word, TokenClass tokenClass, String data) {
+		int h = hash(word.length(), word.charAt(0), word.charAt(word.length() - 1));
+		assert WORDS[h] == null : "keyword hash collision on " + word;
+		WORDS[h] = word;
+		CLASSES[h] = tokenClass;
+		DATA[h] = data;
+		IDS[h] = data.isEmpty() ? -1 : NameTable.SHARED.intern(data);
+	}
+
+	private static int hash(int len, char first, char last) {
+		return (len + first + 5 * last) & (SIZE - 1);
+	}
+
+	/*
+	 * Returns the slot of the keyword spelled by text[0..len), or -1 if it is
+	 * not a keyword.
+	 */
+	static int find(char[] text, int len) {
+		if (len < 2 || len > 7)
+			return -1;
+		int h = hash(len, text[0], text[len - 1]);
+		String word = WORDS[h];
+		if (word == null || word.length() != len)
+			return -1;
+		for (int i = 1; i < len - 1; i++) {
+			if (word.charAt(i) != text[i])
+				return -1;
+		}
+		return word.charAt(0) == text[0] && word.charAt(len - 1) == text[len - 1] ? h : -1;
+	}
+
+	static int find(String text) {
+		int len = text.length();
+		if (len < 2 || len > 7)
+			return -1;
+		int h = hash(len, text.charAt(0), text.charAt(len - 1));
+		String word = WORDS[h];
+		return word != null && word.equals(text) ? h : -1;
+	}
+
+	static TokenClass tokenClass(int slot) {
+		return CLASSES[slot];
+	}
+
+	static String data(int slot) {
+		return DATA[slot];
+	}
+
+	static int id(int slot) {
+		return IDS[slot];
+	}
+}
@@ -0,0 +1,261 @@
+package lexer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A Scanner reading the whole source out of a single ByteBuffer. Large files
+ * are memory-mapped, small ones are read into a heap buffer in one call. UTF-8
+ * is decoded inline and the end of input is signalled by the EOF sentinel
+ * rather than by an exception.
+ *
+ * Comments, string literals and blanks can also be skipped in bulk: the skip
+ * methods read the source 8 bytes at a time and find the bytes of interest
+ * with word-at-a-time (SWAR) arithmetic, leaving anything non-ASCII to the
+ * per-character methods.
+ */
+public class MappedScanner extends Scanner {
+
+	// files smaller than this are read into the heap instead of being mapped
+	private static final long MAP_THRESHOLD = 1 << 20;
+
+	private static final char REPLACEMENT = '\uFFFD';
+
+	private static final long ONES = 0x0101010101010101L;
+	private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+	private static final long HIGH = 0x8080808080808080L;
+
+	final ByteBuffer buffer;
+	// the same bytes, read a little-endian word at a time by the skip methods
+	private final ByteBuffer words;
+	final int limit;
+	int pos;
+
+	// low surrogate still to be returned after a 4-byte UTF-8 sequence
+	private int pendingLow = -1;
+
+	public MappedScanner(File source) throws IOException {
+		this(load(source));
+	}
+
+	public MappedScanner(ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.words = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		this.pos = buffer.position();
+		this.limit = buffer.limit();
+	}
+
+	/*
+	 * Scans the bytes [start, end) of buffer, starting at the given position.
+	 */
+	MappedScanner(ByteBuffer buffer, int start, int end, int line, int column) {
+		this.buffer = buffer;
+		this.words = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		this.pos = start;
+		this.limit = end;
+		this.line = line;
+		this.column = column;
+	}
+
+	private static ByteBuffer load(File source) throws IOException {
+		try (FileInputStream in = new FileInputStream(source); FileChannel channel = in.getChannel()) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("File " + source + " is too large to be mapped");
+			if (size >= MAP_THRESHOLD)
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+			ByteBuffer heap = ByteBuffer.allocate((int) size);
+			while (heap.hasRemaining() && channel.read(heap) != -1) {
+			}
+			heap.flip();
+			return heap;
+		}
+	}
+
+	@Override
+	public int peekChar() {
+		if (pendingLow != -1)
+			return pendingLow;
+		if (pos >= limit)
+			return EOF;
+		int b = buffer.get(pos);
+		if (b >= 0)
+			return b;
+
+		int saved = pos;
+		int c = decode(b);
+		pos = saved;
+		pendingLow = -1;
+		return c;
+	}
+
+	@Override
+	public int nextChar() {
+		int c;
+		if (pendingLow != -1) {
+			c = pendingLow;
+			pendingLow = -1;
+		} else {
+			if (pos >= limit)
+				return EOF;
+			c = buffer.get(pos);
+			if (c >= 0)
+				pos++;
+			else
+				c = decode(c);
+		}
+		advance(c);
+		return c;
+	}
+
+	/*
+	 * Decodes the multi-byte UTF-8 sequence starting at pos, whose leading byte
+	 * is b. Malformed input yields the replacement character and consumes a
+	 * single byte.
+	 */
+	private int decode(int b) {
+		int n;
+		int cp;
+		if ((b & 0xE0) == 0xC0) {
+			n = 1;
+			cp = b & 0x1F;
+		} else if ((b & 0xF0) == 0xE0) {
+			n = 2;
+			cp = b & 0x0F;
+		} else if ((b & 0xF8) == 0xF0) {
+			n = 3;
+			cp = b & 0x07;
+		} else {
+			pos++;
+			return REPLACEMENT;
+		}
+		if (pos + n >= limit) {
+			pos++;
+			return REPLACEMENT;
+		}
+		for (int i = 1; i <= n; i++) {
+			int cont = buffer.get(pos + i);
+			if ((cont & 0xC0) != 0x80) {
+				pos++;
+				return REPLACEMENT;
+			}
+			cp = (cp << 6) | (cont & 0x3F);
+		}
+		pos += n + 1;
+		if (cp >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+			pendingLow = Character.lowSurrogate(cp);
+			return Character.highSurrogate(cp);
+		}
+		return cp;
+	}
+
+	/*
+	 * Consumes ASCII characters up to the next stop character, non-ASCII byte
+	 * or the end of input, and returns how many were consumed. Line breaks are
+	 * consumed (and counted) if passNewlines is true, otherwise they stop the
+	 * skip too.
+	 */
+	int skipUntil(int stop, boolean passNewlines) {
+		if (pendingLow != -1)
+			return 0;
+		int from = pos;
+		while (pos + 8 <= limit) {
+			long w = words.getLong(pos);
+			long newlines = equal(w, '\n') | equal(w, '\r');
+			long stops = equal(w, stop) | (w & HIGH);
+			if (!passNewlines)
+				stops |= newlines;
+			if (stops == 0) {
+				count(newlines, 8);
+				pos += 8;
+			} else {
+				int n = Long.numberOfTrailingZeros(stops) >>> 3;
+				count(newlines & ((1L << (n << 3)) - 1), n);
+				pos += n;
+				return pos - from;
+			}
+		}
+		while (pos < limit) {
+			int b = buffer.get(pos);
+			if (b < 0 || b == stop || (!passNewlines && (b == '\n' || b == '\r')))
+				break;
+			pos++;
+			advance(b);
+		}
+		return pos - from;
+	}
+
+	/*
+	 * Returns the n characters before the current position, which must all
+	 * have been consumed by skipUntil.
+	 */
+	String skipped(int n) {
+		byte[] bytes = new byte[n];
+		words.position(pos - n);
+		words.get(bytes);
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+
+	/*
+	 * Consumes spaces, tabs and line breaks, up to the next character which is
+	 * not one of those.
+	 */
+	void skipBlanks() {
+		if (pendingLow != -1)
+			return;
+		while (pos + 8 <= limit) {
+			long w = words.getLong(pos);
+			long newlines = equal(w, '\n') | equal(w, '\r');
+			long stops = ~(equal(w, ' ') | equal(w, '\t') | newlines) & HIGH;
+			if (stops == 0) {
+				count(newlines, 8);
+				pos += 8;
+			} else {
+				int n = Long.numberOfTrailingZeros(stops) >>> 3;
+				count(newlines & ((1L << (n << 3)) - 1), n);
+				pos += n;
+				return;
+			}
+		}
+		while (pos < limit) {
+			int b = buffer.get(pos);
+			if (b != ' ' && b != '\t' && b != '\n' && b != '\r')
+				break;
+			pos++;
+			advance(b);
+		}
+	}
+
+	/*
+	 * Moves line and column past n consumed bytes, where the high bit of each
+	 * byte of newlines is set for the bytes which were line breaks.
+	 */
+	private void count(long newlines, int n) {
+		if (newlines == 0) {
+			column += n;
+		} else {
+			line += Long.bitCount(newlines);
+			column = n - 1 - ((63 - Long.numberOfLeadingZeros(newlines)) >>> 3);
+		}
+	}
+
+	/*
+	 * Returns a word with the high bit of each byte set where that byte of w is
+	 * equal to b, and all other bits clear.
+	 */
+	private static long equal(long w, int b) {
+		long x = w ^ (b * ONES);
+		return ~(((x & LOW7) + LOW7) | x | LOW7);
+	}
+
+	@Override
+	public void close() {
+		// nothing to release, the mapping goes away with the buffer
+	}
+}
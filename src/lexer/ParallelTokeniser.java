@@ -0,0 +1,210 @@
+package lexer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import util.Diagnostics;
+
+/**
+ * A DfaTokeniser which tokenises large inputs in parallel. The input is split
+ * into chunks at newlines that a quick pre-scan believes to be outside
+ * comments and literals, the chunks are tokenised on a fork-join pool and the
+ * results are stitched back into one TokenBuffer with absolute positions. If
+ * a chunk turns out to have started inside a comment or literal, the whole
+ * input is tokenised sequentially instead.
+ */
+public class ParallelTokeniser extends DfaTokeniser {
+
+	// chunks smaller than this are not worth a task of their own
+	private static final int MIN_CHUNK = 1 << 16;
+
+	// how far the pre-scan looks back for an unterminated comment
+	private static final int PRESCAN_WINDOW = 1 << 12;
+
+	// how many newlines the pre-scan tries before settling for one
+	private static final int PRESCAN_TRIES = 64;
+
+	private final MappedScanner scanner;
+	private final int parallelism;
+
+	public ParallelTokeniser(MappedScanner scanner, int parallelism) {
+		this(scanner, parallelism, new Diagnostics());
+	}
+
+	public ParallelTokeniser(MappedScanner scanner, int parallelism, Diagnostics diagnostics) {
+		super(scanner, diagnostics);
+		this.scanner = scanner;
+		this.parallelism = parallelism;
+	}
+
+	@Override
+	public TokenBuffer tokenise() {
+		int[] bounds = split();
+		if (bounds.length <= 2)
+			return super.tokenise();
+
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		for (int k = 0; k + 1 < bounds.length; k++) {
+			if (k == 0)
+				chunks.add(new Chunk(scanner.buffer, bounds[k], bounds[k + 1], scanner.getLine(), scanner
+						.getColumn()));
+			else
+				chunks.add(new Chunk(scanner.buffer, bounds[k], bounds[k + 1], 1, 0));
+		}
+
+		final List<Chunk> tasks = chunks;
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new RecursiveAction() {
+				@Override
+				protected void compute() {
+					ForkJoinTask.invokeAll(tasks);
+				}
+			});
+		} finally {
+			pool.shutdown();
+		}
+
+		for (int k = 0; k + 1 < chunks.size(); k++) {
+			if (chunks.get(k).tokeniser.truncated) {
+				// a boundary fell inside a comment or literal
+				return super.tokenise();
+			}
+		}
+
+		int count = 0;
+		for (Chunk chunk : chunks)
+			count += chunk.tokens.size();
+		TokenBuffer result = new TokenBuffer(scanner.buffer, count);
+		int base = 0;
+		for (int k = 0; k < chunks.size(); k++) {
+			Chunk chunk = chunks.get(k);
+			boolean last = k + 1 == chunks.size();
+			// only the last chunk keeps its EOF token
+			result.append(chunk.tokens, last ? chunk.tokens.size() : chunk.tokens.size() - 1, base);
+			for (int e = 0; e < chunk.errors.size(); e += 3)
+				error((char) (int) chunk.errors.get(e), chunk.errors.get(e + 1) + base, chunk.errors.get(e + 2));
+			if (last) {
+				scanner.line = chunk.scanner.getLine() + base;
+				scanner.column = chunk.scanner.getColumn();
+			}
+			base += chunk.scanner.getLine() - 1;
+		}
+		scanner.pos = scanner.limit;
+		return result;
+	}
+
+	/*
+	 * Returns the chunk boundaries, from the current scanner position to the
+	 * end of the input. Every boundary but the first and last one is just
+	 * after a newline.
+	 */
+	private int[] split() {
+		int from = scanner.pos;
+		int to = scanner.limit;
+		int chunks = (int) Math.min((long) parallelism * 4, (to - from) / MIN_CHUNK);
+		if (parallelism <= 1 || chunks <= 1)
+			return new int[] { from, to };
+
+		int[] bounds = new int[chunks + 1];
+		int n = 0;
+		bounds[n++] = from;
+		for (int k = 1; k < chunks; k++) {
+			int target = from + (int) ((long) (to - from) * k / chunks);
+			int b = boundaryAfter(Math.max(target, bounds[n - 1]), to);
+			if (b > bounds[n - 1] && b < to)
+				bounds[n++] = b;
+		}
+		bounds[n++] = to;
+		return java.util.Arrays.copyOf(bounds, n);
+	}
+
+	/*
+	 * Finds a position just after a newline, at or after from, which does not
+	 * look like it is inside a block comment or string literal. Returns end if
+	 * there is no newline left.
+	 */
+	private int boundaryAfter(int from, int end) {
+		int candidate = end;
+		for (int tries = 0; tries < PRESCAN_TRIES; tries++) {
+			int nl = from;
+			while (nl < end && scanner.buffer.get(nl) != '\n')
+				nl++;
+			if (nl >= end)
+				return candidate;
+			candidate = nl + 1;
+			if (looksSafe(nl))
+				return candidate;
+			from = candidate;
+		}
+		return candidate;
+	}
+
+	/*
+	 * Looks back from the newline at nl for a block comment that has not been
+	 * closed yet, and checks that the line itself has balanced double quotes.
+	 */
+	private boolean looksSafe(int nl) {
+		int lower = Math.max(scanner.pos, nl - PRESCAN_WINDOW);
+		boolean lineStart = false;
+		int quotes = 0;
+		for (int i = nl - 1; i > lower; i--) {
+			byte b = scanner.buffer.get(i);
+			if (b == '\n')
+				lineStart = true;
+			else if (b == '\"' && !lineStart)
+				quotes++;
+			else if (b == '/' && scanner.buffer.get(i - 1) == '*')
+				return quotes % 2 == 0;
+			else if (b == '*' && scanner.buffer.get(i - 1) == '/')
+				return false;
+		}
+		return quotes % 2 == 0;
+	}
+
+	/*
+	 * A chunk of the input, tokenised on its own.
+	 */
+	private static class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final MappedScanner scanner;
+		final ChunkTokeniser tokeniser;
+		TokenBuffer tokens;
+		// lexing errors as (character, line, column) triples
+		final List<Integer> errors = new ArrayList<Integer>();
+
+		Chunk(java.nio.ByteBuffer buffer, int start, int end, int line, int column) {
+			this.scanner = new MappedScanner(buffer, start, end, line, column);
+			this.tokeniser = new ChunkTokeniser(this);
+		}
+
+		@Override
+		protected void compute() {
+			tokens = tokeniser.tokenise();
+		}
+	}
+
+	/*
+	 * Records lexing errors instead of reporting them, since they must be
+	 * reported in order and with absolute positions once all chunks are done.
+	 */
+	private static class ChunkTokeniser extends DfaTokeniser {
+		private final Chunk chunk;
+
+		ChunkTokeniser(Chunk chunk) {
+			super(chunk.scanner);
+			this.chunk = chunk;
+		}
+
+		@Override
+		protected void error(char c, int line, int col) {
+			chunk.errors.add((int) c);
+			chunk.errors.add(line);
+			chunk.errors.add(col);
+		}
+	}
+}
@@ -1,19 +1,62 @@
 package lexer;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 
+/**
+ * Reads the source one character at a time. Besides files, a Scanner can read
+ * from a stream or channel which is still being written to: the input is
+ * decoded through a fixed-size buffer, so characters are handed out as soon as
+ * they arrive and memory use does not grow with the size of the input.
+ */
 public class Scanner {
 
+	// size in chars of the buffer between the decoder and the tokeniser
+	private static final int BUFFER_SIZE = 1 << 13;
+
+	/*
+	 * Sentinel returned by peekChar() and nextChar() once the input is
+	 * exhausted.
+	 */
+	public static final int EOF = -1;
+
 	BufferedReader input;
 	private int peeked = -1;
 
-	private int line = 1;
-	private int column = 1;
+	protected int line = 1;
+	protected int column = 1;
 
 	public Scanner(File source) throws FileNotFoundException {
 		input = new BufferedReader(new FileReader(source));
 	}
 
+	/*
+	 * Reads UTF-8 text from the stream, such as System.in or a pipe.
+	 */
+	public Scanner(InputStream source) {
+		this(new InputStreamReader(source, StandardCharsets.UTF_8));
+	}
+
+	/*
+	 * Reads UTF-8 text from the channel.
+	 */
+	public Scanner(ReadableByteChannel source) {
+		this(Channels.newReader(source, StandardCharsets.UTF_8.newDecoder(), BUFFER_SIZE));
+	}
+
+	public Scanner(Reader source) {
+		input = new BufferedReader(source, BUFFER_SIZE);
+	}
+
+	/*
+	 * Used by the subclasses which do not read through a BufferedReader.
+	 */
+	protected Scanner() {
+		input = null;
+	}
+
 	public int getColumn() {
 		return column;
 	}
@@ -23,36 +66,55 @@ public class Scanner {
 	}
 
 	public char peek() throws IOException {
-		if (peeked != -1)
-			return (char) peeked;
-
-		int r = input.read();
-		if (r == -1)
+		int r = peekChar();
+		if (r == EOF)
 			throw new EOFException();
-
-		peeked = r;
 		return (char) r;
 	}
 
 	public char next() throws IOException {
-		char r;
+		int r = nextChar();
+		if (r == EOF)
+			throw new EOFException();
+		return (char) r;
+	}
+
+	/*
+	 * Returns the next character without consuming it, or EOF.
+	 */
+	public int peekChar() throws IOException {
+		if (peeked == -1)
+			peeked = input.read();
+		return peeked;
+	}
+
+	/*
+	 * Consumes and returns the next character, or EOF.
+	 */
+	public int nextChar() throws IOException {
+		int r;
 		if (peeked != -1) {
-			r = (char) peeked;
+			r = peeked;
 			peeked = -1;
 		} else {
-			int i = input.read();
-			if (i == -1)
-				throw new EOFException();
-			r = (char) i;
+			r = input.read();
+			if (r == -1)
+				return EOF;
 		}
+		advance(r);
+		return r;
+	}
 
-		if (r == '\n' || r == '\r') {
+	/*
+	 * Updates the line and column counters after consuming character c.
+	 */
+	protected final void advance(int c) {
+		if (c == '\n' || c == '\r') {
 			line++;
 			column = 0;
 		} else {
 			column++;
 		}
-		return r;
 	}
 
 	public void close() throws IOException {
@@ -1,5 +1,6 @@
 package lexer;
 
+import util.NameTable;
 import util.Position;
 
 public class Token {
@@ -69,18 +70,32 @@ public class Token {
 	public final TokenClass tokenClass;
 	public final String data;
 	public final Position position;
+	// NameTable.SHARED id of the identifier or builtin name, -1 otherwise
+	public final int id;
 
 	public Token(TokenClass type, int lineNum, int colNum) {
-		this(type, "", lineNum, colNum);
+		this(type, "", -1, lineNum, colNum);
 	}
 
 	public Token(TokenClass tokenClass, String data, int lineNum, int colNum) {
+		this(tokenClass, data, isName(tokenClass) ? NameTable.SHARED.intern(data) : -1, lineNum, colNum);
+	}
+
+	public Token(TokenClass tokenClass, String data, int id, int lineNum, int colNum) {
 		assert (tokenClass != null);
 		this.tokenClass = tokenClass;
 		this.data = data;
+		this.id = id;
 		this.position = new Position(lineNum, colNum);
 	}
 
+	/*
+	 * Returns true for the token classes whose data is a name.
+	 */
+	public static boolean isName(TokenClass tokenClass) {
+		return tokenClass == TokenClass.IDENTIFIER || tokenClass == TokenClass.PRINT || tokenClass == TokenClass.READ;
+	}
+
 	@Override
 	public String toString() {
 		if (data.equals(""))
@@ -0,0 +1,210 @@
+package lexer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import lexer.Token.TokenClass;
+import util.NameTable;
+import util.Position;
+
+/**
+ * A whole file worth of tokens stored in parallel primitive arrays: token
+ * class ordinal, byte offset and length of the token in the source, packed
+ * line/column and the NameTable id of names. The data string of a token is
+ * only decoded from the source when it is asked for, so filling the buffer
+ * does not allocate per token.
+ */
+public class TokenBuffer {
+
+	private static final TokenClass[] CLASSES = TokenClass.values();
+
+	private final ByteBuffer source;
+
+	private int[] kinds;
+	private int[] starts;
+	private int[] lengths;
+	// line in the high 32 bits, column in the low 32 bits
+	private long[] positions;
+	private int[] ids;
+	private int size;
+
+	TokenBuffer(ByteBuffer source, int capacity) {
+		this.source = source;
+		capacity = Math.max(capacity, 16);
+		this.kinds = new int[capacity];
+		this.starts = new int[capacity];
+		this.lengths = new int[capacity];
+		this.positions = new long[capacity];
+		this.ids = new int[capacity];
+	}
+
+	void add(TokenClass tokenClass, int start, int length, int line, int column, int id) {
+		if (size == kinds.length) {
+			int capacity = size * 2;
+			kinds = Arrays.copyOf(kinds, capacity);
+			starts = Arrays.copyOf(starts, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			positions = Arrays.copyOf(positions, capacity);
+			ids = Arrays.copyOf(ids, capacity);
+		}
+		kinds[size] = tokenClass.ordinal();
+		starts[size] = start;
+		lengths[size] = length;
+		positions[size] = ((long) line << 32) | (column & 0xFFFFFFFFL);
+		ids[size] = id;
+		size++;
+	}
+
+	/*
+	 * Appends the first count tokens of other, moving them down by lineOffset
+	 * lines.
+	 */
+	void append(TokenBuffer other, int count, int lineOffset) {
+		append(other, 0, count, lineOffset, 0);
+	}
+
+	/*
+	 * Appends count tokens of other starting at from, moving them down by
+	 * lineOffset lines and along the source by offsetShift bytes.
+	 */
+	void append(TokenBuffer other, int from, int count, int lineOffset, int offsetShift) {
+		int capacity = kinds.length;
+		while (capacity < size + count)
+			capacity *= 2;
+		if (capacity != kinds.length) {
+			kinds = Arrays.copyOf(kinds, capacity);
+			starts = Arrays.copyOf(starts, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			positions = Arrays.copyOf(positions, capacity);
+			ids = Arrays.copyOf(ids, capacity);
+		}
+		System.arraycopy(other.kinds, from, kinds, size, count);
+		System.arraycopy(other.lengths, from, lengths, size, count);
+		System.arraycopy(other.ids, from, ids, size, count);
+		for (int i = 0; i < count; i++)
+			starts[size + i] = other.starts[from + i] + offsetShift;
+		long shift = (long) lineOffset << 32;
+		for (int i = 0; i < count; i++)
+			positions[size + i] = other.positions[from + i] + shift;
+		size += count;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public TokenClass tokenClass(int i) {
+		return CLASSES[kinds[i]];
+	}
+
+	public int line(int i) {
+		return (int) (positions[i] >> 32);
+	}
+
+	public int column(int i) {
+		return (int) positions[i];
+	}
+
+	public Position position(int i) {
+		return new Position(line(i), column(i));
+	}
+
+	/*
+	 * Byte offset of the i^th token in the source.
+	 */
+	public int offset(int i) {
+		return starts[i];
+	}
+
+	/*
+	 * Length in bytes of the i^th token in the source, including the quotes of
+	 * literals.
+	 */
+	public int length(int i) {
+		return lengths[i];
+	}
+
+	/*
+	 * NameTable.SHARED id of the i^th token if it is a name, -1 otherwise.
+	 */
+	public int id(int i) {
+		return ids[i];
+	}
+
+	ByteBuffer source() {
+		return source;
+	}
+
+	/*
+	 * Returns the data of the i^th token, decoding it from the source.
+	 */
+	public String data(int i) {
+		switch (tokenClass(i)) {
+		case IDENTIFIER:
+		case PRINT:
+		case READ:
+			return NameTable.SHARED.name(ids[i]);
+		case NUMBER:
+			return decode(starts[i], lengths[i]);
+		case STRING_LITERAL:
+		case CHARACTER:
+			// strip the quotes
+			return decode(starts[i] + 1, lengths[i] - 2);
+		default:
+			return "";
+		}
+	}
+
+	/*
+	 * Value of the i^th token, a NUMBER, read from the source without
+	 * decoding it to a string first. Numbers that do not fit an int fail the
+	 * same way Integer.valueOf(data(i)) does.
+	 */
+	public int intValue(int i) {
+		int value = 0;
+		for (int k = starts[i], end = starts[i] + lengths[i]; k < end; k++) {
+			int digit = source.get(k) - '0';
+			if (value > (Integer.MAX_VALUE - digit) / 10)
+				return Integer.parseInt(data(i));
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/*
+	 * First character of the i^th token, a CHARACTER, same as
+	 * data(i).charAt(0).
+	 */
+	public char charValue(int i) {
+		byte b = source.get(starts[i] + 1);
+		if (b >= 0)
+			return (char) b;
+		return data(i).charAt(0);
+	}
+
+	private String decode(int start, int length) {
+		if (length == 0)
+			return "";
+		byte[] bytes = new byte[length];
+		ByteBuffer view = source.duplicate();
+		view.position(start);
+		view.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * Materialises the i^th token as a Token object.
+	 */
+	public Token get(int i) {
+		return new Token(tokenClass(i), data(i), ids[i], line(i), column(i));
+	}
+
+	public String toString(int i) {
+		String data = data(i);
+		if (data.equals(""))
+			return tokenClass(i).toString();
+		else
+			return tokenClass(i).toString() + "(" + data + ")";
+	}
+}
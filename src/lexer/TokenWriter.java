@@ -0,0 +1,80 @@
+package lexer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import lexer.Token.TokenClass;
+
+/**
+ * Writes tokens in a compact binary form, for tools which would otherwise
+ * have to parse the -lexer text. After the magic "TOK1", each token is its
+ * TokenClass ordinal as one byte, then as varints the lines since the previous
+ * token, its column and the length of its UTF-8 data, then the data. The last
+ * token is EOF.
+ */
+public class TokenWriter {
+
+	private static final byte[] MAGIC = { 'T', 'O', 'K', '1' };
+
+	private final OutputStream out;
+	private final byte[] buffer = new byte[1 << 16];
+	private int size;
+	private int line = 1;
+
+	public TokenWriter(OutputStream out) throws IOException {
+		this.out = out;
+		write(MAGIC, 0, MAGIC.length);
+	}
+
+	public void write(Token token) throws IOException {
+		write(token.tokenClass, token.position.getLine(), token.position.getColumn(), token.data);
+	}
+
+	public void write(TokenBuffer tokens, int i) throws IOException {
+		write(tokens.tokenClass(i), tokens.line(i), tokens.column(i), tokens.data(i));
+	}
+
+	private void write(TokenClass tokenClass, int line, int column, String data) throws IOException {
+		byte[] bytes = data.isEmpty() ? null : data.getBytes(StandardCharsets.UTF_8);
+		if (size + 16 > buffer.length)
+			flushBuffer();
+		buffer[size++] = (byte) tokenClass.ordinal();
+		writeVarint(line - this.line);
+		writeVarint(column);
+		writeVarint(bytes == null ? 0 : bytes.length);
+		if (bytes != null)
+			write(bytes, 0, bytes.length);
+		this.line = line;
+	}
+
+	private void writeVarint(int v) {
+		while ((v & ~0x7f) != 0) {
+			buffer[size++] = (byte) ((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		buffer[size++] = (byte) v;
+	}
+
+	private void write(byte[] bytes, int offset, int length) throws IOException {
+		if (size + length > buffer.length) {
+			flushBuffer();
+			if (length > buffer.length) {
+				out.write(bytes, offset, length);
+				return;
+			}
+		}
+		System.arraycopy(bytes, offset, buffer, size, length);
+		size += length;
+	}
+
+	private void flushBuffer() throws IOException {
+		out.write(buffer, 0, size);
+		size = 0;
+	}
+
+	public void flush() throws IOException {
+		flushBuffer();
+		out.flush();
+	}
+}
@@ -1,13 +1,19 @@
 package lexer;
 
 import lexer.Token.TokenClass;
+import util.Diagnostic.Code;
+import util.Diagnostics;
+import util.Position;
 
-import java.io.EOFException;
 import java.io.IOException;
 
 public class Tokeniser {
 
 	private Scanner scanner;
+	// the same scanner when comments and literals can be skipped in bulk
+	private final MappedScanner mapped;
+
+	private final Diagnostics diagnostics;
 
 	private int error = 0;
 
@@ -15,12 +21,22 @@ public class Tokeniser {
 		return this.error;
 	}
 
+	public Diagnostics getDiagnostics() {
+		return diagnostics;
+	}
+
 	public Tokeniser(Scanner scanner) {
+		this(scanner, new Diagnostics());
+	}
+
+	public Tokeniser(Scanner scanner, Diagnostics diagnostics) {
 		this.scanner = scanner;
+		this.diagnostics = diagnostics;
+		this.mapped = scanner instanceof MappedScanner ? (MappedScanner) scanner : null;
 	}
 
-	private void error(char c, int line, int col) {
-		System.out.println("Lexing error: unrecognised character (" + c + ") at " + line + ":" + col);
+	protected void error(char c, int line, int col) {
+		diagnostics.error(Code.UNRECOGNISED_CHARACTER, new Position(line, col), c);
 		error++;
 	}
 
@@ -28,9 +44,6 @@ public class Tokeniser {
 		Token result;
 		try {
 			result = next();
-		} catch (EOFException eof) {
-			// end of file, nothing to worry about, just return EOF token
-			return new Token(TokenClass.EOF, scanner.getLine(), scanner.getColumn());
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
 			// something went horribly wrong, abort
@@ -40,57 +53,81 @@ public class Tokeniser {
 		return result;
 	}
 
+	/*
+	 * End of file, nothing to worry about, just return EOF token.
+	 */
+	private Token eof() {
+		return new Token(TokenClass.EOF, scanner.getLine(), scanner.getColumn());
+	}
+
 	private Token next() throws IOException {
 
-		int line = scanner.getLine();
-		int column = scanner.getColumn();
+		int line;
+		int column;
+		int c;
 
-		// get the next character
-		char c = scanner.next();
+		while (true) {
+			line = scanner.getLine();
+			column = scanner.getColumn();
 
-		// skip white spaces
-		if (Character.isWhitespace(c))
-			return next();
+			// get the next character
+			c = scanner.nextChar();
+			if (c == Scanner.EOF)
+				return eof();
 
-		/* arithmetic operators */
-		if (c == '+')
-			return new Token(TokenClass.PLUS, line, column);
-		if (c == '-')
-			return new Token(TokenClass.MINUS, line, column);
-		if (c == '*')
-			return new Token(TokenClass.TIMES, line, column);
-		if (c == '%')
-			return new Token(TokenClass.MOD, line, column);
-		if (c == '/') {
-			try {
-				c = scanner.peek();
-			} catch (EOFException eof) {
-				return new Token(TokenClass.DIV, line, column);
+			// skip white spaces
+			if (Character.isWhitespace(c)) {
+				if (mapped != null)
+					mapped.skipBlanks();
+				continue;
 			}
+
+			if (c != '/')
+				break;
+			c = scanner.peekChar();
 			if (c == '/') {
 				// deal with "//" comment
-				scanner.next();
+				scanner.nextChar();
+				if (mapped != null)
+					mapped.skipUntil('\n', false);
 				while (c != '\n' && c != '\r') {
-					c = scanner.next();
+					c = scanner.nextChar();
+					if (c == Scanner.EOF)
+						return eof();
 				}
-				return next();
 			} else if (c == '*') {
 				// deal with "/* */" comment
-				scanner.next();
+				scanner.nextChar();
 				while (true) {
-					while (scanner.next() != '*') {
+					if (mapped != null)
+						mapped.skipUntil('*', true);
+					while ((c = scanner.nextChar()) != '*') {
+						if (c == Scanner.EOF)
+							return eof();
 					}
-					if (scanner.peek() == '/') {
-						scanner.next();
+					c = scanner.peekChar();
+					if (c == Scanner.EOF)
+						return eof();
+					if (c == '/') {
+						scanner.nextChar();
 						break;
 					}
 				}
-				return next();
 			} else {
 				return new Token(TokenClass.DIV, line, column);
 			}
 		}
 
+		/* arithmetic operators */
+		if (c == '+')
+			return new Token(TokenClass.PLUS, line, column);
+		if (c == '-')
+			return new Token(TokenClass.MINUS, line, column);
+		if (c == '*')
+			return new Token(TokenClass.TIMES, line, column);
+		if (c == '%')
+			return new Token(TokenClass.MOD, line, column);
+
 		/* delimiters */
 		if (c == '{')
 			return new Token(TokenClass.LBRA, line, column);
@@ -108,18 +145,9 @@ public class Tokeniser {
 		/* include */
 		if (c == '#') {
 			StringBuilder sb = new StringBuilder();
-			try {
-				while (!Character.isWhitespace(c) && c != '\n' && c != '\r') {
-					sb.append(c);
-					c = scanner.next();
-				}
-			} catch (EOFException eof) {
-				if (sb.toString().compareTo("#include") == 0) {
-					return new Token(TokenClass.INCLUDE, line, column);
-				} else {
-					error('#', line, column);
-					return new Token(TokenClass.INVALID, line, column);
-				}
+			while (c != Scanner.EOF && !Character.isWhitespace(c) && c != '\n' && c != '\r') {
+				sb.append((char) c);
+				c = scanner.nextChar();
 			}
 			if (sb.toString().compareTo("#include") == 0) {
 				return new Token(TokenClass.INCLUDE, line, column);
@@ -131,14 +159,8 @@ public class Tokeniser {
 
 		/* assign and comparison */
 		if (c == '!') {
-			try {
-				c = scanner.peek();
-			} catch (EOFException eof) {
-				error('!', line, column);
-				return new Token(TokenClass.INVALID, line, column);
-			}
-			if (c == '=') {
-				scanner.next();
+			if (scanner.peekChar() == '=') {
+				scanner.nextChar();
 				return new Token(TokenClass.NE, line, column);
 			} else {
 				error('!', line, column);
@@ -146,39 +168,24 @@ public class Tokeniser {
 			}
 		}
 		if (c == '>') {
-			try {
-				c = scanner.peek();
-			} catch (EOFException eof) {
-				return new Token(TokenClass.GT, line, column);
-			}
-			if (c == '=') {
-				scanner.next();
+			if (scanner.peekChar() == '=') {
+				scanner.nextChar();
 				return new Token(TokenClass.GE, line, column);
 			} else {
 				return new Token(TokenClass.GT, line, column);
 			}
 		}
 		if (c == '<') {
-			try {
-				c = scanner.peek();
-			} catch (EOFException eof) {
-				return new Token(TokenClass.LT, line, column);
-			}
-			if (c == '=') {
-				scanner.next();
+			if (scanner.peekChar() == '=') {
+				scanner.nextChar();
 				return new Token(TokenClass.LE, line, column);
 			} else {
 				return new Token(TokenClass.LT, line, column);
 			}
 		}
 		if (c == '=') {
-			try {
-				c = scanner.peek();
-			} catch (EOFException eof) {
-				return new Token(TokenClass.ASSIGN, line, column);
-			}
-			if (c == '=') {
-				scanner.next();
+			if (scanner.peekChar() == '=') {
+				scanner.nextChar();
 				return new Token(TokenClass.EQ, line, column);
 			} else {
 				return new Token(TokenClass.ASSIGN, line, column);
@@ -188,48 +195,42 @@ public class Tokeniser {
 		/* literals */
 		if (c == '\"') {
 			StringBuilder sb = new StringBuilder();
-			try {
-				c = scanner.next();
-				while (c != '\"') {
-					sb.append(c);
-					c = scanner.next();
+			skipString(sb);
+			c = scanner.nextChar();
+			while (c != '\"') {
+				if (c == Scanner.EOF) {
+					error('\"', line, column);
+					return new Token(TokenClass.INVALID, line, column);
 				}
-			} catch (EOFException eof) {
-				error('\"', line, column);
-				return new Token(TokenClass.INVALID, line, column);
+				sb.append((char) c);
+				skipString(sb);
+				c = scanner.nextChar();
 			}
 			return new Token(TokenClass.STRING_LITERAL, sb.toString(), line, column);
 		}
 		if (c == '\'') {
 			StringBuilder sb = new StringBuilder();
-			try {
-				c = scanner.next();
-				while (c != '\'') {
-					sb.append(c);
-					c = scanner.next();
+			c = scanner.nextChar();
+			while (c != '\'') {
+				if (c == Scanner.EOF) {
+					error('\'', line, column);
+					return new Token(TokenClass.INVALID, line, column);
 				}
-			} catch (EOFException eof) {
-				error('\'', line, column);
-				return new Token(TokenClass.INVALID, line, column);
+				sb.append((char) c);
+				c = scanner.nextChar();
 			}
 			if (sb.length() <= 1) {
-				return new Token(TokenClass.CHARACTER, sb.toString(), line, column);				
-			}
-			else {
+				return new Token(TokenClass.CHARACTER, sb.toString(), line, column);
+			} else {
 				error('\'', line, column);
 				return new Token(TokenClass.INVALID, line, column);
 			}
 		}
 		if (Character.isDigit(c)) {
 			StringBuilder sb = new StringBuilder();
-			sb.append(c);
-			try {
-				while (Character.isDigit(scanner.peek())) {
-					c = scanner.next();
-					sb.append(c);
-				}
-			} catch (EOFException eof) {
-				return new Token(TokenClass.NUMBER, sb.toString(), line, column);
+			sb.append((char) c);
+			while (Character.isDigit(scanner.peekChar())) {
+				sb.append((char) scanner.nextChar());
 			}
 			return new Token(TokenClass.NUMBER, sb.toString(), line, column);
 		}
@@ -237,78 +238,36 @@ public class Tokeniser {
 		/* identifier, special functions, types, control flow */
 		if (Character.isLetter(c) || c == '_') {
 			StringBuilder sb = new StringBuilder();
-			sb.append(c);
-			try {
-				while (Character.isLetterOrDigit(scanner.peek()) || scanner.peek() == '_') {
-					c = scanner.next();
-					sb.append(c);
-				}
-			} catch (EOFException eof) {
-				String result = sb.toString();
-				if (result.compareTo("if") == 0) {
-					return new Token(TokenClass.IF, line, column);
-				} else if (result.compareTo("int") == 0) {
-					return new Token(TokenClass.INT, line, column);
-				} else if (result.compareTo("return") == 0) {
-					return new Token(TokenClass.RETURN, line, column);
-				} else if (result.compareTo("read_i") == 0) {
-					return new Token(TokenClass.READ, "read_i", line, column);
-				} else if (result.compareTo("read_c") == 0) {
-					return new Token(TokenClass.READ, "read_c", line, column);
-				} else if (result.compareTo("main") == 0) {
-					return new Token(TokenClass.MAIN, line, column);
-				} else if (result.compareTo("print_s") == 0) {
-					return new Token(TokenClass.PRINT, "print_s", line, column);
-				} else if (result.compareTo("print_i") == 0) {
-					return new Token(TokenClass.PRINT, "print_i", line, column);
-				} else if (result.compareTo("print_c") == 0) {
-					return new Token(TokenClass.PRINT, "print_c", line, column);
-				} else if (result.compareTo("void") == 0) {
-					return new Token(TokenClass.VOID, line, column);
-				} else if (result.compareTo("char") == 0) {
-					return new Token(TokenClass.CHAR, line, column);
-				} else if (result.compareTo("else") == 0) {
-					return new Token(TokenClass.ELSE, line, column);
-				} else if (result.compareTo("while") == 0) {
-					return new Token(TokenClass.WHILE, line, column);
-				} else {
-					return new Token(TokenClass.IDENTIFIER, result, line, column);
-				}
-			}
-			String result = sb.toString();
-			if (result.compareTo("if") == 0) {
-				return new Token(TokenClass.IF, line, column);
-			} else if (result.compareTo("int") == 0) {
-				return new Token(TokenClass.INT, line, column);
-			} else if (result.compareTo("return") == 0) {
-				return new Token(TokenClass.RETURN, line, column);
-			} else if (result.compareTo("read_i") == 0) {
-				return new Token(TokenClass.READ, "read_i", line, column);
-			} else if (result.compareTo("read_c") == 0) {
-				return new Token(TokenClass.READ, "read_c", line, column);
-			} else if (result.compareTo("main") == 0) {
-				return new Token(TokenClass.MAIN, line, column);
-			} else if (result.compareTo("print_s") == 0) {
-				return new Token(TokenClass.PRINT, "print_s", line, column);
-			} else if (result.compareTo("print_i") == 0) {
-				return new Token(TokenClass.PRINT, "print_i", line, column);
-			} else if (result.compareTo("print_c") == 0) {
-				return new Token(TokenClass.PRINT, "print_c", line, column);
-			} else if (result.compareTo("void") == 0) {
-				return new Token(TokenClass.VOID, line, column);
-			} else if (result.compareTo("char") == 0) {
-				return new Token(TokenClass.CHAR, line, column);
-			} else if (result.compareTo("else") == 0) {
-				return new Token(TokenClass.ELSE, line, column);
-			} else if (result.compareTo("while") == 0) {
-				return new Token(TokenClass.WHILE, line, column);
-			} else {
-				return new Token(TokenClass.IDENTIFIER, result, line, column);
+			sb.append((char) c);
+			c = scanner.peekChar();
+			while (Character.isLetterOrDigit(c) || c == '_') {
+				sb.append((char) scanner.nextChar());
+				c = scanner.peekChar();
 			}
+			return identifierOrKeyword(sb.toString(), line, column);
 		}
 
 		// if we reach this point, it means we did not recognise a valid token
-		error(c, line, column);
+		error((char) c, line, column);
 		return new Token(TokenClass.INVALID, line, column);
 	}
+
+	/*
+	 * Appends the plain ASCII run at the start of a string literal's remaining
+	 * text to sb in one go, when the scanner allows it.
+	 */
+	private void skipString(StringBuilder sb) {
+		if (mapped == null)
+			return;
+		int n = mapped.skipUntil('\"', true);
+		if (n > 0)
+			sb.append(mapped.skipped(n));
+	}
+
+	private Token identifierOrKeyword(String result, int line, int column) {
+		int slot = Keywords.find(result);
+		if (slot == -1)
+			return new Token(TokenClass.IDENTIFIER, result, line, column);
+		return new Token(Keywords.tokenClass(slot), Keywords.data(slot), Keywords.id(slot), line, column);
+	}
 }
@@ -0,0 +1,75 @@
+package parser;
+
+import java.util.List;
+
+import ast.AstArena;
+import ast.Procedure;
+import ast.Program;
+import lexer.TokenBuffer;
+import lexer.Tokeniser;
+import util.Diagnostics;
+
+/**
+ * A Parser which stores the AST in an AstArena. Each procedure is moved into
+ * the arena as soon as it has been parsed, and the procedures are not
+ * collected in a list, so only the objects of one procedure are alive at a
+ * time whatever the size of the program.
+ */
+public class ArenaParser extends Parser {
+
+	// handed over to the caller by parseArena()
+	private AstArena arena;
+
+	public ArenaParser(Tokeniser tokeniser) {
+		super(tokeniser);
+		arena = new AstArena();
+	}
+
+	public ArenaParser(TokenBuffer tokens, Diagnostics diagnostics) {
+		super(tokens, diagnostics);
+		// there are fewer nodes than tokens
+		arena = new AstArena(tokens.size());
+	}
+
+	/*
+	 * Parses the program through the arena and returns it as AST objects, or
+	 * null if there were errors or the AST is not built.
+	 */
+	@Override
+	public Program parse() {
+		AstArena arena = parseArena();
+		return arena == null ? null : arena.toProgram();
+	}
+
+	/*
+	 * Parses the program and returns its arena, or null if there were errors
+	 * or the AST is not built. The parser keeps no reference to the arena, so
+	 * that it can be dropped once turned into objects.
+	 */
+	public AstArena parseArena() {
+		// the procedures are in the arena, the program only has the globals
+		// and main
+		Program program = super.parse();
+		AstArena result = arena;
+		arena = null;
+		if (program == null || getErrorCount() > 0)
+			return null;
+		result.addProgram(program.varDecls, program.main);
+		result.trim();
+		return result;
+	}
+
+	@Override
+	List<Procedure> procedureList() {
+		return null;
+	}
+
+	@Override
+	Procedure parseProc() {
+		Procedure proc = super.parseProc();
+		// the tree of a procedure with errors may have holes, and is not used
+		if (proc != null && getErrorCount() == 0)
+			arena.addProcedure(proc);
+		return proc;
+	}
+}
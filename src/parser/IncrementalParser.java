@@ -0,0 +1,230 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ast.Procedure;
+import ast.Program;
+import ast.Tree;
+import ast.VarDecl;
+import lexer.IncrementalLexer;
+import lexer.Token.TokenClass;
+import lexer.TokenBuffer;
+import util.Diagnostics;
+
+/**
+ * Keeps the AST of a source up to date across edits. The tokens are kept up to
+ * date by an IncrementalLexer, and the parser remembers where each top-level
+ * declaration (global, procedure or main) starts in them. An edit only parses
+ * again the declarations overlapping the tokens the lexer had to re-tokenise;
+ * the other VarDecl and Procedure nodes are reused as they are, and a new
+ * Program is assembled around them.
+ *
+ * If the part parsed again has errors, or no longer fits between its
+ * neighbours (a global after a procedure, a second main, a brace which now
+ * swallows the next procedure...), the whole source is parsed again, so
+ * errors are reported exactly as by Parser. After a parse with errors every
+ * edit parses the whole source until it is correct again.
+ */
+public class IncrementalParser {
+
+	private final IncrementalLexer lexer;
+	private final Diagnostics diagnostics;
+	private TokenBuffer tokens;
+	private Program program;
+	private int errors;
+
+	// token index where each top-level declaration starts, in source order,
+	// followed by the index of EOF; null if the last parse had errors
+	private int[] bounds;
+	// the VarDecl or Procedure of each declaration
+	private Tree[] decls;
+	private int reparsed;
+	private long parseTime;
+
+	public IncrementalParser(TokenBuffer tokens) {
+		this(tokens, new Diagnostics());
+	}
+
+	/*
+	 * Lexing and parsing errors are reported to diagnostics.
+	 */
+	public IncrementalParser(TokenBuffer tokens, Diagnostics diagnostics) {
+		this.lexer = new IncrementalLexer(tokens, diagnostics);
+		this.diagnostics = diagnostics;
+		this.tokens = tokens;
+		parseAll();
+	}
+
+	public Program getProgram() {
+		return program;
+	}
+
+	public TokenBuffer getTokens() {
+		return tokens;
+	}
+
+	/*
+	 * Returns the number of parsing errors of the current source.
+	 */
+	public int getErrorCount() {
+		return errors;
+	}
+
+	/*
+	 * Returns the number of top-level declarations parsed by the last edit, or
+	 * -1 if it parsed the whole source.
+	 */
+	public int getReparsedCount() {
+		return reparsed;
+	}
+
+	/*
+	 * Returns the time in nanoseconds the last edit took to parse, after the
+	 * tokens were brought up to date.
+	 */
+	public long getParseTime() {
+		return parseTime;
+	}
+
+	/*
+	 * Replaces removed bytes at offset by inserted and returns the new AST.
+	 */
+	public Program edit(int offset, int removed, String inserted) {
+		int oldSize = tokens.size();
+		tokens = lexer.edit(offset, removed, inserted);
+		long start = System.nanoTime();
+		if (bounds == null || !reparse(tokens.size() - oldSize))
+			parseAll();
+		parseTime = System.nanoTime() - start;
+		return program;
+	}
+
+	private void parseAll() {
+		Parser parser = new Parser(tokens, diagnostics);
+		program = parser.parse();
+		errors = parser.getErrorCount();
+		reparsed = -1;
+		bounds = null;
+		decls = null;
+		if (errors == 0)
+			split();
+	}
+
+	/*
+	 * Finds the declarations of a program which parsed without errors.
+	 */
+	private void split() {
+		int start = 0;
+		while (tokens.tokenClass(start) == TokenClass.INCLUDE)
+			start += 2;
+		int globals = program.varDecls.size();
+		// each global is type IDENT ;
+		int[] procs = ParallelParser.split(tokens, start + 3 * globals);
+		if (procs == null || procs.length != program.procs.size() + 1)
+			return;
+
+		int count = globals + procs.length;
+		bounds = new int[count + 1];
+		decls = new Tree[count];
+		for (int g = 0; g < globals; g++) {
+			bounds[g] = start + 3 * g;
+			decls[g] = program.varDecls.get(g);
+		}
+		System.arraycopy(procs, 0, bounds, globals, procs.length);
+		for (int p = 0; p < program.procs.size(); p++)
+			decls[globals + p] = program.procs.get(p);
+		decls[count - 1] = program.main;
+		bounds[count] = tokens.size() - 1;
+	}
+
+	/*
+	 * Parses again the declarations overlapping the re-tokenised tokens, delta
+	 * being the change in the number of tokens. Returns false if the whole
+	 * source has to be parsed instead.
+	 */
+	private boolean reparse(int delta) {
+		int count = decls.length;
+		int from = lexer.getRelexedStart();
+		// end of the re-tokenised tokens, as indices before the edit
+		int to = from + lexer.getRelexedCount() - delta;
+		if (from < bounds[0])
+			return false;
+
+		// the declaration containing from, and the last one starting before to
+		int first = Arrays.binarySearch(bounds, 0, count, from);
+		if (first < 0)
+			first = -first - 2;
+		int last = Arrays.binarySearch(bounds, 0, count, to);
+		last = last < 0 ? -last - 2 : last - 1;
+		last = Math.max(last, first);
+
+		// the declarations from first to last, parsed from the new tokens
+		int end = bounds[last + 1] + delta;
+		Parser parser = new Parser(tokens);
+		parser.seek(bounds[first]);
+		List<Tree> parsed = new ArrayList<Tree>();
+		List<Integer> starts = new ArrayList<Integer>();
+		while (parser.position() < end) {
+			int start = parser.position();
+			Tree decl = parser.parseDeclaration();
+			if (parser.getErrorCount() > 0 || parser.position() <= start)
+				return false;
+			parsed.add(decl);
+			starts.add(start);
+		}
+		if (parser.position() != end)
+			return false;
+
+		int newCount = count - (last - first + 1) + parsed.size();
+		Tree[] newDecls = new Tree[newCount];
+		int[] newBounds = new int[newCount + 1];
+		System.arraycopy(decls, 0, newDecls, 0, first);
+		System.arraycopy(bounds, 0, newBounds, 0, first);
+		for (int k = 0; k < parsed.size(); k++) {
+			newDecls[first + k] = parsed.get(k);
+			newBounds[first + k] = starts.get(k);
+		}
+		int tail = first + parsed.size();
+		System.arraycopy(decls, last + 1, newDecls, tail, count - last - 1);
+		for (int k = last + 1; k <= count; k++)
+			newBounds[tail + k - last - 1] = bounds[k] + delta;
+
+		Program result = assemble(newDecls);
+		if (result == null)
+			return false;
+		program = result;
+		decls = newDecls;
+		bounds = newBounds;
+		reparsed = parsed.size();
+		return true;
+	}
+
+	/*
+	 * Builds a Program from its declarations, or returns null if they are not
+	 * globals followed by procedures followed by main.
+	 */
+	private static Program assemble(Tree[] decls) {
+		List<VarDecl> varDecls = new ArrayList<VarDecl>();
+		List<Procedure> procs = new ArrayList<Procedure>();
+		int k = 0;
+		while (k < decls.length && decls[k] instanceof VarDecl)
+			varDecls.add((VarDecl) decls[k++]);
+		for (; k < decls.length - 1; k++) {
+			if (!(decls[k] instanceof Procedure) || isMain(decls[k]))
+				return null;
+			procs.add((Procedure) decls[k]);
+		}
+		if (k != decls.length - 1 || !isMain(decls[k]))
+			return null;
+		return new Program(varDecls, procs, (Procedure) decls[k]);
+	}
+
+	/*
+	 * main is the only procedure named "main", since MAIN is a keyword.
+	 */
+	private static boolean isMain(Tree decl) {
+		return decl instanceof Procedure && "main".equals(((Procedure) decl).name);
+	}
+}
@@ -0,0 +1,160 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import ast.Procedure;
+import lexer.Token.TokenClass;
+import lexer.TokenBuffer;
+import util.Diagnostics;
+
+/**
+ * A Parser which parses the procedures of a program in parallel. The includes
+ * and globals are parsed as usual; then a brace-balancing pre-pass over the
+ * token buffer finds where each procedure before main starts and ends, the
+ * procedures are parsed in batches on a fork-join pool, and the parser carries
+ * on with main after the last one. If the pre-pass cannot make sense of the
+ * tokens, or a procedure does not parse cleanly, the procedures are parsed
+ * sequentially instead, so errors are reported exactly as by Parser.
+ */
+public class ParallelParser extends Parser {
+
+	// procedures per batch below which a batch is not worth a task of its own
+	private static final int MIN_BATCH = 16;
+
+	private final TokenBuffer tokens;
+	private final int parallelism;
+
+	public ParallelParser(TokenBuffer tokens, int parallelism) {
+		this(tokens, parallelism, new Diagnostics());
+	}
+
+	public ParallelParser(TokenBuffer tokens, int parallelism, Diagnostics diagnostics) {
+		super(tokens, diagnostics);
+		this.tokens = tokens;
+		this.parallelism = parallelism;
+	}
+
+	@Override
+	List<Procedure> parseProcrep() {
+		int[] bounds = split(tokens, position());
+		int procs = bounds == null ? 0 : bounds.length - 1;
+		int batches = Math.min(parallelism * 4, procs / MIN_BATCH);
+		if (parallelism <= 1 || batches <= 1)
+			return super.parseProcrep();
+
+		final List<Batch> tasks = new ArrayList<Batch>();
+		for (int k = 0; k < batches; k++)
+			tasks.add(new Batch(tokens, bounds, procs * k / batches, procs * (k + 1) / batches, getBuildAst()));
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new RecursiveAction() {
+				@Override
+				protected void compute() {
+					ForkJoinTask.invokeAll(tasks);
+				}
+			});
+		} finally {
+			pool.shutdown();
+		}
+
+		List<Procedure> result = new ArrayList<Procedure>(procs);
+		for (Batch batch : tasks) {
+			if (batch.procs == null) {
+				// let the sequential parser report the errors
+				return super.parseProcrep();
+			}
+			result.addAll(batch.procs);
+		}
+		seek(bounds[procs]);
+		return result;
+	}
+
+	/*
+	 * Returns the token indices where the procedures from start up to main
+	 * begin, followed by the index of main, or null if the tokens do not look
+	 * like a sequence of procedures followed by main.
+	 */
+	static int[] split(TokenBuffer tokens, int start) {
+		int[] bounds = new int[16];
+		int n = 0;
+		int i = start;
+		while (true) {
+			if (n == bounds.length)
+				bounds = Arrays.copyOf(bounds, n * 2);
+			bounds[n++] = i;
+			TokenClass tokenClass = tokens.tokenClass(i);
+			if (tokenClass == TokenClass.VOID && tokens.tokenClass(i + 1) == TokenClass.MAIN)
+				return Arrays.copyOf(bounds, n);
+			if ((tokenClass != TokenClass.INT && tokenClass != TokenClass.CHAR && tokenClass != TokenClass.VOID)
+					|| tokens.tokenClass(i + 1) != TokenClass.IDENTIFIER
+					|| tokens.tokenClass(i + 2) != TokenClass.LPAR)
+				return null;
+
+			// the parameters hold no braces, the body is balanced
+			i += 3;
+			while (tokens.tokenClass(i) != TokenClass.LBRA) {
+				if (tokens.tokenClass(i) == TokenClass.EOF || tokens.tokenClass(i) == TokenClass.RBRA)
+					return null;
+				i++;
+			}
+			int depth = 0;
+			do {
+				switch (tokens.tokenClass(i)) {
+				case LBRA:
+					depth++;
+					break;
+				case RBRA:
+					depth--;
+					break;
+				case EOF:
+					return null;
+				default:
+					break;
+				}
+				i++;
+			} while (depth > 0);
+		}
+	}
+
+	/*
+	 * Procedures first to last - 1 of bounds, parsed by a parser of their own.
+	 * procs is left null if any of them does not parse cleanly.
+	 */
+	private static class Batch extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final TokenBuffer tokens;
+		private final int[] bounds;
+		private final int first;
+		private final int last;
+		private final boolean buildAst;
+		List<Procedure> procs;
+
+		Batch(TokenBuffer tokens, int[] bounds, int first, int last, boolean buildAst) {
+			this.tokens = tokens;
+			this.bounds = bounds;
+			this.first = first;
+			this.last = last;
+			this.buildAst = buildAst;
+		}
+
+		@Override
+		protected void compute() {
+			Parser parser = new Parser(tokens);
+			parser.setBuildAst(buildAst);
+			parser.seek(bounds[first]);
+			List<Procedure> result = new ArrayList<Procedure>(last - first);
+			for (int k = first; k < last; k++) {
+				result.add(parser.parseProc());
+				if (parser.getErrorCount() > 0 || parser.position() != bounds[k + 1])
+					return;
+			}
+			procs = result;
+		}
+	}
+}
@@ -15,31 +15,129 @@ import ast.Program;
 import ast.Return;
 import ast.Stmt;
 import ast.StrLiteral;
+import ast.Tree;
 import ast.Type;
 import ast.Var;
 import ast.VarDecl;
 import ast.While;
 import lexer.Token;
+import lexer.TokenBuffer;
 import lexer.Tokeniser;
 import lexer.Token.TokenClass;
+import util.Diagnostic.Code;
+import util.Diagnostics;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
 
 public class Parser {
 
+	/*
+	 * Sets of token classes used by accept(), as bitmasks over the ordinals.
+	 * The error messages list the expected tokens in the grammar's order, so
+	 * error() still takes the classes one by one; that path only runs when a
+	 * program is malformed.
+	 */
+	private static final long TYPES = set(TokenClass.INT, TokenClass.CHAR, TokenClass.VOID);
+	private static final long RETURN_TYPES = set(TokenClass.INT, TokenClass.CHAR);
+	private static final long FIRST_STMT = set(TokenClass.LBRA, TokenClass.WHILE, TokenClass.IF,
+			TokenClass.IDENTIFIER, TokenClass.RETURN, TokenClass.PRINT, TokenClass.READ);
+	private static final long FOLLOW_STMT = FIRST_STMT | set(TokenClass.RBRA);
+	private static final long FOLLOW_VARDECLS = FIRST_STMT | set(TokenClass.RBRA);
+	private static final long FIRST_LEXP = set(TokenClass.LPAR, TokenClass.MINUS, TokenClass.IDENTIFIER,
+			TokenClass.NUMBER, TokenClass.CHARACTER, TokenClass.READ);
+	private static final long FOLLOW_LEXP = set(TokenClass.GT, TokenClass.LT, TokenClass.GE, TokenClass.LE,
+			TokenClass.NE, TokenClass.EQ, TokenClass.SEMICOLON, TokenClass.RPAR);
+	private static final long FOLLOW_FACTOR = FOLLOW_LEXP
+			| set(TokenClass.PLUS, TokenClass.MINUS, TokenClass.DIV, TokenClass.TIMES, TokenClass.MOD);
+
+	// binding powers of the binary operators, higher binds tighter
+	private static final int COMPARISON = 0;
+	private static final int ADDITIVE = 1;
+	private static final int MULTIPLICATIVE = 2;
+	private static final int[] POWERS = new int[Op.values().length];
+	// operator of each token class, null if it is not a binary operator
+	private static final Op[] OPERATORS = new Op[TokenClass.values().length];
+
+	static {
+		operator(TokenClass.PLUS, Op.ADD, ADDITIVE);
+		operator(TokenClass.MINUS, Op.SUB, ADDITIVE);
+		operator(TokenClass.TIMES, Op.MUL, MULTIPLICATIVE);
+		operator(TokenClass.DIV, Op.DIV, MULTIPLICATIVE);
+		operator(TokenClass.MOD, Op.MOD, MULTIPLICATIVE);
+		operator(TokenClass.GT, Op.GT, COMPARISON);
+		operator(TokenClass.LT, Op.LT, COMPARISON);
+		operator(TokenClass.GE, Op.GE, COMPARISON);
+		operator(TokenClass.LE, Op.LE, COMPARISON);
+		operator(TokenClass.NE, Op.NE, COMPARISON);
+		operator(TokenClass.EQ, Op.EQ, COMPARISON);
+	}
+
+	private static void operator(TokenClass tokenClass, Op op, int power) {
+		OPERATORS[tokenClass.ordinal()] = op;
+		POWERS[op.ordinal()] = power;
+	}
+
+	// lookahead slots when reading from a tokeniser, a power of two
+	private static final int LOOKAHEAD = 4;
+
 	private Token token;
+	private TokenClass tokenClass;
 
 	// use for backtracking (useful for distinguishing decls from procs when
-	// parsing a program for instance)
-	private Queue<Token> buffer = new LinkedList<>();
+	// parsing a program for instance): a ring of the tokens read ahead,
+	// buffered of them starting at head
+	private final Token[] buffer = new Token[LOOKAHEAD];
+	private int head;
+	private int buffered;
 
 	private final Tokeniser tokeniser;
 
+	// tokens of the whole file when parsing from a TokenBuffer, null otherwise
+	private final TokenBuffer tokens;
+
+	// number of tokens consumed so far, minus one
+	private int index = -1;
+
+	private final Diagnostics diagnostics;
+
+	// false to only check the syntax, without allocating any AST node
+	private boolean buildAst = true;
+
+	/*
+	 * Parsing errors are reported to the same diagnostics as the lexing errors
+	 * of tokeniser.
+	 */
 	public Parser(Tokeniser tokeniser) {
 		this.tokeniser = tokeniser;
+		this.tokens = null;
+		this.diagnostics = tokeniser.getDiagnostics();
+	}
+
+	public Parser(TokenBuffer tokens) {
+		this(tokens, new Diagnostics());
+	}
+
+	public Parser(TokenBuffer tokens, Diagnostics diagnostics) {
+		this.tokeniser = null;
+		this.tokens = tokens;
+		this.diagnostics = diagnostics;
+	}
+
+	public Diagnostics getDiagnostics() {
+		return diagnostics;
+	}
+
+	/*
+	 * With buildAst false, parse() walks the same grammar and reports the
+	 * same errors but builds no AST and returns null.
+	 */
+	public void setBuildAst(boolean buildAst) {
+		this.buildAst = buildAst;
+	}
+
+	boolean getBuildAst() {
+		return buildAst;
 	}
 
 	public Program parse() {
@@ -53,85 +151,167 @@ public class Parser {
 	}
 
 	private int error = 0;
-	private Token lastErrorToken;
+	private int lastErrorIndex = -1;
 
 	private void error(TokenClass... expected) {
 
-		if (lastErrorToken == token) {
+		if (lastErrorIndex == index) {
 			// skip this error, same token causing trouble
 			return;
 		}
 
-		StringBuilder sb = new StringBuilder();
-		String sep = "";
-		for (TokenClass e : expected) {
-			sb.append(sep);
-			sb.append(e);
-			sep = "|";
-		}
-		System.out.println("Parsing error: expected (" + sb + ") found (" + token + ") at " + token.position);
+		Token found = tokens == null ? token : tokens.get(at(index));
+		diagnostics.error(Code.UNEXPECTED_TOKEN, found.position, expected, found);
 
 		error++;
-		lastErrorToken = token;
+		lastErrorIndex = index;
+	}
+
+	/*
+	 * Index in the token buffer of the current token.
+	 */
+	int position() {
+		return index;
+	}
+
+	/*
+	 * Makes the i^th token of the token buffer the current one.
+	 */
+	void seek(int i) {
+		index = i - 1;
+		nextToken();
+	}
+
+	/*
+	 * Maps a position in the token stream to an index in the token buffer. The
+	 * stream keeps returning the EOF token once it is exhausted.
+	 */
+	private int at(int i) {
+		return Math.min(i, tokens.size() - 1);
 	}
 
 	/*
 	 * Look ahead the i^th element from the stream of token. i should be >= 1
+	 * and at most LOOKAHEAD.
 	 */
-	private Token lookAhead(int i) {
+	private TokenClass lookAhead(int i) {
+		if (tokens != null)
+			return tokens.tokenClass(at(index + i));
+
+		assert i >= 1 && i <= LOOKAHEAD;
 		// ensures the buffer has the element we want to look ahead
-		while (buffer.size() < i)
-			buffer.add(tokeniser.nextToken());
-		assert buffer.size() >= i;
-
-		int cnt = 1;
-		for (Token t : buffer) {
-			if (cnt == i)
-				return t;
-			cnt++;
+		while (buffered < i) {
+			buffer[(head + buffered) & (LOOKAHEAD - 1)] = tokeniser.nextToken();
+			buffered++;
 		}
-
-		assert false; // should never reach this
-		return null;
+		return buffer[(head + i - 1) & (LOOKAHEAD - 1)].tokenClass;
 	}
 
 	/*
 	 * Consumes the next token from the tokeniser or the buffer if not empty.
 	 */
 	private void nextToken() {
-		if (!buffer.isEmpty())
-			token = buffer.remove();
-		else
+		index++;
+		if (tokens != null) {
+			tokenClass = tokens.tokenClass(at(index));
+			return;
+		}
+		if (buffered > 0) {
+			token = buffer[head];
+			buffer[head] = null;
+			head = (head + 1) & (LOOKAHEAD - 1);
+			buffered--;
+		} else {
 			token = tokeniser.nextToken();
+		}
+		tokenClass = token.tokenClass;
+	}
+
+	/*
+	 * Returns the data of the current token.
+	 */
+	private String data() {
+		if (tokens != null)
+			return tokens.data(at(index));
+		return token.data;
+	}
+
+	/*
+	 * Returns the value of the current token, a NUMBER.
+	 */
+	private int intValue() {
+		if (tokens != null)
+			return tokens.intValue(at(index));
+		return Integer.parseInt(token.data);
+	}
+
+	/*
+	 * Returns the value of the current token, a CHARACTER.
+	 */
+	private char charValue() {
+		if (tokens != null)
+			return tokens.charValue(at(index));
+		return token.data.charAt(0);
+	}
+
+	/*
+	 * Returns the NameTable id of the current token, -1 if it is not a name.
+	 */
+	private int id() {
+		if (tokens != null)
+			return tokens.id(at(index));
+		return token.id;
 	}
 
 	/*
 	 * If the current token is equals to the expected one, then skip it,
-	 * otherwise report an error. Returns the expected token or null if an error
-	 * occurred.
+	 * otherwise report an error. Returns false if an error occurred.
 	 */
-	private Token expect(TokenClass... expected) {
-		for (TokenClass e : expected) {
-			if (e == token.tokenClass) {
-				Token cur = token;
-				nextToken();
-				return cur;
-			}
+	private boolean expect(TokenClass expected) {
+		if (expected == tokenClass) {
+			nextToken();
+			return true;
 		}
 
 		error(expected);
-		return null;
+		return false;
+	}
+
+	/*
+	 * Returns true if the current token is equals to the expected one.
+	 */
+	private boolean accept(TokenClass expected) {
+		return expected == tokenClass;
+	}
+
+	/*
+	 * Returns true if the current token is in the set.
+	 */
+	private boolean accept(long set) {
+		return contains(set, tokenClass);
+	}
+
+	private static long set(TokenClass... classes) {
+		long set = 0;
+		for (TokenClass c : classes)
+			set |= 1L << c.ordinal();
+		return set;
+	}
+
+	private static boolean contains(long set, TokenClass tokenClass) {
+		return (set & (1L << tokenClass.ordinal())) != 0;
 	}
 
 	/*
-	 * Returns true if the current token is equals to any of the expected ones.
+	 * A new list for AST children, or null when not building the AST.
 	 */
+	private <T> List<T> list() {
+		return buildAst ? new ArrayList<T>() : null;
+	}
 
-	private boolean accept(TokenClass... expected) {
-		boolean result = false;
-		for (TokenClass e : expected)
-			result |= (e == token.tokenClass);
-		return result;
+	private static <T> void add(List<T> list, T element) {
+		if (list != null)
+			list.add(element);
 	}
 
 	private Program parseProgram() {
@@ -140,19 +320,19 @@ public class Parser {
 		List<Procedure> procs = parseProcrep();
 		Procedure main = parseMain();
 		expect(TokenClass.EOF);
+		if (!buildAst)
+			return null;
 		return new Program(varDecls, procs, main);
 	}
 
 	// includes are ignored, so does not need to return an AST node
 	private void parseIncludes() {
-		if (accept(TokenClass.INCLUDE)) {
+		while (accept(TokenClass.INCLUDE)) {
 			nextToken();
 			expect(TokenClass.STRING_LITERAL);
-			parseIncludes();
-		} else if (accept(TokenClass.INT, TokenClass.CHAR, TokenClass.VOID)) {
-		} else {
-			error(TokenClass.INCLUDE, TokenClass.INT, TokenClass.CHAR, TokenClass.VOID);
 		}
+		if (!accept(TYPES))
+			error(TokenClass.INCLUDE, TokenClass.INT, TokenClass.CHAR, TokenClass.VOID);
 	}
 
 	private Procedure parseMain() {
@@ -161,53 +341,86 @@ public class Parser {
 		expect(TokenClass.LPAR);
 		expect(TokenClass.RPAR);
 		Block block = parseBody();
+		if (!buildAst)
+			return null;
 		return new Procedure(Type.VOID, "main", new ArrayList<VarDecl>(), block);
 	}
 
-	private List<Procedure> parseProcrep() {
-		List<Procedure> procs = new ArrayList<Procedure>();
-		if (accept(TokenClass.INT, TokenClass.CHAR)) {
-			procs.add(parseProc());
-			procs.addAll(parseProcrep());
-		} else if (accept(TokenClass.VOID)) {
-			Token lookahead = lookAhead(1);
-			if (lookahead.tokenClass == TokenClass.IDENTIFIER) {
-				procs.add(parseProc());
-				procs.addAll(parseProcrep());
-			} else if (lookahead.tokenClass == TokenClass.MAIN) {
+	/*
+	 * The repetitions below are parsed with a loop rather than by recursing
+	 * once per element, so that long lists take neither quadratic copying nor
+	 * stack. Every element consumes at least one token, and the loop stops
+	 * where the recursion used to: at the follow set or at the first error.
+	 */
+	List<Procedure> parseProcrep() {
+		List<Procedure> procs = procedureList();
+		while (true) {
+			if (accept(RETURN_TYPES)) {
+				add(procs, parseProc());
+			} else if (accept(TokenClass.VOID)) {
+				TokenClass lookahead = lookAhead(1);
+				if (lookahead == TokenClass.IDENTIFIER) {
+					add(procs, parseProc());
+				} else if (lookahead == TokenClass.MAIN) {
+					break;
+				} else {
+					nextToken();
+					error(TokenClass.IDENTIFIER, TokenClass.MAIN);
+					break;
+				}
 			} else {
-				nextToken();
-				error(TokenClass.IDENTIFIER, TokenClass.MAIN);
+				error(TokenClass.INT, TokenClass.CHAR, TokenClass.VOID);
+				break;
 			}
-		} else {
-			error(TokenClass.INT, TokenClass.CHAR, TokenClass.VOID);
 		}
 		return procs;
 	}
 
+	/*
+	 * The list parseProcrep() collects the procedures in, or null if they are
+	 * not to be kept, as when a subclass stores each one as it is parsed.
+	 */
+	List<Procedure> procedureList() {
+		return list();
+	}
+
 	private List<Stmt> parseStmtlist() {
-		List<Stmt> stmts = new ArrayList<Stmt>();
-		if (accept(TokenClass.LBRA, TokenClass.WHILE, TokenClass.IF, TokenClass.IDENTIFIER, TokenClass.RETURN,
-				TokenClass.PRINT, TokenClass.READ)) {
-			stmts.add(parseStmt());
-			stmts.addAll(parseStmtlist());
-		} else if (accept(TokenClass.RBRA)) {
-		} else {
+		List<Stmt> stmts = list();
+		while (accept(FIRST_STMT))
+			add(stmts, parseStmt());
+		if (!accept(TokenClass.RBRA))
 			error(TokenClass.LBRA, TokenClass.WHILE, TokenClass.IF, TokenClass.IDENTIFIER, TokenClass.RETURN,
 					TokenClass.PRINT, TokenClass.READ, TokenClass.RBRA);
-		}
 		return stmts;
 	}
 
-	private Procedure parseProc() {
+	/*
+	 * Parses one top-level declaration, a global, a procedure or main, and
+	 * returns its VarDecl or Procedure. Used to parse part of a program again.
+	 */
+	Tree parseDeclaration() {
+		if (lookAhead(1) == TokenClass.MAIN)
+			return parseMain();
+		if (lookAhead(2) == TokenClass.SEMICOLON) {
+			VarDecl varDecl = parseTypeident();
+			expect(TokenClass.SEMICOLON);
+			return varDecl;
+		}
+		return parseProc();
+	}
+
+	Procedure parseProc() {
 		Type type = parseType();
-		String name = token.data;
+		String name = data();
+		int id = id();
 		expect(TokenClass.IDENTIFIER);
 		expect(TokenClass.LPAR);
 		List<VarDecl> varDecls = parseParams();
 		expect(TokenClass.RPAR);
 		Block block = parseBody();
-		return new Procedure(type, name, varDecls, block);
+		if (!buildAst)
+			return null;
+		return new Procedure(type, name, id, varDecls, block);
 	}
 
 	private Type parseType() {
@@ -227,9 +440,9 @@ public class Parser {
 	}
 
 	private List<VarDecl> parseParams() {
-		List<VarDecl> varDecls = new ArrayList<VarDecl>();
-		if (accept(TokenClass.INT, TokenClass.CHAR, TokenClass.VOID)) {
-			varDecls.addAll(parseParamlist());
+		List<VarDecl> varDecls = list();
+		if (accept(TYPES)) {
+			parseParamlist(varDecls);
 		} else if (accept(TokenClass.RPAR)) {
 		} else {
 			error(TokenClass.INT, TokenClass.CHAR, TokenClass.VOID, TokenClass.RPAR);
@@ -237,24 +450,18 @@ public class Parser {
 		return varDecls;
 	}
 
-	private List<VarDecl> parseParamlist() {
-		List<VarDecl> varDecls = new ArrayList<VarDecl>();
-		varDecls.add(parseTypeident());
-		varDecls.addAll(parseTypeidentrep());
-		return varDecls;
+	private void parseParamlist(List<VarDecl> varDecls) {
+		add(varDecls, parseTypeident());
+		parseTypeidentrep(varDecls);
 	}
 
-	private List<VarDecl> parseTypeidentrep() {
-		List<VarDecl> varDecls = new ArrayList<VarDecl>();
-		if (accept(TokenClass.COMMA)) {
+	private void parseTypeidentrep(List<VarDecl> varDecls) {
+		while (accept(TokenClass.COMMA)) {
 			nextToken();
-			varDecls.add(parseTypeident());
-			varDecls.addAll(parseTypeidentrep());
-		} else if (accept(TokenClass.RPAR)) {
-		} else {
-			error(TokenClass.COMMA, TokenClass.RPAR);
+			add(varDecls, parseTypeident());
 		}
-		return varDecls;
+		if (!accept(TokenClass.RPAR))
+			error(TokenClass.COMMA, TokenClass.RPAR);
 	}
 
 	private Block parseBody() {
@@ -262,6 +469,8 @@ public class Parser {
 		List<VarDecl> varDecls = parseVardecls();
 		List<Stmt> stmts = parseStmtlist();
 		expect(TokenClass.RBRA);
+		if (!buildAst)
+			return null;
 		return new Block(varDecls, stmts);
 	}
 
@@ -269,9 +478,9 @@ public class Parser {
 		VarDecl varDecl = null;
 		Type type = parseType();
 		if (accept(TokenClass.IDENTIFIER)) {
-			Var var = new Var(token.data);
+			if (buildAst)
+				varDecl = new VarDecl(type, new Var(data(), id()));
 			nextToken();
-			varDecl = new VarDecl(type, var);
 		} else {
 			error(TokenClass.IDENTIFIER);
 		}
@@ -283,8 +492,7 @@ public class Parser {
 		if (accept(TokenClass.ELSE)) {
 			nextToken();
 			stmt = parseStmt();
-		} else if (accept(TokenClass.LBRA, TokenClass.RBRA, TokenClass.WHILE, TokenClass.IF, TokenClass.IDENTIFIER,
-				TokenClass.RETURN, TokenClass.PRINT, TokenClass.READ)) {
+		} else if (accept(FOLLOW_STMT)) {
 		} else {
 			error(TokenClass.ELSE, TokenClass.LBRA, TokenClass.RBRA, TokenClass.WHILE, TokenClass.IF,
 					TokenClass.IDENTIFIER, TokenClass.RETURN, TokenClass.PRINT, TokenClass.READ);
@@ -292,67 +500,50 @@ public class Parser {
 		return stmt;
 	}
 
+	/*
+	 * lexp and term by precedence climbing: operands are parsed in a loop and
+	 * folded into left-associative BinOps, and only an operator that binds
+	 * tighter than the one before it starts a nested call. The nesting is
+	 * therefore bounded by the number of precedence levels (and parentheses),
+	 * not by the length of the expression. Comparisons have power 0, so they
+	 * end an lexp and are left to parseExp.
+	 */
 	private Expr parseLexp() {
-		Expr lhs = parseTerm();
-		Op op = null;
-		Expr rhs = null;
-		if (accept(TokenClass.PLUS)) {
-			op = Op.ADD;
-			nextToken();
-			rhs = parseLexp();
-			return new BinOp(lhs, op, rhs);
-		} else if (accept(TokenClass.MINUS)) {
-			op = Op.SUB;
-			nextToken();
-			rhs = parseLexp();
-			return new BinOp(lhs, op, rhs);
-		} else if (accept(TokenClass.GT, TokenClass.LT, TokenClass.GE, TokenClass.LE, TokenClass.NE, TokenClass.EQ,
-				TokenClass.SEMICOLON, TokenClass.RPAR)) {
-		} else {
-			error(TokenClass.PLUS, TokenClass.MINUS, TokenClass.GT, TokenClass.LT, TokenClass.GE, TokenClass.LE,
-					TokenClass.NE, TokenClass.EQ, TokenClass.SEMICOLON, TokenClass.RPAR);
-		}
-		return lhs;
+		return parseBinary(ADDITIVE);
 	}
 
-	private Expr parseTerm() {
+	private Expr parseBinary(int minPower) {
 		Expr lhs = parseFactor();
-		Op op = null;
-		Expr rhs = null;
-		if (accept(TokenClass.DIV)) {
-			op = Op.DIV;
-			nextToken();
-			rhs = parseTerm();
-			return new BinOp(lhs, op, rhs);
-		} else if (accept(TokenClass.TIMES)) {
-			op = Op.MUL;
-			nextToken();
-			rhs = parseTerm();
-			return new BinOp(lhs, op, rhs);
-		} else if (accept(TokenClass.MOD)) {
-			op = Op.MOD;
+		while (true) {
+			Op op = OPERATORS[tokenClass.ordinal()];
+			if (op == null) {
+				if (!accept(FOLLOW_LEXP))
+					error(TokenClass.DIV, TokenClass.TIMES, TokenClass.MOD, TokenClass.PLUS, TokenClass.MINUS,
+							TokenClass.GT, TokenClass.LT, TokenClass.GE, TokenClass.LE, TokenClass.NE, TokenClass.EQ,
+							TokenClass.SEMICOLON, TokenClass.RPAR);
+				return lhs;
+			}
+			int power = POWERS[op.ordinal()];
+			if (power < minPower)
+				return lhs;
 			nextToken();
-			rhs = parseTerm();
-			return new BinOp(lhs, op, rhs);
-		} else if (accept(TokenClass.PLUS, TokenClass.MINUS, TokenClass.GT, TokenClass.LT, TokenClass.GE, TokenClass.LE,
-				TokenClass.NE, TokenClass.EQ, TokenClass.SEMICOLON, TokenClass.RPAR)) {
-		} else {
-			error(TokenClass.DIV, TokenClass.TIMES, TokenClass.MOD, TokenClass.PLUS, TokenClass.MINUS, TokenClass.GT,
-					TokenClass.LT, TokenClass.GE, TokenClass.LE, TokenClass.NE, TokenClass.EQ, TokenClass.SEMICOLON,
-					TokenClass.RPAR);
+			Expr rhs = parseBinary(power + 1);
+			if (buildAst)
+				lhs = new BinOp(lhs, op, rhs);
 		}
-		return lhs;
 	}
 
 	private FunCallExpr parseFuncall() {
 		FunCallExpr funcallexpr = null;
 		if (accept(TokenClass.IDENTIFIER)) {
-			String name = token.data;
+			String name = data();
+			int id = id();
 			nextToken();
 			expect(TokenClass.LPAR);
 			List<Expr> exprs = parseArglist();
 			expect(TokenClass.RPAR);
-			funcallexpr = new FunCallExpr(name, exprs);
+			if (buildAst)
+				funcallexpr = new FunCallExpr(name, id, exprs);
 		} else {
 			error(TokenClass.IDENTIFIER);
 		}
@@ -360,11 +551,12 @@ public class Parser {
 	}
 
 	private List<Expr> parseArglist() {
-		List<Expr> exprs = new ArrayList<Expr>();
+		List<Expr> exprs = list();
 		if (accept(TokenClass.IDENTIFIER)) {
-			exprs.add(new Var(token.data));
+			if (buildAst)
+				exprs.add(new Var(data(), id()));
 			nextToken();
-			exprs.addAll(parseArgrep());
+			parseArgrep(exprs);
 		} else if (accept(TokenClass.RPAR)) {
 		} else {
 			error(TokenClass.IDENTIFIER, TokenClass.RPAR);
@@ -372,66 +564,37 @@ public class Parser {
 		return exprs;
 	}
 
-	private List<Expr> parseArgrep() {
-		List<Expr> exprs = new ArrayList<Expr>();
-		if (accept(TokenClass.COMMA)) {
+	private void parseArgrep(List<Expr> exprs) {
+		while (accept(TokenClass.COMMA)) {
 			nextToken();
-			if (accept(TokenClass.IDENTIFIER)) {
-				exprs.add(new Var(token.data));
-				nextToken();
-				exprs.addAll(parseArgrep());
-			} else {
+			if (!accept(TokenClass.IDENTIFIER)) {
 				error(TokenClass.IDENTIFIER);
+				return;
 			}
-		} else if (accept(TokenClass.RPAR)) {
-		} else {
-			error(TokenClass.COMMA, TokenClass.RPAR);
+			if (buildAst)
+				exprs.add(new Var(data(), id()));
+			nextToken();
 		}
-		return exprs;
+		if (!accept(TokenClass.RPAR))
+			error(TokenClass.COMMA, TokenClass.RPAR);
 	}
 
 	private Expr parseExp() {
-		Expr expr = null;
 		Expr lhs = parseLexp();
-		Op op = null;
-		Expr rhs = null;
-		if (accept(TokenClass.GT)) {
-			op = Op.GT;
-			nextToken();
-			rhs = parseLexp();
-			expr = new BinOp(lhs, op, rhs);
-		} else if (accept(TokenClass.LT)) {
-			op = Op.LT;
-			nextToken();
-			rhs = parseLexp();
-			expr = new BinOp(lhs, op, rhs);
-		} else if (accept(TokenClass.GE)) {
-			op = Op.GE;
-			nextToken();
-			rhs = parseLexp();
-			expr = new BinOp(lhs, op, rhs);
-		} else if (accept(TokenClass.LE)) {
-			op = Op.LE;
-			nextToken();
-			rhs = parseLexp();
-			expr = new BinOp(lhs, op, rhs);
-		} else if (accept(TokenClass.NE)) {
-			op = Op.NE;
-			nextToken();
-			rhs = parseLexp();
-			expr = new BinOp(lhs, op, rhs);
-		} else if (accept(TokenClass.EQ)) {
-			op = Op.EQ;
+		Op op = OPERATORS[tokenClass.ordinal()];
+		if (op != null && POWERS[op.ordinal()] == COMPARISON) {
 			nextToken();
-			rhs = parseLexp();
-			expr = new BinOp(lhs, op, rhs);
+			Expr rhs = parseLexp();
+			if (!buildAst)
+				return null;
+			return new BinOp(lhs, op, rhs);
 		} else if (accept(TokenClass.RPAR)) {
-			expr = lhs;
+			return lhs;
 		} else {
 			error(TokenClass.GT, TokenClass.LT, TokenClass.GE, TokenClass.LE, TokenClass.NE, TokenClass.EQ,
 					TokenClass.RPAR);
+			return null;
 		}
-		return expr;
 	}
 
 	private Stmt parseStmt() {
@@ -441,13 +604,16 @@ public class Parser {
 			List<VarDecl> varDecls = parseVardecls();
 			List<Stmt> stmts = parseStmtlist();
 			expect(TokenClass.RBRA);
-			stmt = new Block(varDecls, stmts);
+			if (buildAst)
+				stmt = new Block(varDecls, stmts);
 		} else if (accept(TokenClass.WHILE)) {
 			nextToken();
 			expect(TokenClass.LPAR);
 			Expr expr = parseExp();
 			expect(TokenClass.RPAR);
-			stmt = new While(expr, parseStmt());
+			Stmt body = parseStmt();
+			if (buildAst)
+				stmt = new While(expr, body);
 		} else if (accept(TokenClass.IF)) {
 			nextToken();
 			expect(TokenClass.LPAR);
@@ -455,58 +621,68 @@ public class Parser {
 			expect(TokenClass.RPAR);
 			Stmt stmt1 = parseStmt();
 			Stmt stmt2 = parseElsestmt();
-			stmt = new If(expr, stmt1, stmt2);
+			if (buildAst)
+				stmt = new If(expr, stmt1, stmt2);
 		} else if (accept(TokenClass.RETURN)) {
 			nextToken();
 			if (accept(TokenClass.SEMICOLON)) {
 				nextToken();
-				stmt = new Return(null);
+				if (buildAst)
+					stmt = new Return(null);
 			} else {
 				Expr expr = parseLexp();
 				expect(TokenClass.SEMICOLON);
-				stmt = new Return(expr);
+				if (buildAst)
+					stmt = new Return(expr);
 			}
 		} else if (accept(TokenClass.PRINT)) {
-			String name = token.data;
+			String name = data();
+			int id = id();
 			nextToken();
 			expect(TokenClass.LPAR);
-			List<Expr> exprs = new ArrayList<Expr>();
+			List<Expr> exprs = list();
 			if (accept(TokenClass.STRING_LITERAL)) {
-				exprs.add(new StrLiteral(token.data));
+				if (buildAst)
+					exprs.add(new StrLiteral(data()));
 				nextToken();
 				expect(TokenClass.RPAR);
 				expect(TokenClass.SEMICOLON);
-				stmt = new FunCallStmt(name, exprs);
-			} else if (accept(TokenClass.LPAR, TokenClass.MINUS, TokenClass.IDENTIFIER, TokenClass.NUMBER,
-					TokenClass.CHARACTER, TokenClass.READ)) {
-				exprs.add(parseLexp());
+				if (buildAst)
+					stmt = new FunCallStmt(name, id, exprs);
+			} else if (accept(FIRST_LEXP)) {
+				add(exprs, parseLexp());
 				expect(TokenClass.RPAR);
 				expect(TokenClass.SEMICOLON);
-				stmt = new FunCallStmt(name, exprs);
+				if (buildAst)
+					stmt = new FunCallStmt(name, id, exprs);
 			} else {
 				error(TokenClass.STRING_LITERAL, TokenClass.LPAR, TokenClass.MINUS, TokenClass.IDENTIFIER,
 						TokenClass.NUMBER, TokenClass.CHARACTER, TokenClass.READ);
 			}
 		} else if (accept(TokenClass.READ)) {
-			String name = token.data;
+			String name = data();
+			int id = id();
 			nextToken();
 			expect(TokenClass.LPAR);
 			expect(TokenClass.RPAR);
 			expect(TokenClass.SEMICOLON);
-			stmt = new FunCallStmt(name, new ArrayList<Expr>());
+			if (buildAst)
+				stmt = new FunCallStmt(name, id, new ArrayList<Expr>());
 		} else if (accept(TokenClass.IDENTIFIER)) {
-			Var var = new Var(token.data);
-			Token lookahead = lookAhead(1);
-			if (lookahead.tokenClass == TokenClass.ASSIGN) {
+			Var var = buildAst ? new Var(data(), id()) : null;
+			TokenClass lookahead = lookAhead(1);
+			if (lookahead == TokenClass.ASSIGN) {
 				nextToken();
 				nextToken();
 				Expr expr = parseLexp();
 				expect(TokenClass.SEMICOLON);
-				stmt = new Assign(var, expr);
+				if (buildAst)
+					stmt = new Assign(var, expr);
 			} else {
 				FunCallExpr funCallExpr = parseFuncall();
 				expect(TokenClass.SEMICOLON);
-				stmt = new FunCallStmt(funCallExpr.name, funCallExpr.exprs);
+				if (buildAst)
+					stmt = new FunCallStmt(funCallExpr.name, funCallExpr.id, funCallExpr.exprs);
 			}
 		} else {
 			error(TokenClass.LBRA, TokenClass.WHILE, TokenClass.IF, TokenClass.RETURN, TokenClass.PRINT,
@@ -524,44 +700,44 @@ public class Parser {
 		} else if (accept(TokenClass.MINUS)) {
 			nextToken();
 			if (accept(TokenClass.IDENTIFIER)) {
-				Var var = new Var(token.data);
+				if (buildAst)
+					expr = new BinOp(new IntLiteral(0), Op.SUB, new Var(data(), id()));
 				nextToken();
-				expr = new BinOp(new IntLiteral(0), Op.SUB, var);
 			} else if (accept(TokenClass.NUMBER)) {
-				IntLiteral il = new IntLiteral(Integer.valueOf(token.data));
+				// parsed even when not building the AST, out of range numbers
+				// fail the same way
+				int value = intValue();
+				if (buildAst)
+					expr = new BinOp(new IntLiteral(0), Op.SUB, new IntLiteral(value));
 				nextToken();
-				expr = new BinOp(new IntLiteral(0), Op.SUB, il);
 			} else {
 				error(TokenClass.IDENTIFIER, TokenClass.NUMBER);
 			}
 		} else if (accept(TokenClass.NUMBER)) {
-			IntLiteral il = new IntLiteral(Integer.valueOf(token.data));
+			int value = intValue();
+			if (buildAst)
+				expr = new IntLiteral(value);
 			nextToken();
-			expr = il;
 		} else if (accept(TokenClass.CHARACTER)) {
-			ChrLiteral cl = new ChrLiteral(token.data.charAt(0));
+			if (buildAst)
+				expr = new ChrLiteral(charValue());
 			nextToken();
-			expr = cl;
 		} else if (accept(TokenClass.READ)) {
-			String name = token.data;
+			String name = data();
+			int id = id();
 			nextToken();
 			expect(TokenClass.LPAR);
 			expect(TokenClass.RPAR);
-			expr = new FunCallExpr(name, new ArrayList<Expr>());
+			if (buildAst)
+				expr = new FunCallExpr(name, id, new ArrayList<Expr>());
 		} else if (accept(TokenClass.IDENTIFIER)) {
-			Token lookahead = lookAhead(1);
-			if (lookahead.tokenClass == TokenClass.LPAR) {
+			TokenClass lookahead = lookAhead(1);
+			if (lookahead == TokenClass.LPAR) {
 				expr = parseFuncall();
-			} else if (lookahead.tokenClass == TokenClass.DIV || lookahead.tokenClass == TokenClass.TIMES
-					|| lookahead.tokenClass == TokenClass.MOD || lookahead.tokenClass == TokenClass.PLUS
-					|| lookahead.tokenClass == TokenClass.MINUS || lookahead.tokenClass == TokenClass.GT
-					|| lookahead.tokenClass == TokenClass.LT || lookahead.tokenClass == TokenClass.GE
-					|| lookahead.tokenClass == TokenClass.LE || lookahead.tokenClass == TokenClass.NE
-					|| lookahead.tokenClass == TokenClass.EQ || lookahead.tokenClass == TokenClass.SEMICOLON
-					|| lookahead.tokenClass == TokenClass.RPAR) {
-				Var var = new Var(token.data);
+			} else if (contains(FOLLOW_FACTOR, lookahead)) {
+				if (buildAst)
+					expr = new Var(data(), id());
 				nextToken();
-				expr = var;
 			} else {
 				nextToken();
 				error(TokenClass.LPAR, TokenClass.DIV, TokenClass.TIMES, TokenClass.MOD, TokenClass.PLUS,
@@ -576,31 +752,30 @@ public class Parser {
 	}
 
 	private List<VarDecl> parseVardecls() {
-		List<VarDecl> varDecls = new ArrayList<VarDecl>();
-		if (accept(TokenClass.INT, TokenClass.CHAR, TokenClass.VOID)) {
-			Token lookahead1 = lookAhead(1);
-			if (lookahead1.tokenClass == TokenClass.IDENTIFIER) {
-				Token lookahead2 = lookAhead(2);
-				if (lookahead2.tokenClass == TokenClass.SEMICOLON) {
-					varDecls.add(parseTypeident());
+		List<VarDecl> varDecls = list();
+		while (accept(TYPES)) {
+			TokenClass lookahead1 = lookAhead(1);
+			if (lookahead1 == TokenClass.IDENTIFIER) {
+				TokenClass lookahead2 = lookAhead(2);
+				if (lookahead2 == TokenClass.SEMICOLON) {
+					add(varDecls, parseTypeident());
 					expect(TokenClass.SEMICOLON);
-					varDecls.addAll(parseVardecls());
-				} else if (lookahead2.tokenClass == TokenClass.LPAR) {
-				} else {
+					continue;
+				}
+				if (lookahead2 != TokenClass.LPAR) {
 					nextToken();
 					error(TokenClass.SEMICOLON, TokenClass.LPAR);
 				}
-			} else if (lookahead1.tokenClass == TokenClass.MAIN) {
-			} else {
+			} else if (lookahead1 != TokenClass.MAIN) {
 				nextToken();
 				error(TokenClass.IDENTIFIER);
 			}
-		} else if (accept(TokenClass.RBRA, TokenClass.LBRA, TokenClass.WHILE, TokenClass.IF, TokenClass.IDENTIFIER,
-				TokenClass.RETURN, TokenClass.PRINT, TokenClass.READ)) {
-		} else {
+			// a procedure or main follows
+			return varDecls;
+		}
+		if (!accept(FOLLOW_VARDECLS))
 			error(TokenClass.INT, TokenClass.CHAR, TokenClass.VOID, TokenClass.RBRA, TokenClass.LBRA, TokenClass.WHILE,
 					TokenClass.IF, TokenClass.IDENTIFIER, TokenClass.RETURN, TokenClass.PRINT, TokenClass.READ);
-		}
 		return varDecls;
 	}
 }
@@ -1,14 +1,23 @@
 package sem;
 
+import util.Diagnostic.Code;
+import util.Diagnostics;
+
 /**
  * 
  * A base class providing basic error accumulation.
  */
 public abstract class BaseSemanticVisitor<T> implements SemanticVisitor<T> {
 	private int errors;
+	private final Diagnostics diagnostics;
 
 	public BaseSemanticVisitor() {
+		this(new Diagnostics());
+	}
+
+	public BaseSemanticVisitor(Diagnostics diagnostics) {
 		errors = 0;
+		this.diagnostics = diagnostics;
 	}
 
 	@Override
@@ -16,8 +25,12 @@ public abstract class BaseSemanticVisitor<T> implements SemanticVisitor<T> {
 		return errors;
 	}
 
-	protected void error(String message) {
-		System.err.println("semantic error: " + message);
+	public Diagnostics getDiagnostics() {
+		return diagnostics;
+	}
+
+	protected void error(Code code, Object... args) {
+		diagnostics.error(code, null, args);
 		errors++;
 	}
 }
@@ -0,0 +1,385 @@
+package sem;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ast.ASTVisitor;
+import ast.Assign;
+import ast.BinOp;
+import ast.Block;
+import ast.ChrLiteral;
+import ast.Expr;
+import ast.FunCallExpr;
+import ast.FunCallStmt;
+import ast.If;
+import ast.IntLiteral;
+import ast.Intrinsic;
+import ast.Procedure;
+import ast.Program;
+import ast.Return;
+import ast.Stmt;
+import ast.StrLiteral;
+import ast.Var;
+import ast.VarDecl;
+import ast.While;
+
+/**
+ * The calls between the procedures of an analysed program and the globals
+ * each of them uses, read from the procedures and declarations the calls and
+ * variables were resolved to. Procedures are numbered in source order, main
+ * last, and globals in declaration order. The procedures main calls, directly
+ * or not, are reachable, and the globals they use are used; prune returns the
+ * program without the others, which can then not make any difference to what
+ * it does.
+ */
+public final class CallGraph {
+
+	private final Program program;
+	// the procedures, main last
+	private final List<Procedure> procs;
+	private final Map<Procedure, Integer> procIndex = new IdentityHashMap<Procedure, Integer>();
+	private final Map<VarDecl, Integer> globalIndex = new IdentityHashMap<VarDecl, Integer>();
+	// by procedure: the procedures it calls and the globals it uses, each
+	// once and in the order of their first use, and the builtins it calls
+	private final int[][] callees;
+	private final int[][] uses;
+	private final List<EnumSet<Intrinsic>> builtins;
+	private final int[][] callers;
+	private final BitSet reachable = new BitSet();
+	private final BitSet used = new BitSet();
+
+	public CallGraph(Program program) {
+		this.program = program;
+		procs = new ArrayList<Procedure>(program.procs.size() + 1);
+		procs.addAll(program.procs);
+		procs.add(program.main);
+		for (int k = 0; k < procs.size(); k++)
+			procIndex.put(procs.get(k), k);
+		for (int k = 0; k < program.varDecls.size(); k++)
+			globalIndex.put(program.varDecls.get(k), k);
+
+		int n = procs.size();
+		callees = new int[n][];
+		uses = new int[n][];
+		builtins = new ArrayList<EnumSet<Intrinsic>>(n);
+		Collector collector = new Collector();
+		int[] counts = new int[n];
+		for (int k = 0; k < n; k++) {
+			collector.collect(procs.get(k));
+			callees[k] = collector.calls.toArray();
+			uses[k] = collector.globals.toArray();
+			builtins.add(collector.intrinsics.clone());
+			for (int callee : callees[k])
+				counts[callee]++;
+		}
+		callers = new int[n][];
+		for (int k = 0; k < n; k++)
+			callers[k] = new int[counts[k]];
+		for (int k = 0; k < n; k++) {
+			for (int callee : callees[k])
+				callers[callee][callers[callee].length - counts[callee]--] = k;
+		}
+
+		// a worklist rather than recursion, as call chains can be long
+		int[] worklist = new int[n];
+		int size = 0;
+		reachable.set(n - 1);
+		worklist[size++] = n - 1;
+		while (size > 0) {
+			int k = worklist[--size];
+			for (int g : uses[k])
+				used.set(g);
+			for (int callee : callees[k]) {
+				if (!reachable.get(callee)) {
+					reachable.set(callee);
+					worklist[size++] = callee;
+				}
+			}
+		}
+	}
+
+	/*
+	 * The procedures of the program, main last.
+	 */
+	public List<Procedure> getProcedures() {
+		return Collections.unmodifiableList(procs);
+	}
+
+	public List<Procedure> callees(Procedure p) {
+		return procedures(callees[index(p)]);
+	}
+
+	public List<Procedure> callers(Procedure p) {
+		return procedures(callers[index(p)]);
+	}
+
+	/*
+	 * The globals the body of p uses.
+	 */
+	public List<VarDecl> globals(Procedure p) {
+		int[] indices = uses[index(p)];
+		List<VarDecl> globals = new ArrayList<VarDecl>(indices.length);
+		for (int g : indices)
+			globals.add(program.varDecls.get(g));
+		return globals;
+	}
+
+	public EnumSet<Intrinsic> intrinsics(Procedure p) {
+		return builtins.get(index(p)).clone();
+	}
+
+	public boolean isReachable(Procedure p) {
+		return reachable.get(index(p));
+	}
+
+	public boolean isUsed(VarDecl global) {
+		Integer g = globalIndex.get(global);
+		if (g == null)
+			throw new IllegalArgumentException(global.var.name + " is not a global of the program");
+		return used.get(g);
+	}
+
+	public int getReachableCount() {
+		return reachable.cardinality();
+	}
+
+	public int getUsedCount() {
+		return used.cardinality();
+	}
+
+	/*
+	 * Returns a program with the reachable procedures and the used globals of
+	 * this one, in the same order and sharing their nodes, or this one if
+	 * there is nothing to leave out.
+	 */
+	public Program prune() {
+		if (reachable.cardinality() == procs.size() && used.cardinality() == program.varDecls.size())
+			return program;
+		List<VarDecl> varDecls = new ArrayList<VarDecl>(used.cardinality());
+		for (int g = used.nextSetBit(0); g >= 0; g = used.nextSetBit(g + 1))
+			varDecls.add(program.varDecls.get(g));
+		List<Procedure> kept = new ArrayList<Procedure>(reachable.cardinality());
+		for (int k = reachable.nextSetBit(0); k < procs.size() - 1; k = reachable.nextSetBit(k + 1))
+			kept.add(procs.get(k));
+		return new Program(varDecls, kept, program.main);
+	}
+
+	/*
+	 * Prints one line per procedure, with what it calls and the globals it
+	 * uses, and then the globals no reachable procedure uses.
+	 */
+	public void print(PrintWriter writer) {
+		for (int k = 0; k < procs.size(); k++) {
+			writer.print(procs.get(k).name);
+			if (!reachable.get(k))
+				writer.print(" (unreachable)");
+			writer.print(" ->");
+			for (int callee : callees[k]) {
+				writer.print(' ');
+				writer.print(procs.get(callee).name);
+			}
+			for (Intrinsic in : builtins.get(k)) {
+				writer.print(' ');
+				writer.print(in.proc.name);
+			}
+			if (uses[k].length > 0) {
+				writer.print(" uses");
+				for (int g : uses[k]) {
+					writer.print(' ');
+					writer.print(program.varDecls.get(g).var.name);
+				}
+			}
+			writer.println();
+		}
+		writer.print("Unused globals:");
+		for (int g = 0; g < program.varDecls.size(); g++) {
+			if (!used.get(g)) {
+				writer.print(' ');
+				writer.print(program.varDecls.get(g).var.name);
+			}
+		}
+		writer.println();
+		writer.flush();
+	}
+
+	private int index(Procedure p) {
+		Integer k = procIndex.get(p);
+		if (k == null)
+			throw new IllegalArgumentException(p.name + " is not a procedure of the program");
+		return k;
+	}
+
+	private List<Procedure> procedures(int[] indices) {
+		List<Procedure> result = new ArrayList<Procedure>(indices.length);
+		for (int k : indices)
+			result.add(procs.get(k));
+		return result;
+	}
+
+	/*
+	 * Distinct small numbers in the order they were first added.
+	 */
+	private static class IndexList {
+		private final BitSet seen = new BitSet();
+		private int[] items = new int[8];
+		private int size;
+
+		void add(int i) {
+			if (seen.get(i))
+				return;
+			seen.set(i);
+			if (size == items.length)
+				items = Arrays.copyOf(items, size * 2);
+			items[size++] = i;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(items, size);
+		}
+
+		void clear() {
+			for (int k = 0; k < size; k++)
+				seen.clear(items[k]);
+			size = 0;
+		}
+	}
+
+	/*
+	 * Collects the calls and global uses of one procedure body at a time.
+	 */
+	private class Collector implements ASTVisitor<Void> {
+		final IndexList calls = new IndexList();
+		final IndexList globals = new IndexList();
+		final EnumSet<Intrinsic> intrinsics = EnumSet.noneOf(Intrinsic.class);
+
+		void collect(Procedure p) {
+			calls.clear();
+			globals.clear();
+			intrinsics.clear();
+			p.accept(this);
+		}
+
+		private void call(Procedure proc, List<Expr> exprs) {
+			if (proc != null) {
+				Integer k = procIndex.get(proc);
+				if (k != null) {
+					calls.add(k);
+				} else {
+					Intrinsic in = Intrinsic.of(proc);
+					if (in != null)
+						intrinsics.add(in);
+				}
+			}
+			for (Expr e : exprs)
+				e.accept(this);
+		}
+
+		@Override
+		public Void visitProgram(Program p) {
+			// the calls and global uses of the whole program
+			for (Procedure proc : p.procs)
+				proc.accept(this);
+			if (p.main != null)
+				p.main.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitVarDecl(VarDecl vd) {
+			return null;
+		}
+
+		@Override
+		public Void visitVar(Var v) {
+			if (v.varDecl != null) {
+				Integer g = globalIndex.get(v.varDecl);
+				if (g != null)
+					globals.add(g);
+			}
+			return null;
+		}
+
+		@Override
+		public Void visitProcedure(Procedure p) {
+			return p.block.accept(this);
+		}
+
+		@Override
+		public Void visitFunCallExpr(FunCallExpr f) {
+			call(f.proc, f.exprs);
+			return null;
+		}
+
+		@Override
+		public Void visitFunCallStmt(FunCallStmt f) {
+			call(f.proc, f.exprs);
+			return null;
+		}
+
+		@Override
+		public Void visitBlock(Block b) {
+			for (Stmt s : b.stmts)
+				s.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitBinOp(BinOp b) {
+			b.lhs.accept(this);
+			b.rhs.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitAssign(Assign a) {
+			a.var.accept(this);
+			a.expr.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitIf(If i) {
+			i.expr.accept(this);
+			i.stmt1.accept(this);
+			if (i.stmt2 != null)
+				i.stmt2.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitReturn(Return r) {
+			if (r.expr != null)
+				r.expr.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitWhile(While w) {
+			w.expr.accept(this);
+			w.stmt.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitStrLiteral(StrLiteral s) {
+			return null;
+		}
+
+		@Override
+		public Void visitIntLiteral(IntLiteral i) {
+			return null;
+		}
+
+		@Override
+		public Void visitChrLiteral(ChrLiteral c) {
+			return null;
+		}
+	}
+}
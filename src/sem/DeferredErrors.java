@@ -0,0 +1,38 @@
+package sem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import util.Diagnostic.Code;
+
+/**
+ * Errors held back to be reported later, in the order they were found, with
+ * their arguments.
+ */
+final class DeferredErrors {
+
+	private final List<Code> codes = new ArrayList<Code>();
+	private final List<Object[]> args = new ArrayList<Object[]>();
+
+	void add(Code code, Object... args) {
+		codes.add(code);
+		this.args.add(args);
+	}
+
+	int size() {
+		return codes.size();
+	}
+
+	Code code(int i) {
+		return codes.get(i);
+	}
+
+	Object[] args(int i) {
+		return args.get(i);
+	}
+
+	void clear() {
+		codes.clear();
+		args.clear();
+	}
+}
@@ -0,0 +1,68 @@
+package sem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ast.FunCallExpr;
+import ast.FunCallStmt;
+import ast.Procedure;
+import ast.Tree;
+import ast.Var;
+import ast.VarDecl;
+
+/**
+ * The uses of names a procedure body does not declare itself: each Var or call
+ * with the global VarDecl or the Procedure it resolved to, or null if it did
+ * not resolve to one.
+ */
+final class Dependencies {
+
+	private final List<Tree> uses = new ArrayList<Tree>();
+	private final List<Tree> targets = new ArrayList<Tree>();
+	private int[] ids = new int[16];
+
+	void add(Tree use, int id, Tree target) {
+		if (uses.size() == ids.length)
+			ids = Arrays.copyOf(ids, ids.length * 2);
+		ids[uses.size()] = id;
+		uses.add(use);
+		targets.add(target);
+	}
+
+	int size() {
+		return uses.size();
+	}
+
+	int id(int i) {
+		return ids[i];
+	}
+
+	boolean isVar(int i) {
+		return uses.get(i) instanceof Var;
+	}
+
+	Tree target(int i) {
+		return targets.get(i);
+	}
+
+	/*
+	 * Makes use i resolve to target instead, which must be a declaration of
+	 * the same kind.
+	 */
+	void relink(int i, Tree target) {
+		Tree use = uses.get(i);
+		Tree old = targets.get(i);
+		if (use instanceof Var) {
+			if (((Var) use).varDecl == old)
+				((Var) use).varDecl = (VarDecl) target;
+		} else if (use instanceof FunCallExpr) {
+			if (((FunCallExpr) use).proc == old)
+				((FunCallExpr) use).proc = (Procedure) target;
+		} else {
+			if (((FunCallStmt) use).proc == old)
+				((FunCallStmt) use).proc = (Procedure) target;
+		}
+		targets.set(i, target);
+	}
+}
@@ -0,0 +1,394 @@
+package sem;
+
+import java.util.List;
+
+import ast.*;
+import util.Diagnostic.Code;
+import util.Diagnostics;
+
+/**
+ * Name analysis and type checking in a single traversal. Each node first has
+ * its names resolved, as by NameAnalysisVisitor, and then its type computed
+ * from those of its children, as by TypeCheckVisitor, so every node is visited
+ * once instead of twice.
+ *
+ * The diagnostics are the same as those of the two passes, in the same order:
+ * name errors are reported as they are found and type errors are held back
+ * until the end of the program. Where a name stays unresolved, the type of
+ * the expression is unknown (null) and the checks involving it are skipped;
+ * the type checking pass throws a NullPointerException there instead.
+ *
+ * Given a GlobalScope, the visitor instead checks single procedure bodies
+ * against it, holding back the name errors as well, for
+ * ParallelSemanticAnalyzer to merge. It can also record what the names a body
+ * uses from outside resolved to, for IncrementalSemanticAnalyzer.
+ */
+public class FusedSemanticVisitor extends BaseSemanticVisitor<Type> {
+
+	private final SymbolTable symbols = new SymbolTable();
+
+	// the globals and procedures outside symbols, if any, and the last of the
+	// procedures a body may call
+	private final GlobalScope globals;
+	private int visible;
+
+	// whether the procedure being visited returns an expression of unknown type
+	private boolean unknownReturn;
+
+	// errors not reported yet: all type errors, and the name errors when
+	// checking against globals
+	DeferredErrors nameErrors;
+	DeferredErrors typeErrors = new DeferredErrors();
+
+	// where to record the uses of globals and procedures, if anywhere
+	Dependencies dependencies;
+
+	public FusedSemanticVisitor() {
+		this(new Diagnostics());
+	}
+
+	public FusedSemanticVisitor(Diagnostics diagnostics) {
+		super(diagnostics);
+		this.globals = null;
+		this.nameErrors = null;
+	}
+
+	FusedSemanticVisitor(GlobalScope globals) {
+		this.globals = globals;
+		this.nameErrors = new DeferredErrors();
+	}
+
+	private void nameError(Code code, Object... args) {
+		if (nameErrors != null)
+			nameErrors.add(code, args);
+		else
+			error(code, args);
+	}
+
+	private void typeError(Code code, Object... args) {
+		typeErrors.add(code, args);
+	}
+
+	private Symbol var_lookup(Var v) {
+		Symbol vs = this.symbols.var_lookup(v.id);
+		if (vs == null && globals != null) {
+			vs = globals.var_lookup(v.id);
+			if (dependencies != null)
+				dependencies.add(v, v.id, vs == null ? null : ((VarSymbol) vs).varDecl);
+		}
+		return vs;
+	}
+
+	private Symbol proc_lookup(Tree call, int id) {
+		Symbol ps = this.symbols.proc_lookup(id);
+		if (ps == null && globals != null) {
+			ps = globals.proc_lookup(id, visible);
+			if (dependencies != null)
+				dependencies.add(call, id, ps == null ? null : ((ProcSymbol) ps).proc);
+		}
+		return ps;
+	}
+
+	@Override
+	public Type visitProgram(Program p) {
+		for (VarDecl vd : p.varDecls) {
+			vd.accept(this);
+		}
+		for (Procedure proc : p.procs) {
+			proc.accept(this);
+		}
+		p.main.accept(this);
+		for (int i = 0; i < typeErrors.size(); i++) {
+			error(typeErrors.code(i), typeErrors.args(i));
+		}
+		typeErrors.clear();
+		return null;
+	}
+
+	@Override
+	public Type visitVarDecl(VarDecl vd) {
+		Symbol vs = this.symbols.lookupCurrent(vd.var.id);
+		if (vs == null) {
+			this.symbols.put(new VarSymbol(vd));
+		} else {
+			nameError(Code.INVALID_OVERLOAD, vd.var.name);
+		}
+		if (vd.type == Type.VOID) {
+			typeError(Code.VOID_VARIABLE, vd.var.name);
+		}
+		return null;
+	}
+
+	@Override
+	public Type visitProcedure(Procedure p) {
+		Symbol ps = this.symbols.lookupCurrent(p.id);
+		if (ps == null) {
+			this.symbols.put(new ProcSymbol(p));
+		} else {
+			error(Code.INVALID_OVERLOAD, p.name);
+		}
+		if (checkBody(p)) {
+			// add return statement to the procedure without a return
+			// statement
+			p.block.stmts.add(new Return(null));
+		}
+		return null;
+	}
+
+	/*
+	 * Checks procedure number order of the program against the globals, as
+	 * visitProcedure would after declaring it. Returns whether p needs a
+	 * return statement added, which is left to the caller so that the AST is
+	 * not changed from several threads.
+	 */
+	boolean checkProcedure(Procedure p, int order) {
+		if (!globals.declares(p)) {
+			nameError(Code.INVALID_OVERLOAD, p.name);
+		}
+		return checkBody(p, order);
+	}
+
+	/*
+	 * As checkProcedure, but leaves out whether p is an invalid overload.
+	 */
+	boolean checkBody(Procedure p, int order) {
+		visible = order;
+		return checkBody(p);
+	}
+
+	/*
+	 * Resolves and checks the parameters and the body of p. Returns whether p
+	 * is void and has no return statement.
+	 */
+	private boolean checkBody(Procedure p) {
+		// the parameters and the locals of the body share one scope
+		this.symbols.enterScope();
+		for (VarDecl vd : p.params) {
+			vd.accept(this);
+		}
+		for (VarDecl vd : p.block.varDecls) {
+			vd.accept(this);
+		}
+		unknownReturn = false;
+		Type blockT = statements(p.block);
+		this.symbols.leaveScope();
+
+		if (unknownReturn) {
+			// cannot tell whether it matches
+		} else if (p.type != Type.VOID) {
+			if (blockT != p.type) {
+				typeError(Code.RETURN_TYPE_MISMATCH, p.name);
+			}
+		} else {
+			if (blockT == null) {
+				return true;
+			} else {
+				if (blockT != Type.VOID) {
+					typeError(Code.RETURN_TYPE_MISMATCH, p.name);
+				}
+			}
+		}
+		return false;
+	}
+
+	/* EXPRESSION */
+
+	@Override
+	public Type visitIntLiteral(IntLiteral i) {
+		return Type.INT;
+	}
+
+	@Override
+	public Type visitChrLiteral(ChrLiteral c) {
+		return Type.CHAR;
+	}
+
+	@Override
+	public Type visitStrLiteral(StrLiteral s) {
+		return Type.VOID;
+	}
+
+	@Override
+	public Type visitVar(Var v) {
+		Symbol vs = var_lookup(v);
+		if (vs != null) {
+			v.varDecl = ((VarSymbol) vs).varDecl;
+			return v.varDecl.type;
+		} else {
+			// a body checked again may have been linked before
+			v.varDecl = null;
+			nameError(Code.UNDECLARED_VARIABLE, v.name);
+			return null;
+		}
+	}
+
+	@Override
+	public Type visitFunCallExpr(FunCallExpr f) {
+		Symbol ps = proc_lookup(f, f.id);
+		if (ps != null && f.exprs.size() == ((ProcSymbol) ps).proc.params.size()) {
+			f.proc = ((ProcSymbol) ps).proc;
+			checkArguments(f.name, f.exprs, f.proc);
+		} else {
+			// deal with IO functions (simulating linking)
+			f.proc = intrinsic(f.id, f.name, f.exprs, true);
+			if (f.proc != null) {
+				checkArguments(f.name, f.exprs, f.proc);
+			}
+		}
+		return f.proc == null ? null : f.proc.type;
+	}
+
+	@Override
+	public Type visitFunCallStmt(FunCallStmt f) {
+		Symbol ps = proc_lookup(f, f.id);
+		if (ps != null && f.exprs.size() == ((ProcSymbol) ps).proc.params.size()) {
+			f.proc = ((ProcSymbol) ps).proc;
+			checkArguments(f.name, f.exprs, f.proc);
+		} else {
+			// deal with IO functions (simulating linking)
+			f.proc = intrinsic(f.id, f.name, f.exprs, false);
+			if (f.proc != null) {
+				checkArguments(f.name, f.exprs, f.proc);
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Links a call no declared procedure matches to the IO builtin of that
+	 * name, if it takes as many arguments. Returns its signature, or null
+	 * after reporting the error. A call in an expression needs a builtin with
+	 * a value.
+	 */
+	private Procedure intrinsic(int id, String name, List<Expr> exprs, boolean expr) {
+		Intrinsic in = Intrinsic.lookup(id);
+		if (in == null || (expr && in.proc.type == Type.VOID)) {
+			nameError(Code.UNDECLARED_PROCEDURE, name);
+			return null;
+		}
+		int params = in.proc.params.size();
+		if (exprs.size() != params) {
+			nameError(exprs.size() < params ? Code.TOO_FEW_ARGUMENTS : Code.TOO_MANY_ARGUMENTS, name);
+			return null;
+		}
+		return in.proc;
+	}
+
+	/*
+	 * Resolves the arguments of a call to proc and checks their types
+	 * against those of its parameters.
+	 */
+	private void checkArguments(String name, List<Expr> exprs, Procedure proc) {
+		for (int i = 0; i < exprs.size(); i++) {
+			Type exprT = exprs.get(i).accept(this);
+			Type paramT = proc.params.get(i).type;
+			if (exprT != null && exprT != paramT) {
+				typeError(Code.CALL_MISMATCH, name);
+			}
+		}
+	}
+
+	@Override
+	public Type visitBinOp(BinOp b) {
+		Type lhsT = b.lhs.accept(this);
+		Type rhsT = b.rhs.accept(this);
+		if (b.op == Op.ADD || b.op == Op.SUB || b.op == Op.MUL || b.op == Op.DIV || b.op == Op.MOD) {
+			if (lhsT != null && lhsT != Type.INT) {
+				typeError(Code.LEFT_OPERAND_TYPE, b.op, lhsT);
+			}
+			if (rhsT != null && rhsT != Type.INT) {
+				typeError(Code.RIGHT_OPERAND_TYPE, b.op, rhsT);
+			}
+		} else {
+			if (lhsT != null && rhsT != null && lhsT != rhsT) {
+				typeError(Code.OPERAND_TYPE_MISMATCH, b.op);
+			}
+		}
+		return Type.INT;
+	}
+
+	/* STATEMENT */
+
+	@Override
+	public Type visitBlock(Block b) {
+		this.symbols.enterScope();
+		for (VarDecl vd : b.varDecls) {
+			vd.accept(this);
+		}
+		Type outputT = statements(b);
+		this.symbols.leaveScope();
+		return outputT;
+	}
+
+	/*
+	 * Visits the statements of b and returns the type of the first one which
+	 * returns.
+	 */
+	private Type statements(Block b) {
+		Type outputT = null;
+		for (Stmt s : b.stmts) {
+			Type stmtT = s.accept(this);
+			if (outputT == null && stmtT != null) {
+				outputT = stmtT;
+			}
+		}
+		return outputT;
+	}
+
+	@Override
+	public Type visitWhile(While w) {
+		Type exprT = w.expr.accept(this);
+		if (exprT != null && exprT != Type.INT) {
+			typeError(Code.CONDITION_TYPE, exprT, "WHILE");
+		}
+		this.symbols.enterScope();
+		w.stmt.accept(this);
+		this.symbols.leaveScope();
+		return null;
+	}
+
+	@Override
+	public Type visitIf(If i) {
+		Type exprT = i.expr.accept(this);
+		if (exprT != null && exprT != Type.INT) {
+			typeError(Code.CONDITION_TYPE, exprT, "IF");
+		}
+		this.symbols.enterScope();
+		Type stmt1T = i.stmt1.accept(this);
+		this.symbols.leaveScope();
+		Type stmt2T = null;
+		if (i.stmt2 != null) {
+			this.symbols.enterScope();
+			stmt2T = i.stmt2.accept(this);
+			this.symbols.leaveScope();
+		}
+		if (stmt1T == stmt2T) {
+			return stmt1T;
+		} else {
+			return null;
+		}
+	}
+
+	@Override
+	public Type visitAssign(Assign a) {
+		Type varT = a.var.accept(this);
+		Type exprT = a.expr.accept(this);
+		if (varT != null && exprT != null && varT != exprT) {
+			typeError(Code.ASSIGNMENT_TYPE_MISMATCH, a.var.name);
+		}
+		return null;
+	}
+
+	@Override
+	public Type visitReturn(Return r) {
+		if (r.expr != null) {
+			Type exprT = r.expr.accept(this);
+			if (exprT == null) {
+				unknownReturn = true;
+			}
+			return exprT;
+		} else {
+			return Type.VOID;
+		}
+	}
+}
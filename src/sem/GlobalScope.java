@@ -0,0 +1,91 @@
+package sem;
+
+import java.util.List;
+
+import ast.Procedure;
+import ast.Program;
+import ast.VarDecl;
+
+/**
+ * An immutable snapshot of the global scope of a program: its globals and the
+ * signatures of its procedures, main last, declared as name analysis would.
+ * A name declared twice keeps its first declaration. Procedures are numbered
+ * in source order and a lookup can be limited to those declared up to a given
+ * one, since a body may only call the procedures before it and itself.
+ *
+ * Nothing changes once the snapshot is built, so the bodies of the procedures
+ * can be checked against it from several threads.
+ */
+public final class GlobalScope {
+
+	// open addressing: id + 1 (0 if the slot is free), its symbol and, for a
+	// procedure, its number (-1 for a global)
+	private final int[] keys;
+	private final Symbol[] symbols;
+	private final int[] orders;
+
+	public GlobalScope(Program program) {
+		List<VarDecl> globals = program.varDecls;
+		List<Procedure> procs = program.procs;
+		int capacity = Integer.highestOneBit(Math.max(2 * (globals.size() + procs.size() + 1), 4) - 1) * 2;
+		keys = new int[capacity];
+		symbols = new Symbol[capacity];
+		orders = new int[capacity];
+		for (VarDecl vd : globals)
+			declare(new VarSymbol(vd), -1);
+		for (int k = 0; k < procs.size(); k++)
+			declare(new ProcSymbol(procs.get(k)), k);
+		declare(new ProcSymbol(program.main), procs.size());
+	}
+
+	private void declare(Symbol sym, int order) {
+		int i = slot(sym.id);
+		if (keys[i] != 0)
+			return;
+		keys[i] = sym.id + 1;
+		symbols[i] = sym;
+		orders[i] = order;
+	}
+
+	/*
+	 * Returns the slot of id, or the free slot where it would go.
+	 */
+	private int slot(int id) {
+		int mask = keys.length - 1;
+		int i = id & mask;
+		while (keys[i] != 0 && keys[i] != id + 1)
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	/*
+	 * Returns whether vd is the declaration its name resolves to, rather than
+	 * an invalid overload.
+	 */
+	public boolean declares(VarDecl vd) {
+		Symbol sym = symbols[slot(vd.var.id)];
+		return sym.isVarDecl() && ((VarSymbol) sym).varDecl == vd;
+	}
+
+	public boolean declares(Procedure p) {
+		Symbol sym = symbols[slot(p.id)];
+		return sym.isProcedure() && ((ProcSymbol) sym).proc == p;
+	}
+
+	/*
+	 * Returns the global variable with the given id.
+	 */
+	public Symbol var_lookup(int id) {
+		int i = slot(id);
+		return keys[i] != 0 && symbols[i].isVarDecl() ? symbols[i] : null;
+	}
+
+	/*
+	 * Returns the procedure with the given id if it is one of procedures 0 to
+	 * visible.
+	 */
+	public Symbol proc_lookup(int id, int visible) {
+		int i = slot(id);
+		return keys[i] != 0 && symbols[i].isProcedure() && orders[i] <= visible ? symbols[i] : null;
+	}
+}
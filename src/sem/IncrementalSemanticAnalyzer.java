@@ -0,0 +1,324 @@
+package sem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ast.Procedure;
+import ast.Program;
+import ast.Return;
+import ast.Tree;
+import ast.Type;
+import ast.VarDecl;
+import util.Diagnostic.Code;
+import util.Diagnostics;
+
+/**
+ * A SemanticAnalyzer for successive versions of one program, as an editor
+ * holds them, which only checks again the procedure bodies an edit may have
+ * changed the result of. Each body is checked against a GlobalScope as in
+ * ParallelSemanticAnalyzer, recording its diagnostics and the globals and
+ * procedures its names resolved to, kept with a reverse index from names to
+ * the bodies using them.
+ *
+ * Versions are compared by identity: a VarDecl or Procedure of the previous
+ * version is taken to be unchanged, so an edit must replace the declarations
+ * it changes by new nodes rather than change them in place. On the next
+ * analysis, new procedures are checked, and so are those moved or using a
+ * name which was declared, removed or moved, unless what their names now
+ * resolve to has the same type, or signature, as before; then the uses are
+ * only relinked to the new declarations. Every other body keeps its annotations and diagnostics, and
+ * the diagnostics of all of them are reported in source order as by the other
+ * analyzers.
+ */
+public class IncrementalSemanticAnalyzer extends SemanticAnalyzer {
+
+	// what was found when a body was last checked
+	private static class Entry {
+		final DeferredErrors nameErrors = new DeferredErrors();
+		final DeferredErrors typeErrors = new DeferredErrors();
+		final Dependencies dependencies = new Dependencies();
+		// position among the procedures, main last
+		int order;
+	}
+
+	private final Map<Procedure, Entry> entries = new IdentityHashMap<Procedure, Entry>();
+	// the procedures whose bodies use each name they do not declare, by id
+	private final Map<Integer, Set<Procedure>> dependents = new HashMap<Integer, Set<Procedure>>();
+	private Set<VarDecl> globals = identitySet();
+
+	// bodies checked and relinked by the last analysis
+	private int checked;
+	private int relinked;
+
+	public IncrementalSemanticAnalyzer() {
+		this(new Diagnostics());
+	}
+
+	public IncrementalSemanticAnalyzer(Diagnostics diagnostics) {
+		super(diagnostics);
+	}
+
+	public int getCheckedCount() {
+		return checked;
+	}
+
+	public int getRelinkedCount() {
+		return relinked;
+	}
+
+	private static <T> Set<T> identitySet() {
+		return Collections.newSetFromMap(new IdentityHashMap<T, Boolean>());
+	}
+
+	@Override
+	public int analyze(Program prog) {
+		return analyze(prog, getDiagnostics());
+	}
+
+	/*
+	 * Analyses the next version of the program, reporting to diagnostics,
+	 * since a Diagnostics counts the errors of all the versions reported to
+	 * it.
+	 */
+	public int analyze(Program prog, Diagnostics diagnostics) {
+		List<Procedure> procs = new ArrayList<Procedure>(prog.procs.size() + 1);
+		procs.addAll(prog.procs);
+		procs.add(prog.main);
+		GlobalScope scope = new GlobalScope(prog);
+		Set<Integer> changed = new HashSet<Integer>();
+
+		// globals declared or removed
+		Set<VarDecl> current = identitySet();
+		for (VarDecl vd : prog.varDecls) {
+			current.add(vd);
+			if (!globals.contains(vd))
+				changed.add(vd.var.id);
+		}
+		for (VarDecl vd : globals) {
+			if (!current.contains(vd))
+				changed.add(vd.var.id);
+		}
+		globals = current;
+
+		// procedures declared, removed or moved
+		Set<Procedure> present = identitySet();
+		List<Procedure> kept = new ArrayList<Procedure>();
+		for (Procedure p : procs) {
+			present.add(p);
+			if (entries.containsKey(p))
+				kept.add(p);
+			else
+				changed.add(p.id);
+		}
+		for (Iterator<Map.Entry<Procedure, Entry>> it = entries.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<Procedure, Entry> e = it.next();
+			if (!present.contains(e.getKey())) {
+				changed.add(e.getKey().id);
+				forget(e.getKey(), e.getValue());
+				it.remove();
+			}
+		}
+		Set<Procedure> moved = moved(kept);
+		for (Procedure p : moved)
+			changed.add(p.id);
+
+		Set<Procedure> stale = identitySet();
+		stale.addAll(moved);
+		for (Integer id : changed) {
+			Set<Procedure> users = dependents.get(id);
+			if (users != null)
+				stale.addAll(users);
+		}
+		checked = 0;
+		relinked = 0;
+		FusedSemanticVisitor visitor = new FusedSemanticVisitor(scope);
+		for (int k = 0; k < procs.size(); k++) {
+			Procedure p = procs.get(k);
+			Entry entry = entries.get(p);
+			if (entry == null) {
+				entry = new Entry();
+				entries.put(p, entry);
+				check(visitor, p, k, entry);
+			} else if (stale.contains(p)) {
+				if (relink(scope, k, entry, moved.contains(p) ? null : changed)) {
+					relinked++;
+				} else {
+					forget(p, entry);
+					entry = new Entry();
+					entries.put(p, entry);
+					check(visitor, p, k, entry);
+				}
+			}
+			entry.order = k;
+		}
+
+		DeferredErrors nameErrors = new DeferredErrors();
+		DeferredErrors typeErrors = new DeferredErrors();
+		for (VarDecl vd : prog.varDecls) {
+			if (!scope.declares(vd))
+				nameErrors.add(Code.INVALID_OVERLOAD, vd.var.name);
+			if (vd.type == Type.VOID)
+				typeErrors.add(Code.VOID_VARIABLE, vd.var.name);
+		}
+		int errors = report(nameErrors, diagnostics);
+		for (Procedure p : procs) {
+			if (!scope.declares(p)) {
+				diagnostics.error(Code.INVALID_OVERLOAD, null, p.name);
+				errors++;
+			}
+			errors += report(entries.get(p).nameErrors, diagnostics);
+		}
+		errors += report(typeErrors, diagnostics);
+		for (Procedure p : procs)
+			errors += report(entries.get(p).typeErrors, diagnostics);
+		return errors;
+	}
+
+	private static int report(DeferredErrors errors, Diagnostics diagnostics) {
+		for (int i = 0; i < errors.size(); i++)
+			diagnostics.error(errors.code(i), null, errors.args(i));
+		return errors.size();
+	}
+
+	/*
+	 * Checks the body of procedure number order of the program, recording the
+	 * results in entry.
+	 */
+	private void check(FusedSemanticVisitor visitor, Procedure p, int order, Entry entry) {
+		visitor.nameErrors = entry.nameErrors;
+		visitor.typeErrors = entry.typeErrors;
+		visitor.dependencies = entry.dependencies;
+		if (visitor.checkBody(p, order)) {
+			p.block.stmts.add(new Return(null));
+		}
+		Dependencies dependencies = entry.dependencies;
+		for (int i = 0; i < dependencies.size(); i++) {
+			Set<Procedure> users = dependents.get(dependencies.id(i));
+			if (users == null) {
+				users = identitySet();
+				dependents.put(dependencies.id(i), users);
+			}
+			users.add(p);
+		}
+		checked++;
+	}
+
+	private void forget(Procedure p, Entry entry) {
+		Dependencies dependencies = entry.dependencies;
+		for (int i = 0; i < dependencies.size(); i++) {
+			Set<Procedure> users = dependents.get(dependencies.id(i));
+			if (users != null) {
+				users.remove(p);
+				if (users.isEmpty())
+					dependents.remove(dependencies.id(i));
+			}
+		}
+	}
+
+	/*
+	 * Returns procedures of kept, which were all in the previous version, such
+	 * that the others are still in the same order: those not in a longest run
+	 * of kept, not necessarily contiguous, whose previous positions increase.
+	 * Only what the moved procedures can call, and which bodies can call them,
+	 * may have changed.
+	 */
+	private Set<Procedure> moved(List<Procedure> kept) {
+		int n = kept.size();
+		// tails[l]: index in kept of the smallest last element of an
+		// increasing run of length l + 1; previous[i]: the element before i
+		int[] tails = new int[n];
+		int[] previous = new int[n];
+		int length = 0;
+		for (int i = 0; i < n; i++) {
+			int order = entries.get(kept.get(i)).order;
+			int low = 0;
+			int high = length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (entries.get(kept.get(tails[mid])).order < order)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			previous[i] = low > 0 ? tails[low - 1] : -1;
+			tails[low] = i;
+			if (low == length)
+				length++;
+		}
+		Set<Procedure> moved = identitySet();
+		if (length == n)
+			return moved;
+		boolean[] inRun = new boolean[n];
+		for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i])
+			inRun[i] = true;
+		for (int i = 0; i < n; i++) {
+			if (!inRun[i])
+				moved.add(kept.get(i));
+		}
+		return moved;
+	}
+
+	/*
+	 * Relinks the uses of changed names, or of all names if changed is null,
+	 * in the body of procedure number order to what they now resolve to, if
+	 * that would not change the result of checking it. Returns false, changing
+	 * nothing, otherwise.
+	 */
+	private boolean relink(GlobalScope scope, int order, Entry entry, Set<Integer> changed) {
+		Dependencies dependencies = entry.dependencies;
+		Tree[] targets = new Tree[dependencies.size()];
+		for (int i = 0; i < dependencies.size(); i++) {
+			int id = dependencies.id(i);
+			if (changed != null && !changed.contains(id))
+				continue;
+			Tree target;
+			if (dependencies.isVar(i)) {
+				Symbol vs = scope.var_lookup(id);
+				target = vs == null ? null : ((VarSymbol) vs).varDecl;
+			} else {
+				Symbol ps = scope.proc_lookup(id, order);
+				target = ps == null ? null : ((ProcSymbol) ps).proc;
+			}
+			if (!sameSignature(dependencies.target(i), target))
+				return false;
+			targets[i] = target;
+		}
+		for (int i = 0; i < dependencies.size(); i++) {
+			if (targets[i] != null && targets[i] != dependencies.target(i))
+				dependencies.relink(i, targets[i]);
+		}
+		return true;
+	}
+
+	/*
+	 * Whether uses resolving to b instead of a would be checked the same:
+	 * both are missing, or are globals of the same type, or are procedures
+	 * with the same return and parameter types.
+	 */
+	private static boolean sameSignature(Tree a, Tree b) {
+		if (a == b)
+			return true;
+		if (a == null || b == null)
+			return false;
+		if (a instanceof VarDecl)
+			return b instanceof VarDecl && ((VarDecl) a).type == ((VarDecl) b).type;
+		if (!(b instanceof Procedure))
+			return false;
+		Procedure p = (Procedure) a;
+		Procedure q = (Procedure) b;
+		if (p.type != q.type || p.params.size() != q.params.size())
+			return false;
+		for (int i = 0; i < p.params.size(); i++) {
+			if (p.params.get(i).type != q.params.get(i).type)
+				return false;
+		}
+		return true;
+	}
+}
@@ -1,15 +1,21 @@
 package sem;
 
-import java.util.ArrayList;
+import java.util.List;
 
 import ast.*;
+import util.Diagnostic.Code;
+import util.Diagnostics;
 
 public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 
-	private Scope currentScope;
+	private final SymbolTable symbols = new SymbolTable();
 
 	public NameAnalysisVisitor() {
-		this.currentScope = new Scope();
+		this(new Diagnostics());
+	}
+
+	public NameAnalysisVisitor(Diagnostics diagnostics) {
+		super(diagnostics);
 	}
 
 	@Override
@@ -26,36 +32,35 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 
 	@Override
 	public Void visitVarDecl(VarDecl vd) {
-		Symbol vs = this.currentScope.lookupCurrent(vd.var.name);
+		Symbol vs = this.symbols.lookupCurrent(vd.var.id);
 		if (vs == null) {
-			this.currentScope.put(new VarSymbol(vd));
+			this.symbols.put(new VarSymbol(vd));
 		} else {
-			error("[Name Analysis] Invalid overload of '" + vd.var.name + "'");
+			error(Code.INVALID_OVERLOAD, vd.var.name);
 		}
 		return null;
 	}
 
 	@Override
 	public Void visitVar(Var v) {
-		Symbol vs = this.currentScope.var_lookup(v.name);
+		Symbol vs = this.symbols.var_lookup(v.id);
 		if (vs != null) {
 			v.varDecl = ((VarSymbol) vs).varDecl;
 		} else {
-			error("[Name Analysis] Variable '" + v.name + "' is not declared");
+			error(Code.UNDECLARED_VARIABLE, v.name);
 		}
 		return null;
 	}
 
 	@Override
 	public Void visitProcedure(Procedure p) {
-		Symbol ps = this.currentScope.lookupCurrent(p.name);
+		Symbol ps = this.symbols.lookupCurrent(p.id);
 		if (ps == null) {
-			this.currentScope.put(new ProcSymbol(p));
+			this.symbols.put(new ProcSymbol(p));
 		} else {
-			error("[Name Analysis] Invalid overload of '" + p.name + "'");
+			error(Code.INVALID_OVERLOAD, p.name);
 		}
-		Scope outerScope = this.currentScope;
-		this.currentScope = new Scope(outerScope);
+		this.symbols.enterScope();
 		for (VarDecl vd : p.params) {
 			vd.accept(this);
 		}
@@ -65,13 +70,13 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 		for (Stmt s : p.block.stmts) {
 			s.accept(this);
 		}
-		this.currentScope = outerScope;
+		this.symbols.leaveScope();
 		return null;
 	}
 
 	@Override
 	public Void visitFunCallExpr(FunCallExpr f) {
-		Symbol ps = this.currentScope.proc_lookup(f.name);
+		Symbol ps = this.symbols.proc_lookup(f.id);
 		if (ps != null && f.exprs.size() == ((ProcSymbol) ps).proc.params.size()) {
 			for (Expr e : f.exprs) {
 				e.accept(this);
@@ -79,20 +84,11 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 			f.proc = ((ProcSymbol) ps).proc;
 		} else {
 			// deal with IO functions (simulating linking)
-			if (f.name.compareTo("read_c") == 0) {
-				if (f.exprs.size() == 0) {
-					f.proc = new Procedure(Type.CHAR, null, new ArrayList<VarDecl>(), null);
-				} else {
-					error("[Name Analysis] Procedure '" + f.name + "' has too many parameters");
+			f.proc = intrinsic(f.id, f.name, f.exprs, true);
+			if (f.proc != null) {
+				for (Expr e : f.exprs) {
+					e.accept(this);
 				}
-			} else if (f.name.compareTo("read_i") == 0) {
-				if (f.exprs.size() == 0) {
-					f.proc = new Procedure(Type.INT, null, new ArrayList<VarDecl>(), null);
-				} else {
-					error("[Name Analysis] Procedure '" + f.name + "' has too many parameters");
-				}
-			} else {
-				error("[Name Analysis] Procedure '" + f.name + "' is not declared");
 			}
 		}
 		return null;
@@ -100,7 +96,7 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 
 	@Override
 	public Void visitFunCallStmt(FunCallStmt f) {
-		Symbol ps = this.currentScope.proc_lookup(f.name);
+		Symbol ps = this.symbols.proc_lookup(f.id);
 		if (ps != null && f.exprs.size() == ((ProcSymbol) ps).proc.params.size()) {
 			for (Expr e : f.exprs) {
 				e.accept(this);
@@ -108,55 +104,46 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 			f.proc = ((ProcSymbol) ps).proc;
 		} else {
 			// deal with IO functions (simulating linking)
-			if (f.name.compareTo("print_c") == 0 || f.name.compareTo("print_i") == 0
-					|| f.name.compareTo("print_s") == 0) {
-				if (f.exprs.size() == 1) {
-					for (Expr e : f.exprs) {
-						e.accept(this);
-					}
-					f.proc = new Procedure(Type.VOID, null, new ArrayList<VarDecl>(), null);
-					if (f.name.compareTo("print_c") == 0) {
-						f.proc.params.add(new VarDecl(Type.CHAR, new Var("c")));
-					} else if (f.name.compareTo("print_i") == 0) {
-						f.proc.params.add(new VarDecl(Type.INT, new Var("i")));
-					} else {
-						f.proc.params.add(new VarDecl(Type.VOID, new Var("v")));
-					}
-				} else {
-					if (f.exprs.size() < 1) {
-						error("[Name Analysis] Procedure '" + f.name + "' has too few parameters");
-					} else {
-						error("[Name Analysis] Procedure '" + f.name + "' has too many parameters");
-					}
-				}
-			} else if (f.name.compareTo("read_c") == 0 || f.name.compareTo("read_i") == 0) {
-				if (f.exprs.size() == 0) {
-					if (f.name.compareTo("read_c") == 0) {
-						f.proc = new Procedure(Type.CHAR, null, new ArrayList<VarDecl>(), null);
-					} else {
-						f.proc = new Procedure(Type.INT, null, new ArrayList<VarDecl>(), null);
-					}
-				} else {
-					error("[Name Analysis] Procedure '" + f.name + "' has too many parameters");
+			f.proc = intrinsic(f.id, f.name, f.exprs, false);
+			if (f.proc != null) {
+				for (Expr e : f.exprs) {
+					e.accept(this);
 				}
-			} else {
-				error("[Name Analysis] Procedure '" + f.name + "' is not declared");
 			}
 		}
 		return null;
 	}
 
+	/*
+	 * Links a call no declared procedure matches to the IO builtin of that
+	 * name, if it takes as many arguments. Returns its signature, or null
+	 * after reporting the error. A call in an expression needs a builtin with
+	 * a value.
+	 */
+	private Procedure intrinsic(int id, String name, List<Expr> exprs, boolean expr) {
+		Intrinsic in = Intrinsic.lookup(id);
+		if (in == null || (expr && in.proc.type == Type.VOID)) {
+			error(Code.UNDECLARED_PROCEDURE, name);
+			return null;
+		}
+		int params = in.proc.params.size();
+		if (exprs.size() != params) {
+			error(exprs.size() < params ? Code.TOO_FEW_ARGUMENTS : Code.TOO_MANY_ARGUMENTS, name);
+			return null;
+		}
+		return in.proc;
+	}
+
 	@Override
 	public Void visitBlock(Block b) {
-		Scope outerScope = this.currentScope;
-		this.currentScope = new Scope(outerScope);
+		this.symbols.enterScope();
 		for (VarDecl vd : b.varDecls) {
 			vd.accept(this);
 		}
 		for (Stmt s : b.stmts) {
 			s.accept(this);
 		}
-		this.currentScope = outerScope;
+		this.symbols.leaveScope();
 		return null;
 	}
 
@@ -177,14 +164,14 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 	@Override
 	public Void visitIf(If i) {
 		i.expr.accept(this);
-		Scope outerScope = this.currentScope;
-		this.currentScope = new Scope(outerScope);
+		this.symbols.enterScope();
 		i.stmt1.accept(this);
+		this.symbols.leaveScope();
 		if (i.stmt2 != null) {
-			this.currentScope = new Scope(outerScope);
+			this.symbols.enterScope();
 			i.stmt2.accept(this);
+			this.symbols.leaveScope();
 		}
-		this.currentScope = outerScope;
 		return null;
 	}
 
@@ -199,10 +186,9 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 	@Override
 	public Void visitWhile(While w) {
 		w.expr.accept(this);
-		Scope outerScope = this.currentScope;
-		this.currentScope = new Scope(outerScope);
+		this.symbols.enterScope();
 		w.stmt.accept(this);
-		this.currentScope = outerScope;
+		this.symbols.leaveScope();
 		return null;
 	}
 
@@ -0,0 +1,131 @@
+package sem;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import ast.Procedure;
+import ast.Program;
+import ast.Return;
+import ast.Type;
+import ast.VarDecl;
+import util.Diagnostic.Code;
+import util.Diagnostics;
+
+/**
+ * A SemanticAnalyzer which checks the procedure bodies of a program in
+ * parallel. The globals and the procedure signatures are first collected into
+ * a GlobalScope; then the procedures, main last, are split into batches which
+ * are resolved and type checked by FusedSemanticVisitors of their own on a
+ * fork-join pool. Each batch holds back its diagnostics, and they are merged
+ * afterwards in source order, name errors first, so the diagnostics are those
+ * of the sequential analysis.
+ *
+ * The tasks only write to the AST nodes of their own procedures. The return
+ * statements the type checker adds to void procedures are appended once all
+ * tasks have finished.
+ */
+public class ParallelSemanticAnalyzer extends SemanticAnalyzer {
+
+	// procedures per batch below which a batch is not worth a task of its own
+	private static final int MIN_BATCH = 16;
+
+	private final int parallelism;
+
+	public ParallelSemanticAnalyzer(int parallelism) {
+		this(parallelism, new Diagnostics());
+	}
+
+	public ParallelSemanticAnalyzer(int parallelism, Diagnostics diagnostics) {
+		super(diagnostics);
+		this.parallelism = parallelism;
+	}
+
+	@Override
+	public int analyze(Program prog) {
+		// main is checked last, like any other procedure
+		List<Procedure> procs = new ArrayList<Procedure>(prog.procs.size() + 1);
+		procs.addAll(prog.procs);
+		procs.add(prog.main);
+		int batches = Math.min(parallelism * 4, procs.size() / MIN_BATCH);
+		if (parallelism <= 1 || batches <= 1) {
+			setFused(true);
+			return super.analyze(prog);
+		}
+
+		GlobalScope globals = new GlobalScope(prog);
+		DeferredErrors nameErrors = new DeferredErrors();
+		DeferredErrors typeErrors = new DeferredErrors();
+		for (VarDecl vd : prog.varDecls) {
+			if (!globals.declares(vd))
+				nameErrors.add(Code.INVALID_OVERLOAD, vd.var.name);
+			if (vd.type == Type.VOID)
+				typeErrors.add(Code.VOID_VARIABLE, vd.var.name);
+		}
+
+		final List<Batch> tasks = new ArrayList<Batch>();
+		for (int k = 0; k < batches; k++)
+			tasks.add(new Batch(globals, procs, procs.size() * k / batches, procs.size() * (k + 1) / batches));
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new RecursiveAction() {
+				@Override
+				protected void compute() {
+					ForkJoinTask.invokeAll(tasks);
+				}
+			});
+		} finally {
+			pool.shutdown();
+		}
+
+		for (Batch batch : tasks) {
+			for (int k = batch.needsReturn.nextSetBit(0); k >= 0; k = batch.needsReturn.nextSetBit(k + 1))
+				procs.get(k).block.stmts.add(new Return(null));
+		}
+		int errors = report(nameErrors);
+		for (Batch batch : tasks)
+			errors += report(batch.visitor.nameErrors);
+		errors += report(typeErrors);
+		for (Batch batch : tasks)
+			errors += report(batch.visitor.typeErrors);
+		return errors;
+	}
+
+	private int report(DeferredErrors errors) {
+		for (int i = 0; i < errors.size(); i++)
+			getDiagnostics().error(errors.code(i), null, errors.args(i));
+		return errors.size();
+	}
+
+	/*
+	 * Procedures first to last - 1, checked by a visitor of their own.
+	 */
+	private static class Batch extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<Procedure> procs;
+		private final int first;
+		private final int last;
+		final FusedSemanticVisitor visitor;
+		// the procedures to add a return statement to
+		final BitSet needsReturn = new BitSet();
+
+		Batch(GlobalScope globals, List<Procedure> procs, int first, int last) {
+			this.procs = procs;
+			this.first = first;
+			this.last = last;
+			this.visitor = new FusedSemanticVisitor(globals);
+		}
+
+		@Override
+		protected void compute() {
+			for (int k = first; k < last; k++) {
+				if (visitor.checkProcedure(procs.get(k), k))
+					needsReturn.set(k);
+			}
+		}
+	}
+}
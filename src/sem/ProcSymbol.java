@@ -7,7 +7,7 @@ public class ProcSymbol extends Symbol {
 	public Procedure proc;
 
 	public ProcSymbol(Procedure proc) {
-		super(proc.name);
+		super(proc.name, proc.id);
 		this.proc = proc;
 	}
 
@@ -1,52 +1,85 @@
 package sem;
 
-import java.util.Hashtable;
-import java.util.Map;
-
+/**
+ * The symbols declared in one scope, in an open-addressing table keyed by the
+ * NameTable id of their name.
+ */
 public class Scope {
 	private Scope outer;
-	private Map<String, Symbol> symbolTable;
+	private Symbol[] symbols;
+	private int size;
 
 	public Scope(Scope outer) {
 		this.outer = outer;
-		this.symbolTable = new Hashtable<String, Symbol>();
+		this.symbols = new Symbol[8];
 	}
 
 	public Scope() {
 		this(null);
 	}
 
-	public Symbol proc_lookup(String name) {
-		Symbol result = lookupCurrent(name);
+	public Symbol proc_lookup(int id) {
+		Symbol result = lookupCurrent(id);
 		if (result != null && result.isProcedure()) {
 			return result;
 		} else {
 			if (this.outer != null) {
-				return this.outer.proc_lookup(name);
+				return this.outer.proc_lookup(id);
 			} else {
 				return null;
 			}
 		}
 	}
 
-	public Symbol var_lookup(String name) {
-		Symbol result = lookupCurrent(name);
+	public Symbol var_lookup(int id) {
+		Symbol result = lookupCurrent(id);
 		if (result != null && result.isVarDecl()) {
 			return result;
 		} else {
 			if (this.outer != null) {
-				return this.outer.var_lookup(name);
+				return this.outer.var_lookup(id);
 			} else {
 				return null;
 			}
 		}
 	}
 
-	public Symbol lookupCurrent(String name) {
-		return symbolTable.get(name);
+	public Symbol lookupCurrent(int id) {
+		int mask = symbols.length - 1;
+		for (int i = id & mask;; i = (i + 1) & mask) {
+			Symbol sym = symbols[i];
+			if (sym == null || sym.id == id)
+				return sym;
+		}
 	}
 
 	public void put(Symbol sym) {
-		symbolTable.put(sym.name, sym);
+		if (2 * (size + 1) > symbols.length) {
+			Symbol[] old = symbols;
+			symbols = new Symbol[old.length * 2];
+			for (Symbol s : old) {
+				if (s != null)
+					insert(s);
+			}
+		}
+		if (insert(sym))
+			size++;
+	}
+
+	/*
+	 * Returns false if sym replaced a symbol with the same id.
+	 */
+	private boolean insert(Symbol sym) {
+		int mask = symbols.length - 1;
+		int i = sym.id & mask;
+		while (symbols[i] != null) {
+			if (symbols[i].id == sym.id) {
+				symbols[i] = sym;
+				return false;
+			}
+			i = (i + 1) & mask;
+		}
+		symbols[i] = sym;
+		return true;
 	}
 }
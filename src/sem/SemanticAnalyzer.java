@@ -2,16 +2,42 @@ package sem;
 
 import java.util.ArrayList;
 
+import util.Diagnostics;
+
 public class SemanticAnalyzer {
 
+	private final Diagnostics diagnostics;
+	private boolean fused;
+
+	public SemanticAnalyzer() {
+		this(new Diagnostics());
+	}
+
+	public SemanticAnalyzer(Diagnostics diagnostics) {
+		this.diagnostics = diagnostics;
+	}
+
+	public Diagnostics getDiagnostics() {
+		return diagnostics;
+	}
+
+	/*
+	 * With fused set, names are resolved and types checked in a single
+	 * traversal by FusedSemanticVisitor, with the same diagnostics.
+	 */
+	public void setFused(boolean fused) {
+		this.fused = fused;
+	}
+
 	public int analyze(ast.Program prog) {
 		// List of visitors
-		ArrayList<SemanticVisitor> visitors = new ArrayList<SemanticVisitor>() {
-			{
-				add(new NameAnalysisVisitor());
-				add(new TypeCheckVisitor());
-			}
-		};
+		ArrayList<SemanticVisitor> visitors = new ArrayList<SemanticVisitor>();
+		if (fused) {
+			visitors.add(new FusedSemanticVisitor(diagnostics));
+		} else {
+			visitors.add(new NameAnalysisVisitor(diagnostics));
+			visitors.add(new TypeCheckVisitor(diagnostics));
+		}
 		// Error accumulator
 		int errors = 0;
 
@@ -2,9 +2,12 @@ package sem;
 
 public abstract class Symbol {
 	public String name;
+	// NameTable.SHARED id of name
+	public int id;
 
-	public Symbol(String name) {
+	public Symbol(String name, int id) {
 		this.name = name;
+		this.id = id;
 	}
 
 	public abstract boolean isVarDecl();
@@ -0,0 +1,145 @@
+package sem;
+
+import java.util.Arrays;
+
+/**
+ * All the symbols in scope, in one table for the whole analysis rather than
+ * one per scope. Declarations are pushed on a log of entries, each linked to
+ * the entry of the same name it shadows, and an open-addressing index keyed by
+ * the NameTable id of the name points at the innermost one. Entering a scope
+ * marks the log; leaving it pops the entries back to the mark, restoring what
+ * they shadowed. A lookup therefore does not depend on the nesting depth, only
+ * on the entries of the same name it has to skip, such as a variable hiding a
+ * procedure.
+ */
+public class SymbolTable {
+
+	// the log: symbol, scope depth and shadowed entry (-1 if none)
+	private Symbol[] symbols = new Symbol[64];
+	private int[] depths = new int[64];
+	private int[] shadowed = new int[64];
+	private int size;
+
+	// the index: id + 1 (0 if the slot is free) and innermost entry (-1 if
+	// none is in scope any more)
+	private int[] keys = new int[64];
+	private int[] innermost = new int[64];
+	private int used;
+
+	// log size when each enclosing scope was entered
+	private int[] marks = new int[16];
+	private int depth;
+
+	public void enterScope() {
+		if (depth == marks.length)
+			marks = Arrays.copyOf(marks, depth * 2);
+		marks[depth++] = size;
+	}
+
+	public void leaveScope() {
+		int mark = marks[--depth];
+		while (size > mark) {
+			size--;
+			innermost[slot(symbols[size].id)] = shadowed[size];
+			symbols[size] = null;
+		}
+	}
+
+	/*
+	 * Returns the symbol with the given id declared in the current scope.
+	 */
+	public Symbol lookupCurrent(int id) {
+		int entry = innermost(id);
+		return entry >= 0 && depths[entry] == depth ? symbols[entry] : null;
+	}
+
+	/*
+	 * Returns the innermost variable with the given id, skipping procedures.
+	 */
+	public Symbol var_lookup(int id) {
+		for (int entry = innermost(id); entry >= 0; entry = shadowed[entry]) {
+			if (symbols[entry].isVarDecl())
+				return symbols[entry];
+		}
+		return null;
+	}
+
+	/*
+	 * Returns the innermost procedure with the given id, skipping variables.
+	 */
+	public Symbol proc_lookup(int id) {
+		for (int entry = innermost(id); entry >= 0; entry = shadowed[entry]) {
+			if (symbols[entry].isProcedure())
+				return symbols[entry];
+		}
+		return null;
+	}
+
+	/*
+	 * Declares sym in the current scope, shadowing any outer symbol with the
+	 * same id.
+	 */
+	public void put(Symbol sym) {
+		if (size == symbols.length) {
+			symbols = Arrays.copyOf(symbols, size * 2);
+			depths = Arrays.copyOf(depths, size * 2);
+			shadowed = Arrays.copyOf(shadowed, size * 2);
+		}
+		int slot = slot(sym.id);
+		symbols[size] = sym;
+		depths[size] = depth;
+		shadowed[size] = innermost[slot];
+		innermost[slot] = size++;
+	}
+
+	/*
+	 * Returns the innermost entry with the given id, -1 if there is none.
+	 */
+	private int innermost(int id) {
+		int mask = keys.length - 1;
+		for (int i = id & mask; keys[i] != 0; i = (i + 1) & mask) {
+			if (keys[i] == id + 1)
+				return innermost[i];
+		}
+		return -1;
+	}
+
+	/*
+	 * Returns the index slot of id, claiming a free one if id has none yet.
+	 * Slots are never freed: a name leaving scope only resets its entry.
+	 */
+	private int slot(int id) {
+		int mask = keys.length - 1;
+		int i = id & mask;
+		while (keys[i] != 0) {
+			if (keys[i] == id + 1)
+				return i;
+			i = (i + 1) & mask;
+		}
+		if (2 * (used + 1) > keys.length) {
+			grow();
+			return slot(id);
+		}
+		keys[i] = id + 1;
+		innermost[i] = -1;
+		used++;
+		return i;
+	}
+
+	private void grow() {
+		int[] oldKeys = keys;
+		int[] oldInnermost = innermost;
+		keys = new int[oldKeys.length * 2];
+		innermost = new int[oldKeys.length * 2];
+		int mask = keys.length - 1;
+		for (int k = 0; k < oldKeys.length; k++) {
+			if (oldKeys[k] == 0)
+				continue;
+			int i = (oldKeys[k] - 1) & mask;
+			while (keys[i] != 0)
+				i = (i + 1) & mask;
+			keys[i] = oldKeys[k];
+			innermost[i] = oldInnermost[k];
+		}
+	}
+}
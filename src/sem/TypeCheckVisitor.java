@@ -1,9 +1,18 @@
 package sem;
 
 import ast.*;
+import util.Diagnostic.Code;
+import util.Diagnostics;
 
 public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 
+	public TypeCheckVisitor() {
+	}
+
+	public TypeCheckVisitor(Diagnostics diagnostics) {
+		super(diagnostics);
+	}
+
 	@Override
 	public Type visitProgram(Program p) {
 		for (VarDecl vd : p.varDecls) {
@@ -19,7 +28,7 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 	@Override
 	public Type visitVarDecl(VarDecl vd) {
 		if (vd.type == Type.VOID) {
-			error("[Type Checker] Variable '" + vd.var.name + "' cannot be type 'void'");
+			error(Code.VOID_VARIABLE, vd.var.name);
 		}
 		return null;
 	}
@@ -32,7 +41,7 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 		Type blockT = p.block.accept(this);
 		if (p.type != Type.VOID) {
 			if (blockT != p.type) {
-				error("[Type Checker] Return type of procedure '" + p.name + "' does not match the signature");
+				error(Code.RETURN_TYPE_MISMATCH, p.name);
 			}
 		} else {
 			if (blockT == null) {
@@ -41,7 +50,7 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 				p.block.stmts.add(new Return(null));
 			} else {
 				if (blockT != Type.VOID) {
-					error("[Type Checker] Return type of procedure '" + p.name + "' does not match the signature");
+					error(Code.RETURN_TYPE_MISMATCH, p.name);
 				}
 			}
 		}
@@ -76,7 +85,7 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 			Type exprT = f.exprs.get(i).accept(this);
 			Type paramT = f.proc.params.get(i).type;
 			if (exprT != paramT) {
-				error("[Type Checker] Function call '" + f.name + "' does not match its signature");
+				error(Code.CALL_MISMATCH, f.name);
 			}
 		}
 		return f.proc.type;
@@ -88,15 +97,14 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 		Type rhsT = b.rhs.accept(this);
 		if (b.op == Op.ADD || b.op == Op.SUB || b.op == Op.MUL || b.op == Op.DIV || b.op == Op.MOD) {
 			if (lhsT != Type.INT) {
-				error("[Type Checker] Left expression of binary operation '" + b.op + "' cannot be type " + lhsT);
+				error(Code.LEFT_OPERAND_TYPE, b.op, lhsT);
 			}
 			if (rhsT != Type.INT) {
-				error("[Type Checker] Right expression of binary operation '" + b.op + "' cannot be type " + rhsT);
+				error(Code.RIGHT_OPERAND_TYPE, b.op, rhsT);
 			}
 		} else {
 			if (lhsT != rhsT) {
-				error("[Type Checker] Left expression has different type with Right expression in binary operation '"
-						+ b.op + "'");
+				error(Code.OPERAND_TYPE_MISMATCH, b.op);
 			}
 		}
 		return Type.INT;
@@ -125,7 +133,7 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 			Type exprT = f.exprs.get(i).accept(this);
 			Type paramT = f.proc.params.get(i).type;
 			if (exprT != paramT) {
-				error("[Type Checker] Function call '" + f.name + "' does not match its signature");
+				error(Code.CALL_MISMATCH, f.name);
 			}
 		}
 		return null;
@@ -135,7 +143,7 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 	public Type visitWhile(While w) {
 		Type exprT = w.expr.accept(this);
 		if (exprT != Type.INT) {
-			error("[Type Checker] Expression should be type 'int' instead of type '" + exprT + "' in WHILE block");
+			error(Code.CONDITION_TYPE, exprT, "WHILE");
 		}
 		w.stmt.accept(this);
 		return null;
@@ -145,7 +153,7 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 	public Type visitIf(If i) {
 		Type exprT = i.expr.accept(this);
 		if (exprT != Type.INT) {
-			error("[Type Checker] Expression should be type 'int' instead of type '" + exprT + "' in IF block");
+			error(Code.CONDITION_TYPE, exprT, "IF");
 		}
 		Type stmt1T = i.stmt1.accept(this);
 		Type stmt2T = null;
@@ -164,7 +172,7 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 		Type varT = a.var.varDecl.type;
 		Type exprT = a.expr.accept(this);
 		if (varT != exprT) {
-			error("[Type Checker] The type of variable '" + a.var.name + "' does not match in ASSIGNMENT");
+			error(Code.ASSIGNMENT_TYPE_MISMATCH, a.var.name);
 		}
 		return null;
 	}
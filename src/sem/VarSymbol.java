@@ -7,7 +7,7 @@ public class VarSymbol extends Symbol {
 	public VarDecl varDecl;
 
 	public VarSymbol(VarDecl varDecl) {
-		super(varDecl.var.name);
+		super(varDecl.var.name, varDecl.var.id);
 		this.varDecl = varDecl;
 	}
 
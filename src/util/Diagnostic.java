@@ -0,0 +1,107 @@
+package util;
+
+/**
+ * A single error or warning reported by one of the compiler phases. The
+ * message is only formatted from its code and arguments when it is rendered.
+ */
+public final class Diagnostic {
+
+	public enum Phase {
+		LEXER("Lexing"), PARSER("Parsing"), SEMANTIC("semantic");
+
+		final String label;
+
+		private Phase(String label) {
+			this.label = label;
+		}
+	}
+
+	public enum Severity {
+		ERROR, WARNING
+	}
+
+	public enum Code {
+		UNRECOGNISED_CHARACTER(Phase.LEXER, "unrecognised character (%s)"),
+		UNEXPECTED_TOKEN(Phase.PARSER, "expected (%s) found (%s)"),
+		INVALID_OVERLOAD(Phase.SEMANTIC, "[Name Analysis] Invalid overload of '%s'"),
+		UNDECLARED_VARIABLE(Phase.SEMANTIC, "[Name Analysis] Variable '%s' is not declared"),
+		UNDECLARED_PROCEDURE(Phase.SEMANTIC, "[Name Analysis] Procedure '%s' is not declared"),
+		TOO_FEW_ARGUMENTS(Phase.SEMANTIC, "[Name Analysis] Procedure '%s' has too few parameters"),
+		TOO_MANY_ARGUMENTS(Phase.SEMANTIC, "[Name Analysis] Procedure '%s' has too many parameters"),
+		VOID_VARIABLE(Phase.SEMANTIC, "[Type Checker] Variable '%s' cannot be type 'void'"),
+		RETURN_TYPE_MISMATCH(Phase.SEMANTIC, "[Type Checker] Return type of procedure '%s' does not match the signature"),
+		CALL_MISMATCH(Phase.SEMANTIC, "[Type Checker] Function call '%s' does not match its signature"),
+		LEFT_OPERAND_TYPE(Phase.SEMANTIC, "[Type Checker] Left expression of binary operation '%s' cannot be type %s"),
+		RIGHT_OPERAND_TYPE(Phase.SEMANTIC, "[Type Checker] Right expression of binary operation '%s' cannot be type %s"),
+		OPERAND_TYPE_MISMATCH(Phase.SEMANTIC,
+				"[Type Checker] Left expression has different type with Right expression in binary operation '%s'"),
+		CONDITION_TYPE(Phase.SEMANTIC, "[Type Checker] Expression should be type 'int' instead of type '%s' in %s block"),
+		ASSIGNMENT_TYPE_MISMATCH(Phase.SEMANTIC, "[Type Checker] The type of variable '%s' does not match in ASSIGNMENT");
+
+		public final Phase phase;
+		final String format;
+
+		private Code(Phase phase, String format) {
+			this.phase = phase;
+			this.format = format;
+		}
+	}
+
+	public final Severity severity;
+	public final Code code;
+	// null if the diagnostic is not tied to a place in the source
+	public final Position position;
+	private final Object[] args;
+
+	public Diagnostic(Severity severity, Code code, Position position, Object... args) {
+		this.severity = severity;
+		this.code = code;
+		this.position = position;
+		this.args = args;
+	}
+
+	public int getLine() {
+		return position == null ? 0 : position.line;
+	}
+
+	public int getColumn() {
+		return position == null ? 0 : position.column;
+	}
+
+	/*
+	 * Formats the message. Array arguments are rendered as alternatives
+	 * separated by '|'.
+	 */
+	public String getMessage() {
+		Object[] text = new Object[args.length];
+		for (int i = 0; i < args.length; i++)
+			text[i] = argument(i);
+		return String.format(code.format, text);
+	}
+
+	String argument(int i) {
+		if (!(args[i] instanceof Object[]))
+			return String.valueOf(args[i]);
+		StringBuilder sb = new StringBuilder();
+		String sep = "";
+		for (Object o : (Object[]) args[i]) {
+			sb.append(sep);
+			sb.append(o);
+			sep = "|";
+		}
+		return sb.toString();
+	}
+
+	int argumentCount() {
+		return args.length;
+	}
+
+	/*
+	 * Renders the diagnostic the way the phases used to print it.
+	 */
+	@Override
+	public String toString() {
+		String text = code.phase.label + " " + severity.name().toLowerCase() + ": " + getMessage();
+		return position == null ? text : text + " at " + position;
+	}
+}
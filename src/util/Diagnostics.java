@@ -0,0 +1,136 @@
+package util;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import util.Diagnostic.Code;
+import util.Diagnostic.Severity;
+
+/**
+ * Collects the diagnostics of all phases of a compilation. Nothing is printed
+ * while the phases run: the diagnostics are buffered and rendered in one go,
+ * either as text or in a tab-separated format meant for tools. Once the error
+ * cap is reached further errors are only counted.
+ */
+public class Diagnostics {
+
+	public static final int DEFAULT_MAX_ERRORS = 100;
+
+	private final int maxErrors;
+	private final List<Diagnostic> pending = new ArrayList<Diagnostic>();
+	private int errors;
+	private int warnings;
+	// errors counted but not kept because of the cap
+	private int dropped;
+	private boolean machine;
+
+	public Diagnostics() {
+		this(DEFAULT_MAX_ERRORS);
+	}
+
+	public Diagnostics(int maxErrors) {
+		this.maxErrors = maxErrors;
+	}
+
+	/*
+	 * Selects the tab-separated format for print().
+	 */
+	public void setMachineReadable(boolean machine) {
+		this.machine = machine;
+	}
+
+	public synchronized void error(Code code, Position position, Object... args) {
+		errors++;
+		if (errors > maxErrors) {
+			dropped++;
+			return;
+		}
+		pending.add(new Diagnostic(Severity.ERROR, code, position, args));
+	}
+
+	public synchronized void warning(Code code, Position position, Object... args) {
+		warnings++;
+		if (errors >= maxErrors)
+			return;
+		pending.add(new Diagnostic(Severity.WARNING, code, position, args));
+	}
+
+	public synchronized int getErrorCount() {
+		return errors;
+	}
+
+	public synchronized int getWarningCount() {
+		return warnings;
+	}
+
+	/*
+	 * Returns the diagnostics reported and not printed yet.
+	 */
+	public synchronized List<Diagnostic> getPending() {
+		return new ArrayList<Diagnostic>(pending);
+	}
+
+	/*
+	 * Renders the diagnostics reported since the last call and forgets them.
+	 */
+	public synchronized void print(PrintStream out) {
+		StringBuilder sb = new StringBuilder();
+		for (Diagnostic d : pending) {
+			if (machine)
+				appendRecord(sb, d);
+			else
+				sb.append(d);
+			sb.append('\n');
+		}
+		if (dropped > 0) {
+			if (machine)
+				sb.append("dropped\t").append(dropped).append('\n');
+			else
+				sb.append(dropped).append(" more errors not shown\n");
+		}
+		out.print(sb);
+		out.flush();
+		pending.clear();
+		dropped = 0;
+	}
+
+	/*
+	 * phase, severity, line, column, code and the arguments, separated by
+	 * tabs. Line and column are 0 when there is no position.
+	 */
+	private static void appendRecord(StringBuilder sb, Diagnostic d) {
+		sb.append(d.code.phase.name().toLowerCase()).append('\t');
+		sb.append(d.severity.name().toLowerCase()).append('\t');
+		sb.append(d.getLine()).append('\t');
+		sb.append(d.getColumn()).append('\t');
+		sb.append(d.code.name());
+		for (int i = 0; i < d.argumentCount(); i++) {
+			sb.append('\t');
+			escape(sb, d.argument(i));
+		}
+	}
+
+	private static void escape(StringBuilder sb, String s) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '\t':
+				sb.append("\\t");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			default:
+				sb.append(c);
+				break;
+			}
+		}
+	}
+}
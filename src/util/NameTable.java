@@ -0,0 +1,201 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Interns identifiers, giving each distinct name a dense int id. Lookups of
+ * names already interned do not lock; adding a name locks one of several
+ * stripes only, so that concurrent compilations can share the table.
+ *
+ * Names are never removed, so a table grows with every distinct name it has
+ * seen, up to CAPACITY names; interning one more throws an
+ * IllegalStateException.
+ */
+public final class NameTable {
+
+	/*
+	 * The table shared by all compilations in this JVM. It lives as long as
+	 * the JVM and holds every name any of them has interned, so a long-lived
+	 * process compiling unrelated sources keeps the names of all of them.
+	 */
+	public static final NameTable SHARED = new NameTable();
+
+	// must match the shift picking a stripe in spread(h) >>> 26
+	private static final int STRIPES = 64;
+
+	// ids are mapped back to names through fixed-size chunks
+	private static final int CHUNK_BITS = 12;
+	private static final int CHUNK = 1 << CHUNK_BITS;
+	private static final int CHUNKS = 1 << 15;
+
+	/*
+	 * The most names a table can hold.
+	 */
+	public static final int CAPACITY = CHUNKS * CHUNK;
+
+	private final Stripe[] stripes = new Stripe[STRIPES];
+	private final AtomicInteger count = new AtomicInteger();
+	private final AtomicReferenceArray<AtomicReferenceArray<String>> names =
+			new AtomicReferenceArray<AtomicReferenceArray<String>>(CHUNKS);
+
+	public NameTable() {
+		for (int i = 0; i < STRIPES; i++)
+			stripes[i] = new Stripe();
+	}
+
+	public int size() {
+		return count.get();
+	}
+
+	/*
+	 * Returns the name with the given id.
+	 */
+	public String name(int id) {
+		return names.get(id >>> CHUNK_BITS).get(id & (CHUNK - 1));
+	}
+
+	public int intern(String name) {
+		int h = name.hashCode();
+		Stripe stripe = stripes[spread(h) >>> 26];
+		Entry e = stripe.find(name, h);
+		if (e != null)
+			return e.id;
+		synchronized (stripe) {
+			e = stripe.find(name, h);
+			if (e != null)
+				return e.id;
+			return add(stripe, name, h);
+		}
+	}
+
+	/*
+	 * Interns text[offset..offset+length) without allocating when the name is
+	 * already known.
+	 */
+	public int intern(char[] text, int offset, int length) {
+		int h = 0;
+		for (int i = 0; i < length; i++)
+			h = 31 * h + text[offset + i];
+		Stripe stripe = stripes[spread(h) >>> 26];
+		Entry e = stripe.find(text, offset, length, h);
+		if (e != null)
+			return e.id;
+		synchronized (stripe) {
+			e = stripe.find(text, offset, length, h);
+			if (e != null)
+				return e.id;
+			return add(stripe, new String(text, offset, length), h);
+		}
+	}
+
+	/*
+	 * Called with the stripe locked.
+	 */
+	private int add(Stripe stripe, String name, int h) {
+		int id;
+		do {
+			id = count.get();
+			if (id == CAPACITY)
+				throw new IllegalStateException("name table is full: cannot intern more than " + CAPACITY
+						+ " distinct names");
+		} while (!count.compareAndSet(id, id + 1));
+		int c = id >>> CHUNK_BITS;
+		AtomicReferenceArray<String> chunk = names.get(c);
+		if (chunk == null) {
+			names.compareAndSet(c, null, new AtomicReferenceArray<String>(CHUNK));
+			chunk = names.get(c);
+		}
+		// published before the entry, so that whoever finds the id finds the
+		// name too
+		chunk.set(id & (CHUNK - 1), name);
+		stripe.add(new Entry(name, h, id));
+		return id;
+	}
+
+	private static int spread(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static final class Entry {
+		final String name;
+		final int hash;
+		final int id;
+
+		Entry(String name, int hash, int id) {
+			this.name = name;
+			this.hash = hash;
+			this.id = id;
+		}
+	}
+
+	/*
+	 * An open-addressing table. Readers probe whichever array is current
+	 * without locking; writers hold the stripe lock and publish a bigger array
+	 * when the current one is half full.
+	 */
+	private static final class Stripe {
+		private volatile AtomicReferenceArray<Entry> slots = new AtomicReferenceArray<Entry>(16);
+		private int size;
+
+		Entry find(String name, int h) {
+			AtomicReferenceArray<Entry> s = slots;
+			int mask = s.length() - 1;
+			for (int i = spread(h) & mask;; i = (i + 1) & mask) {
+				Entry e = s.get(i);
+				if (e == null)
+					return null;
+				if (e.hash == h && e.name.equals(name))
+					return e;
+			}
+		}
+
+		Entry find(char[] text, int offset, int length, int h) {
+			AtomicReferenceArray<Entry> s = slots;
+			int mask = s.length() - 1;
+			for (int i = spread(h) & mask;; i = (i + 1) & mask) {
+				Entry e = s.get(i);
+				if (e == null)
+					return null;
+				if (e.hash == h && matches(e.name, text, offset, length))
+					return e;
+			}
+		}
+
+		private static boolean matches(String name, char[] text, int offset, int length) {
+			if (name.length() != length)
+				return false;
+			for (int i = 0; i < length; i++) {
+				if (name.charAt(i) != text[offset + i])
+					return false;
+			}
+			return true;
+		}
+
+		void add(Entry e) {
+			AtomicReferenceArray<Entry> s = slots;
+			if (2 * (size + 1) > s.length()) {
+				AtomicReferenceArray<Entry> bigger = new AtomicReferenceArray<Entry>(s.length() * 2);
+				for (int i = 0; i < s.length(); i++) {
+					Entry old = s.get(i);
+					if (old != null)
+						put(bigger, old);
+				}
+				put(bigger, e);
+				slots = bigger;
+			} else {
+				put(s, e);
+			}
+			size++;
+		}
+
+		private static void put(AtomicReferenceArray<Entry> s, Entry e) {
+			int mask = s.length() - 1;
+			int i = spread(e.hash) & mask;
+			while (s.get(i) != null)
+				i = (i + 1) & mask;
+			s.set(i, e);
+		}
+	}
+}
@@ -10,6 +10,14 @@ public class Position {
 		this.column = column;
 	}
 
+	public int getLine() {
+		return line;
+	}
+
+	public int getColumn() {
+		return column;
+	}
+
 	@Override
 	public String toString() {
 		return line + ":" + column;
@@ -0,0 +1,205 @@
+package util;
+
+import java.util.Random;
+
+/**
+ * Generates valid programs of the C subset whose size can be scaled along
+ * separate axes: the number of procedures, statements per procedure body,
+ * statements in main, nesting depth of control flow, operands per expression
+ * and number of globals. The output is deterministic for a given seed.
+ *
+ * Usage: java util.ProgramGenerator [-procs=N] [-statements=N] [-main=N]
+ * [-depth=N] [-expression=N] [-globals=N] [-seed=N]
+ */
+public class ProgramGenerator {
+
+	// locals declared by every procedure, on top of its two parameters
+	private static final int LOCALS = 4;
+
+	public int procs = 10;
+	public int statements = 20;
+	public int mainStatements = 0;
+	public int depth = 2;
+	public int expressionLength = 4;
+	public int globals = 10;
+	public long seed = 42;
+
+	private Random random;
+	private StringBuilder out;
+
+	public String generate() {
+		random = new Random(seed);
+		out = new StringBuilder();
+		out.append("#include \"io.h\"\n\n");
+		for (int g = 0; g < globals; g++)
+			out.append("int g").append(g).append(";\n");
+		out.append('\n');
+		for (int p = 0; p < procs; p++)
+			procedure(p);
+
+		out.append("void main() {\n");
+		out.append("  int x;\n  int y;\n");
+		if (mainStatements > 0) {
+			for (int l = 0; l < LOCALS; l++)
+				out.append("  int v").append(l).append(";\n");
+		}
+		out.append("  x = read_i();\n");
+		out.append("  y = 0;\n");
+		if (mainStatements > 0) {
+			out.append("  v0 = x;\n  v1 = 0;\n  v2 = 0;\n  v3 = 1;\n");
+			for (int s = 0; s < mainStatements; s++) {
+				out.append("  ").append(local()).append(" = ");
+				expression();
+				out.append(";\n");
+			}
+		}
+		if (procs > 0)
+			out.append("  y = p").append(procs - 1).append("(x, y);\n");
+		out.append("  print_i(y);\n");
+		out.append("}\n");
+		String program = out.toString();
+		out = null;
+		return program;
+	}
+
+	/*
+	 * int pN(int a, int b), which calls the previous procedure so that every
+	 * procedure is reachable from main.
+	 */
+	private void procedure(int p) {
+		out.append("int p").append(p).append("(int a, int b) {\n");
+		for (int l = 0; l < LOCALS; l++)
+			out.append("  int v").append(l).append(";\n");
+		out.append("  v0 = a;\n  v1 = b;\n  v2 = 0;\n  v3 = 1;\n");
+		for (int s = 0; s < statements; s++) {
+			indent(1);
+			if (s == 0 && depth > 0)
+				nested(1, depth);
+			else
+				simple(p, s);
+		}
+		out.append("  return v0;\n");
+		out.append("}\n\n");
+	}
+
+	private void simple(int p, int s) {
+		switch (s % 4) {
+		case 0:
+		case 1:
+			out.append(local()).append(" = ");
+			expression();
+			out.append(";\n");
+			break;
+		case 2:
+			if (p > 0) {
+				out.append(local()).append(" = p").append(p - 1).append('(').append(local()).append(", ")
+						.append(local()).append(");\n");
+			} else {
+				out.append("print_i(").append(local()).append(");\n");
+			}
+			break;
+		default:
+			if (globals > 0) {
+				out.append('g').append(random.nextInt(globals)).append(" = ");
+				expression();
+				out.append(";\n");
+			} else {
+				out.append("print_c('x');\n");
+			}
+			break;
+		}
+	}
+
+	/*
+	 * A chain of while and if statements, levels deep.
+	 */
+	private void nested(int level, int levels) {
+		if (level % 2 == 1)
+			out.append("while (").append(local()).append(" < ").append(random.nextInt(100)).append(") {\n");
+		else
+			out.append("if (").append(local()).append(" > ").append(random.nextInt(100)).append(") {\n");
+		indent(level + 1);
+		out.append(local()).append(" = ");
+		expression();
+		out.append(";\n");
+		if (level < levels) {
+			indent(level + 1);
+			nested(level + 1, levels);
+		}
+		indent(level + 1);
+		out.append("v3 = v3 + 1;\n");
+		indent(level);
+		out.append("}\n");
+	}
+
+	private void expression() {
+		for (int i = 0; i < expressionLength; i++) {
+			if (i > 0)
+				out.append(i % 3 == 0 ? " * " : i % 3 == 1 ? " + " : " - ");
+			int operand = random.nextInt(3);
+			if (operand == 0)
+				out.append(random.nextInt(1000));
+			else if (operand == 1 && globals > 0)
+				out.append('g').append(random.nextInt(globals));
+			else
+				out.append(local());
+		}
+	}
+
+	private String local() {
+		return "v" + random.nextInt(LOCALS);
+	}
+
+	private void indent(int level) {
+		for (int i = 0; i < level; i++)
+			out.append("  ");
+	}
+
+	public static void main(String[] args) {
+		ProgramGenerator generator = new ProgramGenerator();
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (eq < 0)
+				usage();
+			int value = 0;
+			try {
+				value = Integer.parseInt(arg.substring(eq + 1));
+			} catch (NumberFormatException e) {
+				usage();
+			}
+			switch (arg.substring(0, eq)) {
+			case "-procs":
+				generator.procs = value;
+				break;
+			case "-statements":
+				generator.statements = value;
+				break;
+			case "-main":
+				generator.mainStatements = value;
+				break;
+			case "-depth":
+				generator.depth = value;
+				break;
+			case "-expression":
+				generator.expressionLength = Math.max(1, value);
+				break;
+			case "-globals":
+				generator.globals = value;
+				break;
+			case "-seed":
+				generator.seed = value;
+				break;
+			default:
+				usage();
+				break;
+			}
+		}
+		System.out.print(generator.generate());
+	}
+
+	private static void usage() {
+		System.out.println("Usage: java " + ProgramGenerator.class.getName()
+				+ " [-procs=N] [-statements=N] [-main=N] [-depth=N] [-expression=N] [-globals=N] [-seed=N]");
+		System.exit(-1);
+	}
+}